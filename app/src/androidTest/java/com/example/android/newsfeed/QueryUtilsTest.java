@@ -0,0 +1,83 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the streaming parser against the original String/JSONObject parser using a recorded
+ * Guardian search response
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryUtilsTest {
+
+    private static final String FIXTURE = "search_response.json";
+
+    @Test
+    public void streamParserMatchesStringParser() throws Exception {
+        List<NewsItem> expected = QueryUtils.extractFeaturesFromJson(readFixtureAsString());
+
+        InputStream inputStream = openFixture();
+        List<NewsItem> actual;
+        try {
+            actual = QueryUtils.extractNewsItemsFromStream(inputStream);
+        } finally {
+            inputStream.close();
+        }
+
+        assertEquals(10, expected.size());
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            NewsItem e = expected.get(i);
+            NewsItem a = actual.get(i);
+            assertEquals(e.getHeadline(), a.getHeadline());
+            assertEquals(e.getSection(), a.getSection());
+            assertEquals(e.getSectionId(), a.getSectionId());
+            assertEquals(e.getWebPublicationTime(), a.getWebPublicationTime());
+            assertEquals(e.getUrl(), a.getUrl());
+            assertEquals(e.getThumbnailUrl(), a.getThumbnailUrl());
+        }
+    }
+
+    @Test
+    public void streamParserSkipsResultsMissingFields() throws Exception {
+        String json = "{\"response\":{\"results\":["
+                + "{\"sectionName\":\"World news\",\"webPublicationDate\":\"2017-07-20T09:00:00Z\","
+                + "\"webUrl\":\"https://www.theguardian.com/world/a\",\"fields\":{\"headline\":\"A\"}},"
+                + "{\"sectionName\":\"Sport\",\"webPublicationDate\":\"2017-07-19T09:00:00Z\","
+                + "\"webUrl\":\"https://www.theguardian.com/sport/b\","
+                + "\"fields\":{\"headline\":\"B\",\"thumbnail\":\"https://media.guim.co.uk/b.jpg\"}}"
+                + "]}}";
+
+        List<NewsItem> newsItems = QueryUtils.extractNewsItemsFromStream(
+                new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+        assertEquals(1, newsItems.size());
+        assertEquals("B", newsItems.get(0).getHeadline());
+    }
+
+    private InputStream openFixture() throws IOException {
+        Context context = InstrumentationRegistry.getContext();
+        return context.getAssets().open(FIXTURE);
+    }
+
+    private String readFixtureAsString() throws IOException {
+        InputStream inputStream = openFixture();
+        try {
+            return QueryUtils.readFromStream(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.newsfeed;
+
+import android.app.LoaderManager.LoaderCallbacks;
+import android.content.Context;
+import android.content.Intent;
+import android.content.Loader;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.AppCompatActivity;
+import android.text.format.DateUtils;
+import android.text.method.LinkMovementMethod;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.TextView;
+
+import java.net.URISyntaxException;
+
+import static android.content.Intent.ACTION_VIEW;
+
+/**
+ * Shows a story in the app. The headline, section and date come with the intent so show at
+ * once, and the body follows from the article store, or from the network if it wasn't saved.
+ * The story can still be opened in the browser from the menu
+ */
+
+public class ArticleActivity extends AppCompatActivity implements LoaderCallbacks<CharSequence> {
+
+    private static final int ARTICLE_LOADER_ID = 1;
+
+    private static final String EXTRA_URL = "url";
+    private static final String EXTRA_HEADLINE = "headline";
+    private static final String EXTRA_SECTION = "section";
+    private static final String EXTRA_TIME = "time";
+
+    private UrlKey articleUrl;
+
+    private TextView bodyView;
+    private TextView errorMessageView;
+    private View progressView;
+
+    /**
+     * Returns an intent opening a story in the reader
+     * @param context
+     * @param newsItem
+     * @return
+     */
+    static Intent newIntent(Context context, NewsItem newsItem){
+        Intent intent = new Intent(context, ArticleActivity.class);
+        intent.putExtra(EXTRA_URL, newsItem.getUrl().toString());
+        intent.putExtra(EXTRA_HEADLINE, newsItem.getHeadline());
+        intent.putExtra(EXTRA_SECTION, newsItem.getSection());
+        intent.putExtra(EXTRA_TIME, newsItem.getWebPublicationTime());
+        return intent;
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState){
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_article);
+
+        ActionBar actionBar = getSupportActionBar();
+        if(actionBar != null){
+            actionBar.setDisplayHomeAsUpEnabled(true);
+        }
+
+        Intent intent = getIntent();
+        String url = intent.getStringExtra(EXTRA_URL);
+        try{
+            articleUrl = url != null ? UrlKey.parse(url) : null;
+        }catch(URISyntaxException e){
+            articleUrl = null;
+        }
+        if(articleUrl == null){
+            finish();
+            return;
+        }
+
+        ((TextView) findViewById(R.id.article_headline_text))
+                .setText(intent.getStringExtra(EXTRA_HEADLINE));
+        ((TextView) findViewById(R.id.article_section_text))
+                .setText(intent.getStringExtra(EXTRA_SECTION));
+        ((TextView) findViewById(R.id.article_date_text)).setText(DateUtils.formatDateTime(this,
+                intent.getLongExtra(EXTRA_TIME, 0),
+                DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME));
+
+        bodyView = (TextView) findViewById(R.id.article_body_text);
+        bodyView.setMovementMethod(LinkMovementMethod.getInstance());
+        errorMessageView = (TextView) findViewById(R.id.article_error_text);
+        progressView = findViewById(R.id.article_progress);
+
+        progressView.setVisibility(View.VISIBLE);
+        getLoaderManager().initLoader(ARTICLE_LOADER_ID, null, this);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu){
+        getMenuInflater().inflate(R.menu.article, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item){
+        int id = item.getItemId();
+
+        //Back to the feed as it was left
+        if(id == android.R.id.home){
+            finish();
+            return true;
+        }
+
+        if(id == R.id.action_open_in_browser){
+            startActivity(new Intent(ACTION_VIEW, Uri.parse(articleUrl.toString())));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public Loader<CharSequence> onCreateLoader(int id, Bundle args){
+        return new ArticleLoader(this, articleUrl);
+    }
+
+    @Override
+    public void onLoadFinished(Loader<CharSequence> loader, CharSequence body){
+        progressView.setVisibility(View.GONE);
+
+        if(body != null && body.length() > 0){
+            errorMessageView.setVisibility(View.GONE);
+            bodyView.setText(body);
+            return;
+        }
+
+        //Say why there is nothing to read, the browser can still show the story
+        FetchException failure = ((ArticleLoader) loader).getFailure();
+        if(failure != null){
+            errorMessageView.setText(R.string.article_error);
+        }else if(NetworkPolicy.classify(this) == NetworkPolicy.NETWORK_NONE){
+            errorMessageView.setText(R.string.article_not_saved);
+        }else{
+            errorMessageView.setText(R.string.article_no_body);
+        }
+        errorMessageView.setVisibility(View.VISIBLE);
+    }
+
+    @Override
+    public void onLoaderReset(Loader<CharSequence> loader){
+        bodyView.setText("");
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.android.newsfeed;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.os.Build;
+import android.text.Html;
+import android.text.Spanned;
+
+/**
+ * Loads the body of one article for the reader, ready to show in a TextView. The body comes
+ * from the article store if it was saved, which only takes a disk read, and otherwise is
+ * fetched if there is a connection
+ */
+
+class ArticleLoader extends AsyncTaskLoader<CharSequence> {
+
+    private final UrlKey mUrl;
+
+    //Last body loaded, kept so the reader gets it back at once after a rotation
+    private CharSequence mResult;
+
+    //Why the last load failed, null if it didn't. Set on the loading thread
+    private volatile FetchException mFailure;
+
+    ArticleLoader(Context context, UrlKey url){
+        super(context);
+        mUrl = url;
+    }
+
+    /**
+     * Returns why the last load failed, or null if it succeeded or there was no connection
+     * @return
+     */
+    FetchException getFailure(){
+        return mFailure;
+    }
+
+    @Override
+    public void onStartLoading(){
+        if(mResult != null){
+            deliverResult(mResult);
+        }else{
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(CharSequence body){
+        mResult = body;
+        if(isStarted()){
+            super.deliverResult(body);
+        }
+    }
+
+    /**
+     * Reads the body from the store, fetching it if it isn't there
+     * @return the body, or null if it couldn't be had
+     */
+    @Override
+    public CharSequence loadInBackground(){
+        long openStart = PerfMetrics.start();
+        mFailure = null;
+
+        String body = ArticleStore.getInstance(getContext()).get(mUrl);
+        if(body != null){
+            Spanned spanned = fromHtml(body);
+            PerfMetrics.getInstance().record(PerfMetrics.ARTICLE_OPEN, openStart);
+            return spanned;
+        }
+
+        if(NetworkPolicy.classify(getContext()) == NetworkPolicy.NETWORK_NONE){
+            return null;
+        }
+        try{
+            body = ArticlePrefetcher.create(getContext()).get(mUrl);
+        }catch(FetchException e){
+            mFailure = e;
+            return null;
+        }
+        return body != null ? fromHtml(body) : null;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Spanned fromHtml(String html){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N){
+            return Html.fromHtml(html, Html.FROM_HTML_MODE_LEGACY);
+        }
+        return Html.fromHtml(html);
+    }
+}
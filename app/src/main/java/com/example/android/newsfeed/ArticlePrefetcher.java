@@ -0,0 +1,162 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Saves the bodies of the top stories in the article store so the reader opens them at once,
+ * and offline. The bodies of all the stories not saved yet are asked for in one request, apart
+ * from the feed so the feed isn't slowed by them. Blocks so must be run off the main thread,
+ * prefetchInBackground() runs it on a thread of its own
+ */
+
+class ArticlePrefetcher {
+
+    private static final String LOG_TAG = ArticlePrefetcher.class.getName();
+
+    private static ExecutorService sExecutor;
+
+    private final Source mSource;
+    private final ArticleStore mStore;
+
+    /**
+     * Where bodies are fetched from
+     */
+    interface Source {
+        /**
+         * Returns the bodies of articles by their web url, leaving out any that have none
+         */
+        Map<UrlKey, String> fetchBodies(List<UrlKey> articleUrls) throws FetchException;
+    }
+
+    ArticlePrefetcher(Source source, ArticleStore store){
+        mSource = source;
+        mStore = store;
+    }
+
+    /**
+     * Returns a prefetcher fetching from the Guardian API into the app's article store
+     * @param context
+     * @return
+     */
+    static ArticlePrefetcher create(Context context){
+        return new ArticlePrefetcher(new Source() {
+            @Override
+            public Map<UrlKey, String> fetchBodies(List<UrlKey> articleUrls)
+                    throws FetchException {
+                String url = FeedQuery.buildArticlesUrl(articleUrls);
+                if(url == null){
+                    return Collections.emptyMap();
+                }
+                return QueryUtils.fetchArticleBodies(url);
+            }
+        }, ArticleStore.getInstance(context));
+    }
+
+    /**
+     * Saves the bodies of the first count stories that aren't saved yet. Prefetches run one at
+     * a time so a story is never fetched twice at once
+     * @param context
+     * @param newsItems the feed, top story first
+     * @param count
+     */
+    static void prefetchInBackground(Context context, List<NewsItem> newsItems, final int count){
+        if(count <= 0 || newsItems.isEmpty()){
+            return;
+        }
+        final ArticlePrefetcher prefetcher = create(context.getApplicationContext());
+        final List<NewsItem> topItems =
+                new ArrayList<>(newsItems.subList(0, Math.min(count, newsItems.size())));
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try{
+                    int saved = prefetcher.prefetch(topItems, count);
+                    Log.d(LOG_TAG, "Saved " + saved + " article bodies");
+                }catch(FetchException e){
+                    Log.w(LOG_TAG, "Article prefetch failed", e);
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getExecutor(){
+        if(sExecutor == null){
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ArticlePrefetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Fetches and saves the bodies of the first count stories that aren't saved yet
+     * @param newsItems the feed, top story first
+     * @param count number of top stories to look at
+     * @return the number of bodies saved
+     * @throws FetchException if the bodies could not be fetched
+     */
+    int prefetch(List<NewsItem> newsItems, int count) throws FetchException{
+        List<UrlKey> missing = new ArrayList<>();
+        for(int i = 0; i < newsItems.size() && i < count; i++){
+            UrlKey url = newsItems.get(i).getUrl();
+            if(!mStore.contains(url) && !missing.contains(url)){
+                missing.add(url);
+            }
+        }
+        if(missing.isEmpty()){
+            return 0;
+        }
+        return save(mSource.fetchBodies(missing));
+    }
+
+    /**
+     * Returns the body of one article, from the store if it is saved or else fetched and saved
+     * @param url the article's web url
+     * @return the body, or null if the article has none
+     * @throws FetchException if the body had to be fetched and could not be
+     */
+    String get(UrlKey url) throws FetchException{
+        String body = mStore.get(url);
+        if(body != null){
+            return body;
+        }
+        Map<UrlKey, String> bodies = mSource.fetchBodies(Collections.singletonList(url));
+        String fetched = bodies.get(url);
+        if(fetched == null){
+            return null;
+        }
+
+        //Shown even if it can't be saved
+        save(bodies);
+        return ArticleStore.simplify(fetched);
+    }
+
+    private int save(Map<UrlKey, String> bodies){
+        int saved = 0;
+        for(Map.Entry<UrlKey, String> entry : bodies.entrySet()){
+            try{
+                mStore.put(entry.getKey(), entry.getValue());
+                saved++;
+            }catch(IOException e){
+                //Out of space or the store went away, the rest won't fare any better
+                break;
+            }
+        }
+        return saved;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps the bodies of articles on disk so the reader can open them at once and offline.
+ *
+ * A body is the article's HTML from the API with the parts the reader can't show natively,
+ * such as images, embeds and scripts, taken out. It is stored deflated, as article HTML
+ * shrinks to around a third, in a disk cache bounded by size that drops the least recently
+ * read articles first. Must be used off the main thread
+ */
+
+class ArticleStore {
+
+    private static final String LOG_TAG = ArticleStore.class.getName();
+
+    //Size of the on disk article store in bytes, compressed
+    private static final long MAX_BYTES = 5 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Elements with content the reader doesn't show, removed along with what they hold
+    private static final Pattern UNSHOWN_ELEMENTS = Pattern.compile(
+            "<(figure|aside|script|style|iframe|video|audio|object)\\b.*?</\\1\\s*>",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    //Single tags and comments the reader doesn't show
+    private static final Pattern UNSHOWN_TAGS = Pattern.compile(
+            "<(img|source|embed)\\b[^>]*>|<!--.*?-->",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static ArticleStore sInstance;
+
+    private final DiskCache mDiskCache;
+
+    /**
+     * Returns the article store shared by the whole app
+     * @param context
+     * @return
+     */
+    static synchronized ArticleStore getInstance(Context context){
+        if(sInstance == null){
+            DiskCache diskCache = null;
+            try{
+                diskCache = DiskCache.open(new File(context.getCacheDir(), "articles"), MAX_BYTES);
+            }catch(IOException e){
+                Log.e(LOG_TAG, "Error opening article store", e);
+            }
+            sInstance = new ArticleStore(diskCache);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param diskCache where bodies are kept, null to keep nothing
+     */
+    ArticleStore(DiskCache diskCache){
+        mDiskCache = diskCache;
+    }
+
+    /**
+     * Returns true if the body of an article is stored
+     * @param url the article's web url
+     * @return
+     */
+    boolean contains(UrlKey url){
+        return mDiskCache != null && mDiskCache.contains(url.toString());
+    }
+
+    /**
+     * Returns the stored body of an article, or null if it isn't stored or can't be read
+     * @param url the article's web url
+     * @return
+     */
+    String get(UrlKey url){
+        if(mDiskCache == null){
+            return null;
+        }
+        String key = url.toString();
+        byte[] stored = mDiskCache.getBytes(key);
+        if(stored == null){
+            return null;
+        }
+        try{
+            return decompress(stored);
+        }catch(IOException e){
+            //Can't be read so drop it, it is fetched again when next wanted
+            mDiskCache.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the body of an article, replacing any stored before
+     * @param url the article's web url
+     * @param html the body as the API gives it
+     * @throws IOException
+     */
+    void put(UrlKey url, String html) throws IOException{
+        if(mDiskCache != null){
+            mDiskCache.put(url.toString(), compress(simplify(html)));
+        }
+    }
+
+    /**
+     * Removes from article HTML what the reader can't show natively
+     * @param html
+     * @return
+     */
+    static String simplify(String html){
+        String simplified = UNSHOWN_ELEMENTS.matcher(html).replaceAll("");
+        return UNSHOWN_TAGS.matcher(simplified).replaceAll("").trim();
+    }
+
+    static byte[] compress(String text) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try{
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+            out.write(text.getBytes(UTF_8));
+            out.close();
+        }finally{
+            //Frees the native memory now rather than when it is collected
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    static String decompress(byte[] compressed) throws IOException{
+        InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed));
+        try{
+            return new String(QueryUtils.readBytesFromStream(in), UTF_8);
+        }finally{
+            in.close();
+        }
+    }
+}
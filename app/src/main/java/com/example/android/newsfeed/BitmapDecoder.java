@@ -0,0 +1,82 @@
+package com.example.android.newsfeed;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes images at the size they will be displayed rather than at full resolution
+ */
+
+class BitmapDecoder {
+
+    //** Private Constructor to stop instantiation
+    private BitmapDecoder(){}
+
+    /**
+     * Decodes an encoded image so that it is no smaller than the requested size, reusing a
+     * pooled bitmap for the pixels where one fits. Returns null if the data can't be decoded
+     * @param data
+     * @param reqWidth
+     * @param reqHeight
+     * @param config RGB_565 halves the memory of images without transparency
+     * @param pool may be null
+     * @return
+     */
+    static Bitmap decode(byte[] data, int reqWidth, int reqHeight, Bitmap.Config config,
+                         BitmapPool pool){
+
+        //Read the image dimensions without allocating any pixels
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0){
+            return null;
+        }
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+
+        if(pool != null){
+            options.inBitmap = pool.get(divideRoundingUp(options.outWidth, options.inSampleSize),
+                    divideRoundingUp(options.outHeight, options.inSampleSize),
+                    options.inSampleSize, config);
+        }
+
+        try{
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }catch(IllegalArgumentException e){
+            //The decoder refused the pooled bitmap, decode into a fresh one instead
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Returns the largest power of two sample size that keeps both dimensions of the image at
+     * least as large as requested
+     * @param width
+     * @param height
+     * @param reqWidth
+     * @param reqHeight
+     * @return
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight){
+        int inSampleSize = 1;
+
+        if(reqWidth <= 0 || reqHeight <= 0){
+            return inSampleSize;
+        }
+
+        while(width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight){
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static int divideRoundingUp(int value, int divisor){
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.newsfeed;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Holds bitmaps evicted from the image cache so their memory can be reused when decoding the
+ * next thumbnail through BitmapFactory.Options.inBitmap instead of allocating a new bitmap.
+ * Bounded by the number of bytes the pooled bitmaps use. Safe to use from any thread
+ */
+
+class BitmapPool {
+
+    private final int mMaxBytes;
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private int mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Initialise pool to hold at most maxBytes of bitmap data
+     * @param maxBytes
+     */
+    BitmapPool(int maxBytes){
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Offers a bitmap that is no longer displayed for reuse. Only mutable bitmaps can be
+     * decoded into so anything else is ignored
+     * @param bitmap
+     */
+    synchronized void put(Bitmap bitmap){
+        if(bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()){
+            return;
+        }
+
+        int bytes = Cache.getBitmapBytes(bitmap);
+        if(bytes > mMaxBytes){
+            return;
+        }
+
+        mBitmaps.addFirst(bitmap);
+        mSize += bytes;
+
+        //Drop the oldest bitmaps once over budget and let the garbage collector have them
+        while(mSize > mMaxBytes){
+            mSize -= Cache.getBitmapBytes(mBitmaps.removeLast());
+        }
+    }
+
+    /**
+     * Removes and returns a pooled bitmap that an image of the given decoded size can be
+     * decoded into, or null if there isn't one
+     * @param width decoded width
+     * @param height decoded height
+     * @param inSampleSize sample size the image will be decoded with
+     * @param config
+     * @return
+     */
+    synchronized Bitmap get(int width, int height, int inSampleSize, Bitmap.Config config){
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while(iterator.hasNext()){
+            Bitmap candidate = iterator.next();
+            if(canDecodeInto(candidate, width, height, inSampleSize, config)){
+                iterator.remove();
+                mSize -= Cache.getBitmapBytes(candidate);
+                mHitCount++;
+                return candidate;
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Before KitKat a bitmap can only be reused for an image of exactly the same size decoded
+     * without sampling. From KitKat on any bitmap with enough memory will do
+     */
+    private static boolean canDecodeInto(Bitmap candidate, int width, int height,
+                                         int inSampleSize, Bitmap.Config config){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+            int bytes = width * height * getBytesPerPixel(config);
+            return bytes <= candidate.getAllocationByteCount();
+        }
+        return inSampleSize == 1 && candidate.getWidth() == width
+                && candidate.getHeight() == height && candidate.getConfig() == config;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config){
+        if(config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444){
+            return 2;
+        }else if(config == Bitmap.Config.ALPHA_8){
+            return 1;
+        }
+        return 4;
+    }
+
+    synchronized int getSize(){
+        return mSize;
+    }
+
+    synchronized int getHitCount(){
+        return mHitCount;
+    }
+
+    synchronized int getMissCount(){
+        return mMissCount;
+    }
+}
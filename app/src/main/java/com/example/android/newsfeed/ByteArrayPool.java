@@ -0,0 +1,54 @@
+package com.example.android.newsfeed;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of equally sized byte buffers so that reading a response body does not
+ * allocate a fresh buffer every time
+ */
+
+class ByteArrayPool {
+
+    private final int mBufferSize;
+    private final int mMaxPooled;
+    private final ArrayDeque<byte[]> mBuffers;
+
+    /**
+     * Initialise pool to hand out buffers of a given size, keeping at most maxPooled spare
+     * @param bufferSize
+     * @param maxPooled
+     */
+    ByteArrayPool(int bufferSize, int maxPooled){
+        mBufferSize = bufferSize;
+        mMaxPooled = maxPooled;
+        mBuffers = new ArrayDeque<>(maxPooled);
+    }
+
+    /**
+     * Returns a spare buffer if there is one, otherwise allocates a new one
+     * @return
+     */
+    synchronized byte[] acquire(){
+        byte[] buffer = mBuffers.pollFirst();
+        return buffer != null ? buffer : new byte[mBufferSize];
+    }
+
+    /**
+     * Hands a buffer back to the pool. Buffers of the wrong size or beyond the cap are dropped
+     * @param buffer
+     */
+    synchronized void release(byte[] buffer){
+        if(buffer == null || buffer.length != mBufferSize || mBuffers.size() >= mMaxPooled){
+            return;
+        }
+        mBuffers.addFirst(buffer);
+    }
+
+    int getBufferSize(){
+        return mBufferSize;
+    }
+
+    synchronized int getPooledCount(){
+        return mBuffers.size();
+    }
+}
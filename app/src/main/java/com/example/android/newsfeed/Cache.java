@@ -1,52 +1,201 @@
 package com.example.android.newsfeed;
 
+import android.app.ActivityManager;
+import android.content.Context;
 import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
 
-import java.net.URL;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * This class holds an ordered cache of images replacing old images with new ones FIFO
+ * This class holds a cache of images bounded by the number of bytes the bitmaps use.
+ * The least recently used image is evicted first. Safe to use from any thread.
+ *
+ * With a bitmap pool, an evicted bitmap is only handed to the pool once no view is drawing
+ * it, as the pool lets the next decode overwrite its pixels. Views say when they start and
+ * stop showing a bitmap with retain() and release()
  */
 
 class Cache {
 
-    int mMaxSize;
-    LinkedHashMap<URL, Bitmap> mCache;
+    //Fraction of the app's memory class given to the image cache
+    private static final int MEMORY_CLASS_DIVISOR = 8;
+
+    private final LruCache<UrlKey, Bitmap> mCache;
+    private final BitmapPool mBitmapPool;
+
+    //Number of views showing each bitmap, and the evicted bitmaps waiting for that to reach 0
+    //before going to the pool. Guarded by mInUse
+    private final Map<Bitmap, Integer> mInUse = new IdentityHashMap<>();
+    private final Set<Bitmap> mEvictedInUse =
+            Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
 
     /**
-     * Initialise cache to max number of images
-     * @param noOfImages
+     * Initialise cache to a maximum number of bytes of bitmap data
+     * @param maxBytes
      */
-    public Cache(int noOfImages){
-        mMaxSize = noOfImages;
-        mCache = new LinkedHashMap<>(noOfImages);
+    public Cache(int maxBytes){
+        this(maxBytes, null);
     }
 
-    public void addImage(URL url, Bitmap bitmap){
+    /**
+     * Initialise cache to a maximum number of bytes of bitmap data, handing evicted bitmaps
+     * to a pool so their memory can be decoded into again
+     * @param maxBytes
+     * @param bitmapPool may be null
+     */
+    public Cache(int maxBytes, BitmapPool bitmapPool){
+        mBitmapPool = bitmapPool;
+        mCache = new LruCache<UrlKey, Bitmap>(maxBytes){
+            @Override
+            protected int sizeOf(UrlKey key, Bitmap bitmap){
+                return getBitmapBytes(bitmap);
+            }
 
+            @Override
+            protected void entryRemoved(boolean evicted, UrlKey key, Bitmap oldValue, Bitmap newValue){
+                if(evicted){
+                    recycle(oldValue);
+                }
+            }
+        };
+    }
 
-            //Check to see if the image is already in the cache
-            if(mCache.containsKey(url)){
+    /**
+     * Hands an evicted bitmap to the pool, or if a view is still showing it, keeps it back
+     * until release() says the last view has let go
+     */
+    private void recycle(Bitmap bitmap){
+        if(mBitmapPool == null){
+            return;
+        }
+        synchronized(mInUse){
+            if(mInUse.containsKey(bitmap)){
+                mEvictedInUse.add(bitmap);
                 return;
             }
+        }
+        mBitmapPool.put(bitmap);
+    }
+
+    /**
+     * Records that a view has started showing a bitmap, so it isn't decoded into while shown.
+     * Must be matched by a call to release()
+     * @param bitmap
+     */
+    void retain(Bitmap bitmap){
+        if(bitmap == null){
+            return;
+        }
+        synchronized(mInUse){
+            Integer count = mInUse.get(bitmap);
+            mInUse.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
 
-            //If the cache is full delete the first entry
-            if(mCache.size() == mMaxSize){
-                mCache.remove(mCache.keySet().toArray()[0]);
+    /**
+     * Records that a view has stopped showing a bitmap. Once no view shows an evicted bitmap
+     * it goes to the pool
+     * @param bitmap
+     */
+    void release(Bitmap bitmap){
+        if(bitmap == null){
+            return;
+        }
+        synchronized(mInUse){
+            Integer count = mInUse.get(bitmap);
+            if(count == null){
+                return;
+            }
+            if(count > 1){
+                mInUse.put(bitmap, count - 1);
+                return;
+            }
+            mInUse.remove(bitmap);
+            if(!mEvictedInUse.remove(bitmap)){
+                return;
             }
+        }
+        if(mBitmapPool != null){
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Returns the number of bytes the image cache should use on this device
+     * @param context
+     * @return
+     */
+    static int getDefaultMaxBytes(Context context){
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+    }
+
+    /**
+     * Returns the number of bytes a bitmap holds in memory
+     * @param bitmap
+     * @return
+     */
+    static int getBitmapBytes(Bitmap bitmap){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT){
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    public void addImage(UrlKey url, Bitmap bitmap){
+        if(url == null || bitmap == null){
+            return;
+        }
 
-            //Add the new entry
-            mCache.put(url, bitmap);
+        //An evicted bitmap a view still shows can come back, it mustn't go to the pool then
+        synchronized(mInUse){
+            mEvictedInUse.remove(bitmap);
+        }
+
+        //Adding an image already in the cache just marks it as recently used
+        mCache.put(url, bitmap);
     }
 
     /**
-     * Returns bitmap assosciated with a given URL and returns null otherwise
+     * Returns bitmap assosciated with a given URL and returns null otherwise.
+     * A hit marks the image as recently used
      * @param url
      * @return
      */
-    public Bitmap getImage(URL url){
+    public Bitmap getImage(UrlKey url){
+        if(url == null){
+            return null;
+        }
         return mCache.get(url);
     }
-}
 
+    int getHitCount(){
+        return mCache.hitCount();
+    }
+
+    int getMissCount(){
+        return mCache.missCount();
+    }
+
+    int getEvictionCount(){
+        return mCache.evictionCount();
+    }
+
+    /**
+     * Returns the number of bytes currently held
+     * @return
+     */
+    int getSize(){
+        return mCache.size();
+    }
+
+    int getMaxSize(){
+        return mCache.maxSize();
+    }
+}
@@ -0,0 +1,464 @@
+package com.example.android.newsfeed;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded cache of byte blobs stored as files in a directory, evicting the least
+ * recently used entry first.
+ *
+ * Entries are written to a temporary file, synced and then renamed into place so a crash never
+ * leaves a half written entry behind. Every change is appended to a journal which is replayed
+ * when the cache is opened. Lines that were cut short by a crash, entries whose file has gone
+ * missing or changed size and files the journal does not know about are all thrown away
+ */
+
+class DiskCache {
+
+    static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String JOURNAL_HEADER = "newsfeed.DiskCache 1";
+
+    private static final String PUT = "PUT";
+    private static final String DEL = "DEL";
+    private static final String READ = "READ";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    //Rewrite the journal once it holds this many more lines than there are entries
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    //File name to entry size, in access order so the eldest entry is the next to be evicted
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private Writer mJournalWriter;
+    private int mJournalLines;
+    private long mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    private DiskCache(File directory, long maxBytes){
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache in a directory, creating it if needed and rebuilding the index from the
+     * journal. This reads the disk so must not be called on the main thread
+     * @param directory
+     * @param maxBytes
+     * @return
+     * @throws IOException
+     */
+    static DiskCache open(File directory, long maxBytes) throws IOException{
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        DiskCache cache = new DiskCache(directory, maxBytes);
+        cache.readJournal();
+        cache.deleteUnknownFiles();
+        cache.rewriteJournal();
+        cache.trimToSize();
+        return cache;
+    }
+
+    /**
+     * Returns a stream over the entry for a key, or null if there is none.
+     * The caller must close the stream
+     * @param key
+     * @return
+     */
+    synchronized InputStream get(String key){
+        String name = nameFor(key);
+        if(!mEntries.containsKey(name)){
+            mMissCount++;
+            return null;
+        }
+
+        try{
+            //Opening inside the lock means an eviction can't delete the file first. Once open
+            //the file can still be read even if it is deleted while being read
+            InputStream inputStream = new FileInputStream(new File(mDirectory, name));
+            mEntries.get(name);
+            mHitCount++;
+            appendJournal(READ, name, -1);
+            return inputStream;
+        }catch(FileNotFoundException e){
+            //The file was removed behind our back so forget about it
+            removeEntry(name);
+            mMissCount++;
+            return null;
+        }
+    }
+
+    /**
+     * Reads the whole entry for a key, returning null if there is none or it cannot be read
+     * @param key
+     * @return
+     */
+    byte[] getBytes(String key){
+        InputStream inputStream = get(key);
+        if(inputStream == null){
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        try{
+            int count = inputStream.read(buffer);
+            while(count != -1){
+                bytes.write(buffer, 0, count);
+                count = inputStream.read(buffer);
+            }
+            return bytes.toByteArray();
+        }catch(IOException e){
+            remove(key);
+            return null;
+        }finally{
+            try{
+                inputStream.close();
+            }catch(IOException e){
+                //Nothing more to do, we already have the data or have given up on it
+            }
+        }
+    }
+
+    /**
+     * Stores data for a key, replacing any existing entry. The data is written to disk before
+     * taking the cache lock so slow writes don't hold up readers. Data larger than the whole
+     * cache isn't stored, as it would evict every other entry and still not fit, and any
+     * existing entry for the key is removed instead
+     * @param key
+     * @param data
+     * @return false if the data was too large to store
+     * @throws IOException
+     */
+    boolean put(String key, byte[] data) throws IOException{
+        String name = nameFor(key);
+
+        if(data.length > mMaxBytes){
+            synchronized(this){
+                removeEntry(name);
+            }
+            return false;
+        }
+
+        //Each writer gets its own temporary file so concurrent puts of one key don't collide
+        File tmpFile = new File(mDirectory, name + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        FileOutputStream outputStream = new FileOutputStream(tmpFile);
+        try{
+            outputStream.write(data);
+            outputStream.flush();
+            outputStream.getFD().sync();
+        }catch(IOException e){
+            outputStream.close();
+            tmpFile.delete();
+            throw e;
+        }
+        outputStream.close();
+
+        synchronized(this){
+            File file = new File(mDirectory, name);
+            if(!tmpFile.renameTo(file)){
+                tmpFile.delete();
+                throw new IOException("Unable to move cache entry into place " + file);
+            }
+
+            Long previousSize = mEntries.put(name, (long) data.length);
+            if(previousSize != null){
+                mSize -= previousSize;
+            }
+            mSize += data.length;
+            appendJournal(PUT, name, data.length);
+
+            trimToSize();
+            compactJournalIfNeeded();
+        }
+        return true;
+    }
+
+    /**
+     * Removes the entry for a key. Returns true if there was one
+     * @param key
+     * @return
+     */
+    synchronized boolean remove(String key){
+        return removeEntry(nameFor(key));
+    }
+
+    /**
+     * Returns true if there is an entry for a key, without counting it as a use of the entry
+     * @param key
+     * @return
+     */
+    synchronized boolean contains(String key){
+        return mEntries.containsKey(nameFor(key));
+    }
+
+    /**
+     * Returns the number of bytes stored
+     * @return
+     */
+    synchronized long getSize(){
+        return mSize;
+    }
+
+    long getMaxSize(){
+        return mMaxBytes;
+    }
+
+    synchronized int getEntryCount(){
+        return mEntries.size();
+    }
+
+    synchronized int getHitCount(){
+        return mHitCount;
+    }
+
+    synchronized int getMissCount(){
+        return mMissCount;
+    }
+
+    synchronized int getEvictionCount(){
+        return mEvictionCount;
+    }
+
+    /**
+     * Closes the journal. The cache can't be used after this
+     * @throws IOException
+     */
+    synchronized void close() throws IOException{
+        if(mJournalWriter != null){
+            mJournalWriter.close();
+            mJournalWriter = null;
+        }
+    }
+
+    private boolean removeEntry(String name){
+        Long size = mEntries.remove(name);
+        if(size == null){
+            return false;
+        }
+        mSize -= size;
+        new File(mDirectory, name).delete();
+        appendJournal(DEL, name, -1);
+        return true;
+    }
+
+    private void trimToSize(){
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while(mSize > mMaxBytes && iterator.hasNext()){
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mSize -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            appendJournal(DEL, eldest.getKey(), -1);
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Replays the journal into the index. Anything after the first line that can't be parsed
+     * is ignored as it can only be the result of a crash part way through a write
+     */
+    private void readJournal(){
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        if(!journal.exists()){
+            return;
+        }
+
+        BufferedReader reader = null;
+        try{
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), UTF_8));
+            if(!JOURNAL_HEADER.equals(reader.readLine())){
+                return;
+            }
+
+            String line = reader.readLine();
+            while(line != null && replayLine(line)){
+                line = reader.readLine();
+            }
+        }catch(IOException e){
+            //Keep whatever we managed to replay
+        }finally{
+            if(reader != null){
+                try{
+                    reader.close();
+                }catch(IOException e){
+                    //Already have what we need from the journal
+                }
+            }
+        }
+
+        //Drop entries whose file is missing or is not the size we recorded
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        mSize = 0;
+        while(iterator.hasNext()){
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(mDirectory, entry.getKey());
+            if(!file.isFile() || file.length() != entry.getValue()){
+                file.delete();
+                iterator.remove();
+            }else{
+                mSize += entry.getValue();
+            }
+        }
+    }
+
+    private boolean replayLine(String line){
+        String[] parts = line.split(" ");
+        if(parts.length < 2 || !isValidName(parts[1])){
+            return false;
+        }
+
+        String op = parts[0];
+        String name = parts[1];
+        if(op.equals(PUT) && parts.length == 3){
+            try{
+                mEntries.put(name, Long.parseLong(parts[2]));
+            }catch(NumberFormatException e){
+                return false;
+            }
+        }else if(op.equals(DEL) && parts.length == 2){
+            mEntries.remove(name);
+        }else if(op.equals(READ) && parts.length == 2){
+            mEntries.get(name);
+        }else{
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Deletes temporary files and entries the journal does not know about, such as a file
+     * that was renamed into place just before a crash
+     */
+    private void deleteUnknownFiles(){
+        File[] files = mDirectory.listFiles();
+        if(files == null){
+            return;
+        }
+        for(File file : files){
+            String name = file.getName();
+            if(name.equals(JOURNAL_FILE) || mEntries.containsKey(name)){
+                continue;
+            }
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes a fresh journal holding only the current entries and swaps it in atomically
+     * @throws IOException
+     */
+    private void rewriteJournal() throws IOException{
+        if(mJournalWriter != null){
+            mJournalWriter.close();
+        }
+
+        File tmpJournal = new File(mDirectory, JOURNAL_FILE_TMP);
+        FileOutputStream outputStream = new FileOutputStream(tmpJournal);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8));
+        try{
+            writer.write(JOURNAL_HEADER);
+            writer.write('\n');
+            for(Map.Entry<String, Long> entry : mEntries.entrySet()){
+                writer.write(PUT + " " + entry.getKey() + " " + entry.getValue() + '\n');
+            }
+            writer.flush();
+            outputStream.getFD().sync();
+        }finally{
+            writer.close();
+        }
+
+        File journal = new File(mDirectory, JOURNAL_FILE);
+        if(!tmpJournal.renameTo(journal)){
+            throw new IOException("Unable to replace journal " + journal);
+        }
+
+        mJournalLines = mEntries.size();
+        mJournalWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journal, true), UTF_8));
+    }
+
+    private void compactJournalIfNeeded(){
+        if(mJournalLines - mEntries.size() < COMPACT_THRESHOLD){
+            return;
+        }
+        try{
+            rewriteJournal();
+        }catch(IOException e){
+            //The old journal is still valid, try again on the next write
+        }
+    }
+
+    private void appendJournal(String op, String name, long size){
+        if(mJournalWriter == null){
+            return;
+        }
+        try{
+            mJournalWriter.write(size >= 0 ? op + " " + name + " " + size + '\n' : op + " " + name + '\n');
+            mJournalWriter.flush();
+            mJournalLines++;
+        }catch(IOException e){
+            //A lost journal line only costs us the entry or its recency on the next open
+        }
+    }
+
+    private static boolean isValidName(String name){
+        if(name.length() != 40){
+            return false;
+        }
+        for(int i = 0; i < name.length(); i++){
+            char c = name.charAt(i);
+            if(!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps a key to a file name, the hex SHA-1 of the key
+     * @param key
+     * @return
+     */
+    static String nameFor(String key){
+        try{
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(UTF_8));
+            char[] hex = new char[hash.length * 2];
+            for(int i = 0; i < hash.length; i++){
+                hex[i * 2] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+                hex[i * 2 + 1] = Character.forDigit(hash[i] & 0xF, 16);
+            }
+            return new String(hex);
+        }catch(NoSuchAlgorithmException e){
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.newsfeed;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the list of items a RecyclerView adapter is showing and moves it to new lists by
+ * working out the difference on a background thread, then telling the adapter only about the
+ * rows that were inserted, removed or changed.
+ *
+ * A list submitted while an earlier diff is still running replaces it, and the earlier result
+ * is thrown away when it arrives. Must be used on the main thread
+ */
+
+class FeedDiffer {
+
+    //One thread is enough, only the newest diff is ever wanted
+    private static Executor sDiffExecutor;
+
+    private final RecyclerView.Adapter<?> mAdapter;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //The list the adapter is showing
+    private List<NewsItem> mList = Collections.emptyList();
+
+    //Increases with every submitted list so stale diffs can be recognised
+    private int mGeneration;
+
+    FeedDiffer(RecyclerView.Adapter<?> adapter){
+        mAdapter = adapter;
+    }
+
+    private static synchronized Executor getDiffExecutor(){
+        if(sDiffExecutor == null){
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            sDiffExecutor = executor;
+        }
+        return sDiffExecutor;
+    }
+
+    /**
+     * Returns the list the adapter is showing
+     * @return
+     */
+    List<NewsItem> getCurrentList(){
+        return mList;
+    }
+
+    /**
+     * Moves the adapter to a new list. The list must not be changed afterwards
+     * @param newList
+     * @param onCommitted run once the adapter is showing the new list, may be null
+     */
+    void submitList(final List<NewsItem> newList, final Runnable onCommitted){
+        final int generation = ++mGeneration;
+        final List<NewsItem> oldList = mList;
+
+        if(newList == oldList){
+            runIfSet(onCommitted);
+            return;
+        }
+
+        //Nothing to compare against, so no need for a background diff
+        if(oldList.isEmpty() || newList.isEmpty()){
+            mList = newList;
+            if(!oldList.isEmpty()){
+                mAdapter.notifyItemRangeRemoved(0, oldList.size());
+            }
+            if(!newList.isEmpty()){
+                mAdapter.notifyItemRangeInserted(0, newList.size());
+            }
+            runIfSet(onCommitted);
+            return;
+        }
+
+        getDiffExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                //Rows never move relative to each other in a list sorted by date
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(
+                        new ItemCallback(oldList, newList), false);
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(generation != mGeneration){
+                            return;
+                        }
+                        mList = newList;
+                        result.dispatchUpdatesTo(mAdapter);
+                        runIfSet(onCommitted);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void runIfSet(Runnable runnable){
+        if(runnable != null){
+            runnable.run();
+        }
+    }
+
+    /**
+     * Treats items with the same article url as the same row, and only rebinds it if
+     * something it shows has changed
+     */
+    private static class ItemCallback extends DiffUtil.Callback {
+        private final List<NewsItem> mOldList;
+        private final List<NewsItem> mNewList;
+
+        ItemCallback(List<NewsItem> oldList, List<NewsItem> newList){
+            mOldList = oldList;
+            mNewList = newList;
+        }
+
+        @Override
+        public int getOldListSize(){
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize(){
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition){
+            return mOldList.get(oldPosition).getUrl().equals(mNewList.get(newPosition).getUrl());
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition){
+            NewsItem oldItem = mOldList.get(oldPosition);
+            NewsItem newItem = mNewList.get(newPosition);
+            return oldItem.getWebPublicationTime() == newItem.getWebPublicationTime()
+                    && oldItem.getHeadline().equals(newItem.getHeadline())
+                    && oldItem.getSection().equals(newItem.getSection())
+                    && oldItem.getThumbnailUrl().equals(newItem.getThumbnailUrl());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds the Guardian queries for the feed from the sections saved in settings. Shared by the
+ * activity and the background sync so both ask for exactly the same urls, and a response the
+ * sync cached is the one the activity asks for next
+ */
+
+final class FeedQuery {
+
+    //Number of results requested per page on an unmetered connection, see NetworkPolicy
+    static final int PAGE_SIZE = 25;
+
+    //Fewest items asked of each section when sections are fetched separately
+    private static final int MIN_SECTION_QUOTA = 5;
+
+    //Guardian API key
+    private static final String API_KEY = "c0c86898-4718-4693-9051-ab2875f72ae7";
+
+    //Base query string
+    private static final String BASE_QUERY_URL = "https://content.guardianapis.com/search?";
+
+    //Fields the feed shows, and the field the reader shows. Bodies are many times the size of
+    //a feed item so are only asked for separately, for the articles likely to be read
+    private static final String FEED_FIELDS = "headline,thumbnail";
+    private static final String ARTICLE_FIELDS = "body";
+
+    //Host of the Guardian's web urls, whose path is the id of the article in the API
+    private static final String WEB_HOST = "www.theguardian.com";
+
+    private FeedQuery(){}
+
+    /**
+     * Returns the urls to query for a page of the feed, one per section if several sections
+     * are chosen. Pages after the first are asked for by date rather than by page number, with
+     * toDate the oldest item shown, so every section continues from the same point in time
+     * @param context
+     * @param pageSize
+     * @param fromDate only return items published at or after this time, may be null
+     * @param toDate only return items published at or before this time, may be null
+     * @return
+     */
+    static List<String> buildUrls(Context context, int pageSize, Date fromDate, Date toDate){
+        Set<String> sections = getSelectedSections(context);
+        if(sections != null && sections.size() > 1){
+            //Query each section on its own so each gets a share of the page
+            int quota = Math.max(MIN_SECTION_QUOTA,
+                    (pageSize + sections.size() - 1) / sections.size());
+            List<String> sectionUrls = new ArrayList<>();
+            for(String section : sections){
+                sectionUrls.add(buildQueryUrl(quota, fromDate, toDate,
+                        Collections.singleton(section)));
+            }
+            return sectionUrls;
+        }
+
+        return Collections.singletonList(buildQueryUrl(pageSize, fromDate, toDate, sections));
+    }
+
+    /**
+     * Returns the number of results a feed query asks for, or 0 if it doesn't say
+     * @param queryUrl
+     * @return
+     */
+    static int getPageSize(String queryUrl){
+        String pageSize = Uri.parse(queryUrl).getQueryParameter("page-size");
+        try{
+            return pageSize != null ? Integer.parseInt(pageSize) : 0;
+        }catch(NumberFormatException e){
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the sections the user has chosen in settings, or null if none are set
+     * @param context
+     * @return
+     */
+    static Set<String> getSelectedSections(Context context){
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return sharedPrefs.getStringSet(context.getString(R.string.settings_section_key), null);
+    }
+
+    /**
+     * Builds the Guardian query for the bodies of some articles. Articles are asked for by
+     * their API id, which is the path of their web url
+     * @param articleUrls web urls of the articles
+     * @return the query url, or null if none of the urls are Guardian articles
+     */
+    static String buildArticlesUrl(List<UrlKey> articleUrls){
+        StringBuilder ids = new StringBuilder();
+        int count = 0;
+        for(UrlKey articleUrl : articleUrls){
+            String id = getArticleId(articleUrl);
+            if(id == null){
+                continue;
+            }
+            if(count > 0){
+                ids.append(",");
+            }
+            ids.append(id);
+            count++;
+        }
+        if(count == 0){
+            return null;
+        }
+
+        Uri.Builder uriBuilder = Uri.parse(BASE_QUERY_URL).buildUpon();
+        uriBuilder.appendQueryParameter("format", "json");
+        uriBuilder.appendQueryParameter("ids", ids.toString());
+        uriBuilder.appendQueryParameter("show-fields", ARTICLE_FIELDS);
+        uriBuilder.appendQueryParameter("page-size", String.valueOf(count));
+        uriBuilder.appendQueryParameter("api-key", API_KEY);
+        return uriBuilder.toString();
+    }
+
+    /**
+     * Returns the API id of an article from its web url, or null if it isn't a Guardian url
+     * @param articleUrl
+     * @return
+     */
+    static String getArticleId(UrlKey articleUrl){
+        URI uri = URI.create(articleUrl.toString());
+        String path = uri.getPath();
+        if(!WEB_HOST.equals(uri.getHost()) || path == null || path.length() <= 1){
+            return null;
+        }
+        return path.substring(1);
+    }
+
+    /**
+     * Builds the Guardian query for the newest page of results in a range of dates
+     * @param pageSize
+     * @param fromDate only return items published at or after this time, may be null
+     * @param toDate only return items published at or before this time, may be null
+     * @param sections sections to include, null or empty for all sections
+     * @return
+     */
+    private static String buildQueryUrl(int pageSize, Date fromDate, Date toDate,
+                                        Set<String> sections){
+
+        //Get base uri and convert to form that can be added to
+        Uri baseUri = Uri.parse(BASE_QUERY_URL);
+        Uri.Builder uriBuilder = baseUri.buildUpon();
+
+
+        uriBuilder.appendQueryParameter("format", "json");
+        uriBuilder.appendQueryParameter("show-fields", FEED_FIELDS);
+        uriBuilder.appendQueryParameter("order-by", "newest");
+        uriBuilder.appendQueryParameter("page-size", String.valueOf(pageSize));
+
+        if(fromDate != null){
+            uriBuilder.appendQueryParameter("from-date", Iso8601.formatUtc(fromDate.getTime()));
+        }
+        if(toDate != null){
+            uriBuilder.appendQueryParameter("to-date", Iso8601.formatUtc(toDate.getTime()));
+        }
+
+        if(sections != null && !sections.isEmpty()){
+            StringBuilder sectionsToQuery = new StringBuilder();
+            boolean firstIteration = true;
+
+            for(String section : sections){
+
+                //Add comma seperation in front of each entry after first
+                if(!firstIteration){
+                    sectionsToQuery.append("|");
+                }else{
+                    firstIteration = false;
+                }
+                sectionsToQuery.append(section);
+            }
+
+            //Add sections to Uri
+            uriBuilder.appendQueryParameter("section", sectionsToQuery.toString());
+
+        }
+
+        uriBuilder.appendQueryParameter("api-key", API_KEY);
+
+        return uriBuilder.toString();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps the news items fetched from the API in a local SQLite database so the feed can be
+ * shown straight away on launch and when there is no connection.
+ * All methods touch the disk so must be called off the main thread
+ */
+
+class FeedStore {
+
+    private static final String LOG_TAG = FeedStore.class.getName();
+
+    private static final String DATABASE_NAME = "feed.db";
+    private static final int DATABASE_VERSION = 1;
+
+    //Table and column names
+    static final String TABLE_NEWS_ITEMS = "news_items";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_URL = "url";
+    static final String COLUMN_HEADLINE = "headline";
+    static final String COLUMN_SECTION = "section";
+    static final String COLUMN_SECTION_ID = "section_id";
+    static final String COLUMN_PUBLISHED = "published";
+    static final String COLUMN_THUMBNAIL_URL = "thumbnail_url";
+    static final String COLUMN_FETCHED = "fetched";
+
+    //Most items kept, the oldest by publication date are deleted beyond this
+    private static final int MAX_STORED_ITEMS = 500;
+
+    private static FeedStore sInstance;
+
+    private final DbHelper mDbHelper;
+
+    /**
+     * Returns the store shared by the whole app
+     * @param context
+     * @return
+     */
+    static synchronized FeedStore getInstance(Context context){
+        if(sInstance == null){
+            sInstance = new FeedStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private FeedStore(Context context){
+        mDbHelper = new DbHelper(context);
+    }
+
+    /**
+     * Returns the newest stored items, optionally only those from the given sections
+     * @param sectionIds section ids to include, null or empty for all sections
+     * @param limit
+     * @return
+     */
+    List<NewsItem> loadFeed(Collection<String> sectionIds, int limit){
+        List<NewsItem> newsItems = new ArrayList<>();
+
+        String selection = null;
+        String[] selectionArgs = null;
+        if(sectionIds != null && !sectionIds.isEmpty()){
+            StringBuilder placeholders = new StringBuilder();
+            for(int i = 0; i < sectionIds.size(); i++){
+                placeholders.append(i == 0 ? "?" : ",?");
+            }
+            selection = COLUMN_SECTION_ID + " IN (" + placeholders + ")";
+            selectionArgs = sectionIds.toArray(new String[sectionIds.size()]);
+        }
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_NEWS_ITEMS,
+                new String[]{COLUMN_HEADLINE, COLUMN_SECTION, COLUMN_SECTION_ID,
+                        COLUMN_PUBLISHED, COLUMN_URL, COLUMN_THUMBNAIL_URL},
+                selection, selectionArgs, null, null,
+                COLUMN_PUBLISHED + " DESC", String.valueOf(limit));
+
+        try{
+            while(cursor.moveToNext()){
+                try{
+                    newsItems.add(new NewsItem(cursor.getString(0), cursor.getString(1),
+                            cursor.getString(2), cursor.getLong(3),
+                            UrlKey.parse(cursor.getString(4)), UrlKey.parse(cursor.getString(5))));
+                }catch(URISyntaxException e){
+                    Log.e(LOG_TAG, "Error reading stored URL", e);
+                }
+            }
+        }finally{
+            cursor.close();
+        }
+
+        return newsItems;
+    }
+
+    /**
+     * Inserts or updates items keyed by their article url in a single transaction, then trims
+     * the store to its maximum size
+     * @param newsItems
+     */
+    void saveItems(List<NewsItem> newsItems){
+        if(newsItems == null || newsItems.isEmpty()){
+            return;
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long now = System.currentTimeMillis();
+
+        db.beginTransaction();
+        try{
+            //One compiled statement bound once per row is much cheaper than insert() per row
+            SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO "
+                    + TABLE_NEWS_ITEMS + " (" + COLUMN_URL + ", " + COLUMN_HEADLINE + ", "
+                    + COLUMN_SECTION + ", " + COLUMN_SECTION_ID + ", " + COLUMN_PUBLISHED + ", "
+                    + COLUMN_THUMBNAIL_URL + ", " + COLUMN_FETCHED + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+            try{
+                for(NewsItem newsItem : newsItems){
+                    statement.clearBindings();
+                    statement.bindString(1, newsItem.getUrl().toString());
+                    statement.bindString(2, newsItem.getHeadline());
+                    statement.bindString(3, newsItem.getSection());
+                    if(newsItem.getSectionId() != null){
+                        statement.bindString(4, newsItem.getSectionId());
+                    }
+                    statement.bindLong(5, newsItem.getWebPublicationTime());
+                    statement.bindString(6, newsItem.getThumbnailUrl().toString());
+                    statement.bindLong(7, now);
+                    statement.executeInsert();
+                }
+            }finally{
+                statement.close();
+            }
+
+            //Keep only the newest items
+            db.execSQL("DELETE FROM " + TABLE_NEWS_ITEMS + " WHERE " + COLUMN_ID + " NOT IN (SELECT "
+                    + COLUMN_ID + " FROM " + TABLE_NEWS_ITEMS + " ORDER BY " + COLUMN_PUBLISHED
+                    + " DESC LIMIT " + MAX_STORED_ITEMS + ")");
+
+            db.setTransactionSuccessful();
+        }finally{
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Creates and upgrades the feed database
+     */
+    private static class DbHelper extends SQLiteOpenHelper {
+
+        DbHelper(Context context){
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db){
+            db.execSQL("CREATE TABLE " + TABLE_NEWS_ITEMS + " ("
+                    + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_URL + " TEXT NOT NULL UNIQUE, "
+                    + COLUMN_HEADLINE + " TEXT NOT NULL, "
+                    + COLUMN_SECTION + " TEXT NOT NULL, "
+                    + COLUMN_SECTION_ID + " TEXT, "
+                    + COLUMN_PUBLISHED + " INTEGER NOT NULL, "
+                    + COLUMN_THUMBNAIL_URL + " TEXT NOT NULL, "
+                    + COLUMN_FETCHED + " INTEGER NOT NULL)");
+
+            //The feed is always read newest first, optionally filtered by section
+            db.execSQL("CREATE INDEX idx_news_items_published ON " + TABLE_NEWS_ITEMS
+                    + " (" + COLUMN_PUBLISHED + ")");
+            db.execSQL("CREATE INDEX idx_news_items_section ON " + TABLE_NEWS_ITEMS
+                    + " (" + COLUMN_SECTION_ID + ", " + COLUMN_PUBLISHED + ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion){
+            //The store is only a cache of the API so it can simply be rebuilt
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NEWS_ITEMS);
+            onCreate(db);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.android.newsfeed;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One background sync of the feed: fetches the feed for the saved sections, then downloads
+ * the thumbnails of the newest items into the thumbnail disk cache so the app opens to them
+ * without waiting on the network, then saves the bodies of the top stories.
+ *
+ * Each run may only use so many bytes. The feed is fetched first and counts against the
+ * budget, then thumbnails are downloaded newest first until the budget or the thumbnail count
+ * runs out. Thumbnails already on disk are skipped. Article bodies come last, asking for no
+ * more than the budget left is expected to hold. A run stops between downloads once its
+ * thread is interrupted. Blocks so must be run off the main thread
+ */
+
+class FeedSync {
+
+    //Expected size of one article body on the wire, compressed, for sizing a body request
+    //to the budget left before it is made
+    static final long ESTIMATED_ARTICLE_BYTES = 16 * 1024;
+
+    private final Network mNetwork;
+    private final DiskCache mThumbnailCache;
+    private final long mByteBudget;
+    private final int mThumbnailCount;
+
+    private long mBytesUsed;
+    private long mLargestThumbnail;
+    private int mThumbnailsDownloaded;
+    private int mThumbnailsCached;
+    private int mArticlesSaved;
+    private boolean mBudgetExhausted;
+
+    /**
+     * Where a sync gets the feed and thumbnails from
+     */
+    interface Network {
+        List<NewsItem> fetchFeed(List<String> urls) throws FetchException;
+
+        /**
+         * Returns the body of a url, or null if it can't be had in at most maxBytes
+         */
+        byte[] download(UrlKey url, long maxBytes);
+    }
+
+    /**
+     * @param network
+     * @param thumbnailCache where thumbnails are stored, null to only fetch the feed
+     * @param byteBudget most bytes a run may receive
+     * @param thumbnailCount most thumbnails a run looks at, newest items first
+     */
+    FeedSync(Network network, DiskCache thumbnailCache, long byteBudget, int thumbnailCount){
+        mNetwork = network;
+        mThumbnailCache = thumbnailCache;
+        mByteBudget = byteBudget;
+        mThumbnailCount = thumbnailCount;
+    }
+
+    /**
+     * Fetches the feed for the given query urls and charges its bytes to the budget
+     * @param urls
+     * @return
+     * @throws FetchException
+     */
+    List<NewsItem> fetchFeed(List<String> urls) throws FetchException{
+        //Measured from the shared counter, so a fetch the app makes at the same time is
+        //charged too. That only makes the budget stricter
+        PerfMetrics metrics = PerfMetrics.getInstance();
+        long before = metrics.getCounter(PerfMetrics.FEED_BYTES_RECEIVED);
+        try{
+            return mNetwork.fetchFeed(urls);
+        }finally{
+            charge(metrics.getCounter(PerfMetrics.FEED_BYTES_RECEIVED) - before);
+        }
+    }
+
+    /**
+     * Downloads the thumbnails of the first items that aren't on disk yet, stopping once the
+     * budget runs out or the thread is interrupted. The items should be newest first
+     * @param newsItems
+     * @return the number of thumbnails downloaded
+     */
+    int prefetchThumbnails(List<NewsItem> newsItems){
+        if(mThumbnailCache == null){
+            return 0;
+        }
+
+        int downloaded = 0;
+        Set<UrlKey> seen = new HashSet<>();
+        for(NewsItem newsItem : newsItems){
+            if(seen.size() >= mThumbnailCount || Thread.currentThread().isInterrupted()){
+                break;
+            }
+            UrlKey url = newsItem.getThumbnailUrl();
+            if(url == null || !seen.add(url)){
+                continue;
+            }
+
+            String key = url.toString();
+            if(mThumbnailCache.contains(key)){
+                mThumbnailsCached++;
+                continue;
+            }
+
+            //Thumbnails are all much the same size, so once the largest so far wouldn't fit in
+            //what is left the rest are unlikely to either
+            long remaining = mByteBudget - mBytesUsed;
+            if(remaining <= 0 || remaining < mLargestThumbnail){
+                mBudgetExhausted = true;
+                break;
+            }
+
+            //A thumbnail bigger than what is left is skipped, a smaller one may still fit
+            byte[] data = mNetwork.download(url, remaining);
+            if(data == null){
+                continue;
+            }
+            charge(data.length);
+            mLargestThumbnail = Math.max(mLargestThumbnail, data.length);
+            PerfMetrics.getInstance().add(PerfMetrics.IMAGE_BYTES_RECEIVED, data.length);
+
+            try{
+                mThumbnailCache.put(key, data);
+                downloaded++;
+            }catch(IOException e){
+                //Out of space or the cache went away, the rest won't fare any better
+                break;
+            }
+        }
+        mThumbnailsDownloaded += downloaded;
+        return downloaded;
+    }
+
+    /**
+     * Saves the bodies of the top stories that aren't saved yet, asking for only as many as
+     * the budget left is expected to hold, and charges the bytes received to the budget
+     * @param prefetcher
+     * @param newsItems the feed, top story first
+     * @param count most stories to look at
+     * @return the number of bodies saved
+     * @throws FetchException if the bodies could not be fetched
+     */
+    int prefetchArticles(ArticlePrefetcher prefetcher, List<NewsItem> newsItems, int count)
+            throws FetchException{
+        long remaining = mByteBudget - mBytesUsed;
+        int affordable = (int) Math.min(count, remaining / ESTIMATED_ARTICLE_BYTES);
+        if(affordable <= 0 || Thread.currentThread().isInterrupted()){
+            if(affordable <= 0){
+                mBudgetExhausted = true;
+            }
+            return 0;
+        }
+
+        //Measured from the shared counter as for the feed
+        PerfMetrics metrics = PerfMetrics.getInstance();
+        long before = metrics.getCounter(PerfMetrics.ARTICLE_BYTES_RECEIVED);
+        try{
+            int saved = prefetcher.prefetch(newsItems, affordable);
+            mArticlesSaved += saved;
+            return saved;
+        }finally{
+            charge(metrics.getCounter(PerfMetrics.ARTICLE_BYTES_RECEIVED) - before);
+        }
+    }
+
+    private void charge(long bytes){
+        mBytesUsed += bytes;
+        if(mBytesUsed >= mByteBudget){
+            mBudgetExhausted = true;
+        }
+    }
+
+    /**
+     * Returns a snapshot of what this sync has done so far
+     * @return
+     */
+    Stats getStats(){
+        return new Stats(mBytesUsed, mByteBudget, mThumbnailsDownloaded, mThumbnailsCached,
+                mArticlesSaved, mBudgetExhausted);
+    }
+
+    /**
+     * Point in time view of a sync's counters
+     */
+    static class Stats {
+
+        final long bytesUsed;
+        final long byteBudget;
+        final int thumbnailsDownloaded;
+        final int thumbnailsCached;
+        final int articlesSaved;
+        final boolean budgetExhausted;
+
+        Stats(long bytesUsed, long byteBudget, int thumbnailsDownloaded, int thumbnailsCached,
+              int articlesSaved, boolean budgetExhausted){
+            this.bytesUsed = bytesUsed;
+            this.byteBudget = byteBudget;
+            this.thumbnailsDownloaded = thumbnailsDownloaded;
+            this.thumbnailsCached = thumbnailsCached;
+            this.articlesSaved = articlesSaved;
+            this.budgetExhausted = budgetExhausted;
+        }
+
+        @Override
+        public String toString(){
+            return "bytes=" + bytesUsed + "/" + byteBudget
+                    + " thumbnailsDownloaded=" + thumbnailsDownloaded
+                    + " thumbnailsCached=" + thumbnailsCached
+                    + " articlesSaved=" + articlesSaved
+                    + (budgetExhausted ? " budgetExhausted" : "");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.android.newsfeed;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Refreshes the feed, its top thumbnails and the bodies of its top stories in the background
+ * every few hours, so the app opens to recent news from the feed store and thumbnail disk
+ * cache, and the reader to saved stories, instead of waiting on the network. See FeedSync for
+ * what a run does.
+ *
+ * The job only runs while the device is charging and on an unmetered network, and is given a
+ * flex window so the system can run it alongside other apps' jobs in one wakeup. Needs
+ * JobScheduler so does nothing before Lollipop, where the app just fetches on launch
+ */
+
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class FeedSyncJobService extends JobService {
+
+    private static final String LOG_TAG = FeedSyncJobService.class.getName();
+
+    private static final int JOB_ID = 1;
+
+    //How often the job runs, and the window at the end of each period it may run in
+    private static final long SYNC_INTERVAL_MS = 4 * 60 * 60 * 1000;
+    private static final long SYNC_FLEX_MS = 60 * 60 * 1000;
+
+    //Most bytes one run may receive, the feed plus a screen or two of thumbnails
+    private static final long BYTE_BUDGET = 2 * 1024 * 1024;
+
+    //Thumbnails of this many of the newest items are kept on disk
+    private static final int THUMBNAIL_COUNT = 20;
+
+    //The run in progress, only touched on the main thread
+    private Thread mSyncThread;
+
+    /**
+     * Schedules the periodic sync unless it is already scheduled. Safe to call on every launch
+     * @param context
+     */
+    static void schedule(Context context){
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP){
+            return;
+        }
+
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for(JobInfo pending : jobScheduler.getAllPendingJobs()){
+            if(pending.getId() == JOB_ID){
+                return;
+            }
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, FeedSyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPersisted(true);
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N){
+            builder.setPeriodic(SYNC_INTERVAL_MS, SYNC_FLEX_MS);
+        }else{
+            builder.setPeriodic(SYNC_INTERVAL_MS);
+        }
+
+        if(jobScheduler.schedule(builder.build()) != JobScheduler.RESULT_SUCCESS){
+            Log.w(LOG_TAG, "Unable to schedule feed sync");
+        }
+    }
+
+    /**
+     * Starts a run on its own thread, as this is called on the main thread
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params){
+        final Context context = getApplicationContext();
+        mSyncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sync(context);
+
+                //A stopped run has already been rescheduled
+                if(!Thread.currentThread().isInterrupted()){
+                    jobFinished(params, false);
+                }
+            }
+        }, "FeedSync");
+        mSyncThread.start();
+        return true;
+    }
+
+    /**
+     * Called when the device stops charging or leaves the unmetered network. Stops the run and
+     * asks for it to be tried again. The run's connections are dropped as well as its thread
+     * interrupted, as a read blocked on the network doesn't notice an interrupt and would keep
+     * using the network the job no longer has. Section fetches on other threads are stopped
+     * by the run when it sees the interrupt
+     */
+    @Override
+    public boolean onStopJob(JobParameters params){
+        if(mSyncThread != null){
+            mSyncThread.interrupt();
+            HttpClient.getInstance().disconnect(mSyncThread);
+            mSyncThread = null;
+        }
+        return true;
+    }
+
+    /**
+     * Fetches the feed the app would show, stores it, then warms the thumbnail cache and saves
+     * the bodies of the top stories if the budget allows. Uses the
+     * same queries and response cache as the app so its next launch revalidates instead of
+     * downloading the feed again
+     * @param context
+     */
+    private static void sync(final Context context){
+        DiskCache thumbnailCache = NewsItemAdapter.getDiskCache(context);
+        FeedSync feedSync = new FeedSync(new FeedSync.Network() {
+            @Override
+            public List<NewsItem> fetchFeed(List<String> urls) throws FetchException {
+                return NewsItemLoader.fetchFeed(context, urls, false);
+            }
+
+            @Override
+            public byte[] download(UrlKey url, long maxBytes) {
+                return QueryUtils.downloadBytes(url, maxBytes);
+            }
+        }, thumbnailCache, BYTE_BUDGET, THUMBNAIL_COUNT);
+
+        List<NewsItem> newsItems;
+        try{
+            newsItems = feedSync.fetchFeed(
+                    FeedQuery.buildUrls(context, FeedQuery.PAGE_SIZE, null, null));
+        }catch(FetchException e){
+            Log.w(LOG_TAG, "Feed sync failed " + feedSync.getStats(), e);
+            return;
+        }
+
+        NewsItemLoader.storeItems(context, newsItems);
+        feedSync.prefetchThumbnails(newsItems);
+
+        //Article bodies get whatever budget the thumbnails left
+        try{
+            feedSync.prefetchArticles(ArticlePrefetcher.create(context), newsItems,
+                    NetworkPolicy.ARTICLE_PREFETCH_COUNT);
+        }catch(FetchException e){
+            Log.w(LOG_TAG, "Article prefetch failed", e);
+        }
+        Log.i(LOG_TAG, "Feed sync finished " + feedSync.getStats());
+    }
+}
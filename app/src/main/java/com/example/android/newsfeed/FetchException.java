@@ -0,0 +1,85 @@
+package com.example.android.newsfeed;
+
+/**
+ * Why a feed query failed, so callers can tell a server that is down from a network that is
+ * slow or a response that makes no sense, and FetchPolicy can tell which are worth retrying
+ */
+
+class FetchException extends Exception {
+
+    //The connection or a read took longer than its timeout
+    static final int REASON_TIMEOUT = 1;
+
+    //The connection could not be made or broke while reading
+    static final int REASON_NETWORK = 2;
+
+    //The server answered with a status other than 200 or 304
+    static final int REASON_HTTP = 3;
+
+    //The body was not a search response
+    static final int REASON_PARSE = 4;
+
+    //The fetch was abandoned, for example because its thread was interrupted
+    static final int REASON_CANCELLED = 5;
+
+    private final int mReason;
+    private final int mHttpStatus;
+    private final long mRetryAfterMs;
+
+    FetchException(int reason, String message, Throwable cause){
+        this(reason, 0, 0, message, cause);
+    }
+
+    private FetchException(int reason, int httpStatus, long retryAfterMs, String message,
+                           Throwable cause){
+        super(message, cause);
+        mReason = reason;
+        mHttpStatus = httpStatus;
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * A response with an unexpected status
+     * @param httpStatus
+     * @param retryAfterMs how long the server asked us to wait before trying again, 0 if it
+     *                     didn't say
+     * @return
+     */
+    static FetchException forStatus(int httpStatus, long retryAfterMs){
+        return new FetchException(REASON_HTTP, httpStatus, retryAfterMs,
+                "Unexpected response code " + httpStatus, null);
+    }
+
+    int getReason(){
+        return mReason;
+    }
+
+    /**
+     * Returns the response code for REASON_HTTP, otherwise 0
+     * @return
+     */
+    int getHttpStatus(){
+        return mHttpStatus;
+    }
+
+    long getRetryAfterMs(){
+        return mRetryAfterMs;
+    }
+
+    /**
+     * Returns true if trying the same request again might work. Timeouts, network errors,
+     * server errors, 408 and 429 are, client errors and bad responses are not
+     * @return
+     */
+    boolean isRetryable(){
+        switch(mReason){
+            case REASON_TIMEOUT:
+            case REASON_NETWORK:
+                return true;
+            case REASON_HTTP:
+                return mHttpStatus >= 500 || mHttpStatus == 408 || mHttpStatus == 429;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.example.android.newsfeed;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs feed requests with retries, timeouts that follow how fast requests have recently been
+ * answered, and optionally a second hedged copy of a request that is running slow.
+ *
+ * A retryable failure (see FetchException.isRetryable()) is tried again after a backoff that
+ * doubles each time, with jitter so clients that failed together don't retry together. Once
+ * enough requests have succeeded the timeouts shrink to a few times their 99th percentile,
+ * so a stalled connection is given up on long before the fixed defaults, and double again
+ * after each timeout in the same call.
+ *
+ * With hedging on, a request still running after the 95th percentile of recent requests has
+ * a copy sent alongside it and whichever answers first is used. The request itself runs on
+ * the calling thread and only the copy on the hedge pool, and the loser is stopped by
+ * interrupting it and dropping its connections so it doesn't keep holding a connection slot.
+ * Only safe for idempotent requests like the feed's GETs, and limited to a small share of
+ * requests so a slow server isn't sent much more load. execute() blocks so must be called off
+ * the main thread
+ */
+
+class FetchPolicy {
+
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_BASE_BACKOFF_MS = 500;
+    static final long DEFAULT_MAX_BACKOFF_MS = 4000;
+
+    //Recent successful request times kept for percentiles
+    private static final int WINDOW_SIZE = 64;
+
+    //Fewest samples before timeouts or hedging follow them
+    static final int MIN_SAMPLES = 16;
+
+    //Timeouts are this many times the 99th percentile, within these bounds
+    private static final int TIMEOUT_MULTIPLIER = 3;
+    static final int MIN_CONNECT_TIMEOUT = 2000;
+    static final int MIN_READ_TIMEOUT = 3000;
+
+    //Hedged copies sent are kept to this percentage of requests
+    private static final int HEDGE_BUDGET_PERCENT = 10;
+
+    //Enough threads for every section fetch to have a hedge running
+    private static final int HEDGE_THREAD_COUNT = 4;
+
+    //Requests allowed a hedge waiting to start at once, past this they go without
+    private static final int MAX_QUEUED_HEDGES = 16;
+
+    private static FetchPolicy sInstance;
+    private static FetchPolicy sArticleInstance;
+    private static ScheduledThreadPoolExecutor sHedgeExecutor;
+
+    private final int mMaxAttempts;
+    private final long mBaseBackoffMs;
+    private final long mMaxBackoffMs;
+    private final ScheduledThreadPoolExecutor mHedgeExecutor;
+    private final Random mRandom = new Random();
+
+    //Ring of the most recent successful request times in milliseconds
+    private final long[] mWindow = new long[WINDOW_SIZE];
+    private int mWindowCount;
+    private int mWindowNext;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mHedgeCount = new AtomicLong();
+
+    /**
+     * A request that can be run more than once
+     */
+    interface Request<T> {
+        T run(int connectTimeoutMs, int readTimeoutMs) throws FetchException;
+    }
+
+    /**
+     * Returns the policy used for every feed request, with hedging on
+     * @return
+     */
+    static synchronized FetchPolicy getInstance(){
+        if(sInstance == null){
+            sInstance = new FetchPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF_MS,
+                    DEFAULT_MAX_BACKOFF_MS, getHedgeExecutor());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the policy used for article body requests. It never hedges, as a body is large
+     * and a copy would double it, and keeps its own request times so the feed's timeouts
+     * don't follow how long bodies take
+     * @return
+     */
+    static synchronized FetchPolicy getArticleInstance(){
+        if(sArticleInstance == null){
+            sArticleInstance = new FetchPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF_MS,
+                    DEFAULT_MAX_BACKOFF_MS, null);
+        }
+        return sArticleInstance;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getHedgeExecutor(){
+        if(sHedgeExecutor == null){
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                    HEDGE_THREAD_COUNT, new HedgeThreadFactory());
+            executor.setKeepAliveTime(30, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+            sHedgeExecutor = executor;
+        }
+        return sHedgeExecutor;
+    }
+
+    /**
+     * @param maxAttempts
+     * @param baseBackoffMs wait before the first retry, doubling for each after it
+     * @param maxBackoffMs longest wait between attempts
+     * @param hedgeExecutor runs hedged copies of requests, null to never hedge
+     */
+    FetchPolicy(int maxAttempts, long baseBackoffMs, long maxBackoffMs,
+                ScheduledThreadPoolExecutor hedgeExecutor){
+        mMaxAttempts = maxAttempts;
+        mBaseBackoffMs = baseBackoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        mHedgeExecutor = hedgeExecutor;
+    }
+
+    /**
+     * Runs a request until it succeeds, fails in a way retrying won't help, or runs out of
+     * attempts, and returns its result
+     * @param request
+     * @return
+     * @throws FetchException the last failure
+     */
+    <T> T execute(Request<T> request) throws FetchException{
+        PerfMetrics metrics = PerfMetrics.getInstance();
+        FetchException failure = null;
+        int timeoutCount = 0;
+
+        for(int attempt = 1; ; attempt++){
+            try{
+                return runAttempt(request, timeoutCount);
+            }catch(FetchException e){
+                failure = e;
+            }
+
+            if(!failure.isRetryable() || attempt >= mMaxAttempts){
+                throw failure;
+            }
+
+            //Waiting longer than we would ever back off for isn't worth it
+            long delay = getBackoffMs(attempt);
+            if(failure.getRetryAfterMs() > mMaxBackoffMs){
+                throw failure;
+            }
+            delay = Math.max(delay, failure.getRetryAfterMs());
+
+            if(failure.getReason() == FetchException.REASON_TIMEOUT){
+                timeoutCount++;
+            }
+            metrics.increment(PerfMetrics.FEED_RETRIES);
+
+            try{
+                Thread.sleep(delay);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new FetchException(FetchException.REASON_CANCELLED,
+                        "Interrupted waiting to retry", failure);
+            }
+        }
+    }
+
+    /**
+     * Returns how long to wait before the given retry. Half the backoff for that retry plus a
+     * random part of the other half, so waits still grow but are spread out
+     * @param retry 1 for the first retry
+     * @return
+     */
+    long getBackoffMs(int retry){
+        long ceiling = mMaxBackoffMs;
+        if(retry - 1 < 31){
+            ceiling = Math.min(mMaxBackoffMs, mBaseBackoffMs << (retry - 1));
+        }
+        long half = ceiling / 2;
+        synchronized(mRandom){
+            return half + (long) (mRandom.nextDouble() * (ceiling - half));
+        }
+    }
+
+    private <T> T runAttempt(Request<T> request, int timeoutCount) throws FetchException{
+        mRequestCount.incrementAndGet();
+
+        int connectTimeout = getTimeout(MIN_CONNECT_TIMEOUT, HttpClient.DEFAULT_CONNECT_TIMEOUT,
+                timeoutCount);
+        int readTimeout = getTimeout(MIN_READ_TIMEOUT, HttpClient.DEFAULT_READ_TIMEOUT,
+                timeoutCount);
+
+        long hedgeAfter = mHedgeExecutor != null ? getPercentile(0.95) : -1;
+        if(hedgeAfter < 0){
+            return runTimed(request, connectTimeout, readTimeout);
+        }
+        return runHedged(request, connectTimeout, readTimeout, hedgeAfter);
+    }
+
+    /**
+     * Returns the longest a first attempt can be given with the timeouts in use now, its
+     * connect and read timeouts together. Callers with a deadline of their own should allow
+     * at least this so an attempt isn't abandoned before its own timeouts could fire
+     * @return
+     */
+    long getAttemptTimeoutMs(){
+        return getTimeout(MIN_CONNECT_TIMEOUT, HttpClient.DEFAULT_CONNECT_TIMEOUT, 0)
+                + getTimeout(MIN_READ_TIMEOUT, HttpClient.DEFAULT_READ_TIMEOUT, 0);
+    }
+
+    /**
+     * Returns a timeout a few times the 99th percentile of recent requests, or the default
+     * before there are enough of them. Doubled for each timeout already seen in this call
+     */
+    private int getTimeout(int minimum, int defaultTimeout, int timeoutCount){
+        long p99 = getPercentile(0.99);
+        long timeout = p99 < 0 ? defaultTimeout
+                : Math.max(minimum, Math.min(defaultTimeout, p99 * TIMEOUT_MULTIPLIER));
+        for(int i = 0; i < timeoutCount && timeout < defaultTimeout; i++){
+            timeout *= 2;
+        }
+        return (int) Math.min(timeout, defaultTimeout);
+    }
+
+    private <T> T runTimed(Request<T> request, int connectTimeout, int readTimeout)
+            throws FetchException{
+        long start = System.nanoTime();
+        T result = request.run(connectTimeout, readTimeout);
+        addSample(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Runs a request on the calling thread and, if it hasn't answered after hedgeAfterMs, a
+     * copy of it on the hedge pool. Returns the first success, or throws the request's own
+     * failure if both fail
+     */
+    private <T> T runHedged(Request<T> request, int connectTimeout, int readTimeout,
+                            long hedgeAfterMs) throws FetchException{
+        Race<T> race = new Race<>(request, connectTimeout, readTimeout);
+
+        //With too many hedges already waiting the request goes without one
+        Future<?> hedge = null;
+        if(mHedgeExecutor.getQueue().size() < MAX_QUEUED_HEDGES){
+            hedge = mHedgeExecutor.schedule(race, hedgeAfterMs, TimeUnit.MILLISECONDS);
+        }
+
+        try{
+            return race.runPrimary();
+        }finally{
+            //Take a hedge that never started out of the queue rather than leave it to expire
+            if(hedge != null && hedge.cancel(false)){
+                mHedgeExecutor.purge();
+            }
+        }
+    }
+
+    /**
+     * Stops an attempt that is no longer wanted. Its thread is interrupted and its connections
+     * dropped, as a read blocked on the network doesn't notice an interrupt
+     */
+    private static void abort(Thread thread){
+        thread.interrupt();
+        HttpClient.getInstance().disconnect(thread);
+    }
+
+    /**
+     * Claims one hedge if sending it keeps hedges within their share of requests
+     */
+    private boolean takeHedge(){
+        long hedges = mHedgeCount.get();
+        if((hedges + 1) * 100 > mRequestCount.get() * HEDGE_BUDGET_PERCENT
+                || !mHedgeCount.compareAndSet(hedges, hedges + 1)){
+            return false;
+        }
+        PerfMetrics.getInstance().increment(PerfMetrics.FEED_HEDGES);
+        return true;
+    }
+
+    synchronized void addSample(long millis){
+        mWindow[mWindowNext] = millis;
+        mWindowNext = (mWindowNext + 1) % WINDOW_SIZE;
+        mWindowCount = Math.min(mWindowCount + 1, WINDOW_SIZE);
+    }
+
+    /**
+     * Returns the duration in milliseconds the given fraction of recent successful requests
+     * took at most, or -1 if there are too few to go by
+     * @param fraction
+     * @return
+     */
+    synchronized long getPercentile(double fraction){
+        if(mWindowCount < MIN_SAMPLES){
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(mWindow, mWindowCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * A request racing a hedged copy of itself. The request runs on the calling thread through
+     * runPrimary() and the copy on the hedge pool through run(). The first to succeed takes the
+     * result and stops the other. Who is running is only changed while holding the lock, so a
+     * thread is only ever stopped while it is still working on this race
+     */
+    private class Race<T> implements Runnable {
+        private final Request<T> mRequest;
+        private final int mConnectTimeout;
+        private final int mReadTimeout;
+
+        //Threads running each side, null once it has finished
+        private Thread mPrimaryThread;
+        private Thread mHedgeThread;
+
+        //Set once one side has succeeded
+        private boolean mWon;
+        private boolean mHedgeWon;
+        private T mHedgeResult;
+
+        //Set when a side was stopped, so only an interrupt the race sent is cleared
+        private boolean mPrimaryStopped;
+        private boolean mHedgeStopped;
+
+        Race(Request<T> request, int connectTimeout, int readTimeout){
+            mRequest = request;
+            mConnectTimeout = connectTimeout;
+            mReadTimeout = readTimeout;
+            mPrimaryThread = Thread.currentThread();
+        }
+
+        /**
+         * Runs the request on the calling thread and returns whichever side succeeds first
+         */
+        T runPrimary() throws FetchException{
+            T result = null;
+            FetchException failure = null;
+            try{
+                result = runTimed(mRequest, mConnectTimeout, mReadTimeout);
+            }catch(FetchException e){
+                failure = e;
+            }
+
+            synchronized(this){
+                mPrimaryThread = null;
+                if(failure == null && !mWon){
+                    mWon = true;
+                    if(mHedgeThread != null){
+                        abort(mHedgeThread);
+                        mHedgeStopped = true;
+                    }
+                    return result;
+                }
+
+                //A hedge still running may yet succeed, one not started now never will
+                try{
+                    while(!mHedgeWon && mHedgeThread != null){
+                        wait();
+                    }
+                }catch(InterruptedException e){
+                    if(mHedgeThread != null){
+                        abort(mHedgeThread);
+                        mHedgeStopped = true;
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new FetchException(FetchException.REASON_CANCELLED, "Interrupted", e);
+                }
+                if(mHedgeWon){
+                    //Clear the interrupt the hedge stopped this attempt with
+                    if(mPrimaryStopped){
+                        Thread.interrupted();
+                    }
+                    return mHedgeResult;
+                }
+                throw failure;
+            }
+        }
+
+        /**
+         * Runs the hedged copy on the hedge pool once the request has run for too long
+         */
+        @Override
+        public void run(){
+            synchronized(this){
+                if(mWon || mPrimaryThread == null || !takeHedge()){
+                    return;
+                }
+                mHedgeThread = Thread.currentThread();
+            }
+
+            T result = null;
+            boolean succeeded = false;
+            try{
+                result = runTimed(mRequest, mConnectTimeout, mReadTimeout);
+                succeeded = true;
+            }catch(FetchException e){
+                //The request's own failure is the one reported
+            }
+
+            synchronized(this){
+                mHedgeThread = null;
+                if(succeeded && !mWon){
+                    mWon = true;
+                    mHedgeWon = true;
+                    mHedgeResult = result;
+                    PerfMetrics.getInstance().increment(PerfMetrics.FEED_HEDGE_WINS);
+                    if(mPrimaryThread != null){
+                        abort(mPrimaryThread);
+                        mPrimaryStopped = true;
+                    }
+                }else if(mHedgeStopped){
+                    //Clear the interrupt the request stopped this copy with
+                    Thread.interrupted();
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private static class HedgeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable){
+            Thread thread = new Thread(runnable, "FetchPolicy #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.android.newsfeed;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared HTTP client used for every request the app makes.
+ *
+ * HttpURLConnection only keeps a socket alive for reuse if the body is read to the end and
+ * closed without calling disconnect(). This class makes sure connections are handed back that
+ * way, caps how many connections are open to each host at once and keeps a tally of how often
+ * a request could be served by an idle kept-alive socket
+ */
+
+class HttpClient {
+
+    //Default timeouts in milliseconds
+    static final int DEFAULT_CONNECT_TIMEOUT = 15000;
+    static final int DEFAULT_READ_TIMEOUT = 10000;
+
+    //Connection limits
+    static final int MAX_CONNECTIONS_PER_HOST = 4;
+    static final int MAX_CONNECTIONS = 8;
+
+    //How long the platform keeps an idle socket before closing it
+    private static final long KEEP_ALIVE_MS = 5 * 60 * 1000;
+
+    //Bodies with more than this left unread are cheaper to drop than to drain
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static HttpClient sInstance;
+
+    private final int mMaxConnectionsPerHost;
+    private final Semaphore mConnectionPermits;
+    private final Map<String, HostPool> mHostPools = new HashMap<>();
+
+    //Host each open connection was counted against, redirects can change getURL()
+    private final Map<HttpURLConnection, HostPool> mOpenConnections = new IdentityHashMap<>();
+
+    //Thread each open connection was opened on, so a request given up on can be stopped
+    private final Map<HttpURLConnection, Thread> mConnectionOwners = new IdentityHashMap<>();
+    private final ByteArrayPool mDrainBuffers = new ByteArrayPool(4 * 1024, 2);
+
+    private long mRequestCount;
+    private long mReusedCount;
+
+    /**
+     * Returns the client shared by the whole app
+     * @return
+     */
+    static synchronized HttpClient getInstance(){
+        if(sInstance == null){
+            sInstance = new HttpClient(MAX_CONNECTIONS_PER_HOST, MAX_CONNECTIONS);
+        }
+        return sInstance;
+    }
+
+    HttpClient(int maxConnectionsPerHost, int maxConnections){
+        //Make sure the platform pool keeps as many idle sockets per host as we allow open
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerHost));
+
+        mConnectionPermits = new Semaphore(maxConnections, true);
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Opens a GET connection with default timeouts. See open(URL, int, int)
+     * @param url
+     * @return
+     * @throws IOException
+     */
+    HttpURLConnection open(URL url) throws IOException{
+        return open(url, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Opens a GET connection to a url, waiting for a free connection slot if the host or the
+     * client is at its limit. The connect timeout covers the wait for both slots and the
+     * connect itself. Every connection returned must be handed back with release(). Throws if
+     * the calling thread is interrupted, see disconnect(Thread)
+     * @param url
+     * @param connectTimeout
+     * @param readTimeout
+     * @return
+     * @throws IOException
+     */
+    HttpURLConnection open(URL url, int connectTimeout, int readTimeout) throws IOException{
+        HostPool hostPool = getHostPool(url);
+
+        //Waiting for a slot counts against the connect timeout, so both waits and the connect
+        //share one deadline
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeout);
+        hostPool.acquire(deadline);
+        try{
+            acquirePermit(mConnectionPermits, deadline);
+        }catch(IOException e){
+            hostPool.release(false);
+            throw e;
+        }
+
+        HttpURLConnection connection;
+        try{
+            //A timeout of 0 would wait forever, so what is left must be at least a millisecond
+            int remaining = (int) TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if(remaining <= 0){
+                throw new SocketTimeoutException("Connect timed out waiting for a free connection");
+            }
+
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(remaining);
+            connection.setReadTimeout(readTimeout);
+
+            boolean reused = hostPool.takeIdle();
+            synchronized(this){
+                mOpenConnections.put(connection, hostPool);
+                mConnectionOwners.put(connection, Thread.currentThread());
+                mRequestCount++;
+                if(reused){
+                    mReusedCount++;
+                }
+            }
+        }catch(IOException e){
+            mConnectionPermits.release();
+            hostPool.release(false);
+            throw e;
+        }
+
+        //Checked once the connection is registered so a disconnect(Thread) racing this either
+        //finds the connection or has already interrupted us
+        if(Thread.currentThread().isInterrupted()){
+            release(connection, null);
+            throw new InterruptedIOException("Interrupted opening a connection");
+        }
+        return connection;
+    }
+
+    /**
+     * Drops every connection a thread has open, after the thread has been interrupted, so a
+     * request that is no longer wanted stops instead of blocking in a read until its timeout.
+     * Blocking reads don't notice interrupts. The thread still hands its connections back
+     * with release() as it fails, which frees their slots
+     * @param owner
+     */
+    void disconnect(Thread owner){
+        List<HttpURLConnection> owned = new ArrayList<>(1);
+        synchronized(this){
+            for(Map.Entry<HttpURLConnection, Thread> entry : mConnectionOwners.entrySet()){
+                if(entry.getValue() == owner){
+                    owned.add(entry.getKey());
+                }
+            }
+        }
+        for(HttpURLConnection connection : owned){
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Hands a connection back. If the body stream is given it is drained and closed so the
+     * socket can go back to the keep-alive pool, otherwise the connection is dropped. Only pass
+     * the body after it was read successfully, draining one that failed part way could block
+     * on a stalled socket for another read timeout
+     * @param connection
+     * @param body
+     */
+    void release(HttpURLConnection connection, InputStream body){
+        if(connection == null){
+            return;
+        }
+
+        HostPool hostPool;
+        synchronized(this){
+            hostPool = mOpenConnections.remove(connection);
+            mConnectionOwners.remove(connection);
+        }
+
+        boolean reusable = body != null && drain(body);
+        if(!reusable){
+            connection.disconnect();
+        }
+
+        //Ignore connections that were already released
+        if(hostPool != null){
+            mConnectionPermits.release();
+            hostPool.release(reusable);
+        }
+    }
+
+    /**
+     * Reads whatever is left of a body so the socket is left at a clean boundary and closes it.
+     * Returns false if the body was too long or could not be read
+     * @param body
+     * @return
+     */
+    private boolean drain(InputStream body){
+        byte[] buffer = mDrainBuffers.acquire();
+        boolean drained = false;
+        try{
+            int remaining = MAX_DRAIN_BYTES;
+            int count = body.read(buffer);
+            while(count != -1 && remaining > 0){
+                remaining -= count;
+                count = body.read(buffer);
+            }
+            drained = count == -1;
+        }catch(IOException e){
+            drained = false;
+        }finally{
+            mDrainBuffers.release(buffer);
+            try{
+                body.close();
+            }catch(IOException e){
+                drained = false;
+            }
+        }
+        return drained;
+    }
+
+    private synchronized HostPool getHostPool(URL url){
+        String key = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+        HostPool hostPool = mHostPools.get(key);
+        if(hostPool == null){
+            hostPool = new HostPool(mMaxConnectionsPerHost);
+            mHostPools.put(key, hostPool);
+        }
+        return hostPool;
+    }
+
+    /**
+     * Takes a permit, waiting no later than a deadline from System.nanoTime()
+     */
+    private static void acquirePermit(Semaphore semaphore, long deadline) throws IOException{
+        try{
+            if(!semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)){
+                throw new InterruptedIOException("Timed out waiting for a free connection");
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a free connection");
+        }
+    }
+
+    /**
+     * Returns a snapshot of the pool counters
+     * @return
+     */
+    synchronized Stats getStats(){
+        int idle = 0;
+        int active = 0;
+        for(HostPool hostPool : mHostPools.values()){
+            idle += hostPool.getIdleCount();
+            active += hostPool.getActiveCount();
+        }
+        return new Stats(mRequestCount, mReusedCount, idle, active, mHostPools.size());
+    }
+
+    /**
+     * Connection bookkeeping for a single host
+     */
+    private static class HostPool {
+
+        private final Semaphore mPermits;
+        private final int mMaxConnections;
+
+        //Times at which cleanly released sockets went idle, newest first
+        private final ArrayDeque<Long> mIdleSince = new ArrayDeque<>();
+
+        HostPool(int maxConnections){
+            mMaxConnections = maxConnections;
+            mPermits = new Semaphore(maxConnections, true);
+        }
+
+        void acquire(long deadline) throws IOException{
+            acquirePermit(mPermits, deadline);
+        }
+
+        /**
+         * Claims the most recently idled socket if one is still within its keep-alive window
+         * @return
+         */
+        synchronized boolean takeIdle(){
+            expireIdle();
+            return mIdleSince.pollFirst() != null;
+        }
+
+        synchronized void release(boolean reusable){
+            if(reusable){
+                expireIdle();
+                mIdleSince.addFirst(System.currentTimeMillis());
+                while(mIdleSince.size() > mMaxConnections){
+                    mIdleSince.pollLast();
+                }
+            }
+            mPermits.release();
+        }
+
+        synchronized int getIdleCount(){
+            expireIdle();
+            return mIdleSince.size();
+        }
+
+        int getActiveCount(){
+            return mMaxConnections - mPermits.availablePermits();
+        }
+
+        private void expireIdle(){
+            long cutoff = System.currentTimeMillis() - KEEP_ALIVE_MS;
+            while(!mIdleSince.isEmpty() && mIdleSince.peekLast() < cutoff){
+                mIdleSince.pollLast();
+            }
+        }
+    }
+
+    /**
+     * Point in time view of the client's connection counters
+     */
+    static class Stats {
+
+        final long requestCount;
+        final long reusedCount;
+        final int idleConnections;
+        final int activeConnections;
+        final int hostCount;
+
+        Stats(long requestCount, long reusedCount, int idleConnections, int activeConnections,
+              int hostCount){
+            this.requestCount = requestCount;
+            this.reusedCount = reusedCount;
+            this.idleConnections = idleConnections;
+            this.activeConnections = activeConnections;
+            this.hostCount = hostCount;
+        }
+
+        /**
+         * Fraction of requests that could go out on an already open socket
+         * @return
+         */
+        double getReuseRate(){
+            return requestCount == 0 ? 0 : (double) reusedCount / requestCount;
+        }
+
+        @Override
+        public String toString(){
+            return "requests=" + requestCount + " reused=" + reusedCount
+                    + " reuseRate=" + String.format("%.2f", getReuseRate())
+                    + " idle=" + idleConnections + " active=" + activeConnections
+                    + " hosts=" + hostCount;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package com.example.android.newsfeed;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.widget.ImageView;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs thumbnail downloads and decodes on a small dedicated pool of background threads.
+ *
+ * Requests made most recently run first, so the rows that have just scrolled onto the screen
+ * are loaded before the ones the user has already scrolled past. Requests for a url that is
+ * already queued or loading for the same callback are merged into the existing job, which
+ * delivers its bitmap to every image view waiting on it. Requests from different callbacks get
+ * jobs of their own, so each result goes through the cache and context of whoever asked for it.
+ * Jobs whose image views have all moved on to other urls are dropped before they start.
+ *
+ * request() and detach() must be called on the main thread, results are delivered on it too
+ */
+
+class ImageScheduler {
+
+    //Job priorities, higher runs first
+    static final int PRIORITY_PREFETCH = 0;
+    static final int PRIORITY_VISIBLE = 1;
+
+    //Number of threads downloading and decoding at once
+    private static final int THREAD_COUNT = 3;
+
+    //Once this many jobs are waiting the least urgent one no image view is waiting on is dropped
+    //for each new one
+    private static final int MAX_QUEUED = 64;
+
+    private static ImageScheduler sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    //Jobs queued or running keyed by url and callback. Only touched on the main thread
+    private final Map<JobKey, Job> mJobs = new HashMap<>();
+
+    //Increases with every request so newer requests sort ahead of older ones
+    private long mSequence;
+
+    //Counters, only written on the main thread apart from the wait time totals
+    private long mRequestCount;
+    private long mCoalescedCount;
+    private long mDroppedCount;
+    private long mCompletedCount;
+    private int mMaxQueueDepth;
+    private final WaitTimes mWaitTimes = new WaitTimes();
+
+    /**
+     * Loads a bitmap for a url. Called on a scheduler thread
+     */
+    interface ImageSource {
+        Bitmap load(UrlKey url);
+    }
+
+    /**
+     * Receives the result of a job on the main thread. The bitmap is null if loading failed
+     */
+    interface Callback {
+        void onImageLoaded(Job job, Bitmap bitmap);
+    }
+
+    /**
+     * Returns the scheduler shared by the whole app
+     * @return
+     */
+    static synchronized ImageScheduler getInstance(){
+        if(sInstance == null){
+            sInstance = new ImageScheduler(THREAD_COUNT);
+        }
+        return sInstance;
+    }
+
+    ImageScheduler(int threadCount){
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new BackgroundThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Asks for the image at a url to be loaded into an image view, joining any job already
+     * loading that url for the same callback. Returns the job so the caller can tie it to the image view
+     * @param url
+     * @param target image view waiting on the image, may be null for requests nothing is waiting on
+     * @param priority
+     * @param source
+     * @param callback
+     * @return
+     */
+    Job request(UrlKey url, ImageView target, int priority, ImageSource source, Callback callback){
+        mRequestCount++;
+
+        JobKey key = new JobKey(url, callback);
+        Job job = mJobs.get(key);
+        if(job != null){
+            mCoalescedCount++;
+            job.addTarget(target);
+
+            //Move the existing job to the front of the queue if it hasn't started yet
+            if(mExecutor.remove(job)){
+                job.mPriority = Math.max(job.mPriority, priority);
+                job.mSequence = ++mSequence;
+                enqueue(job);
+            }
+            return job;
+        }
+
+        job = new Job(key, priority, ++mSequence, source);
+        job.addTarget(target);
+        mJobs.put(key, job);
+        enqueue(job);
+        return job;
+    }
+
+    /**
+     * Tells the scheduler an image view no longer wants the image a job is loading. If nothing
+     * else is waiting on the job and it hasn't started it is dropped. Passing a null target
+     * drops a job nothing was waiting on. Returns true if the job was dropped
+     * @param job
+     * @param target
+     * @return
+     */
+    boolean detach(Job job, ImageView target){
+        job.removeTarget(target);
+        if(!job.hasTargets() && mExecutor.remove(job)){
+            job.mCancelled = true;
+            mJobs.remove(job.mKey);
+            mDroppedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    private void enqueue(Job job){
+        job.mEnqueuedAt = System.nanoTime();
+        mExecutor.execute(job);
+
+        //Keep the queue bounded by dropping the least urgent waiting job. Jobs an image view is
+        //waiting on are never dropped, as the view would keep its placeholder with nothing left to
+        //fill it, so the queue can only grow past the bound while that many views are on screen
+        if(mExecutor.getQueue().size() > MAX_QUEUED){
+            Job leastUrgent = null;
+            for(Runnable runnable : mExecutor.getQueue()){
+                Job queued = (Job) runnable;
+                if(queued.hasTargets()){
+                    continue;
+                }
+                if(leastUrgent == null || queued.compareTo(leastUrgent) > 0){
+                    leastUrgent = queued;
+                }
+            }
+            if(leastUrgent != null && mExecutor.remove(leastUrgent)){
+                leastUrgent.mCancelled = true;
+                mJobs.remove(leastUrgent.mKey);
+                mDroppedCount++;
+            }
+        }
+
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, mExecutor.getQueue().size());
+    }
+
+    private void deliver(Job job, Bitmap bitmap){
+        //A job dropped from the map has been replaced or cancelled so has nobody to deliver to
+        if(mJobs.get(job.mKey) == job){
+            mJobs.remove(job.mKey);
+        }
+        mCompletedCount++;
+        job.mKey.mCallback.onImageLoaded(job, bitmap);
+    }
+
+    /**
+     * Returns a snapshot of the scheduler counters. Call on the main thread
+     * @return
+     */
+    Stats getStats(){
+        return new Stats(mExecutor.getQueue().size(), mMaxQueueDepth, mExecutor.getActiveCount(),
+                mRequestCount, mCoalescedCount, mDroppedCount, mCompletedCount,
+                mWaitTimes.getAverageMillis(), mWaitTimes.getMaxMillis());
+    }
+
+    /**
+     * A single url being loaded along with the image views waiting on it
+     */
+    class Job implements Runnable, Comparable<Job> {
+
+        private final JobKey mKey;
+        private final ImageSource mSource;
+
+        //Only changed while the job is out of the queue
+        private volatile int mPriority;
+        private volatile long mSequence;
+        private volatile long mEnqueuedAt;
+        private volatile boolean mCancelled;
+
+        //Image views waiting on this job. Only touched on the main thread
+        private final List<WeakReference<ImageView>> mTargets = new ArrayList<>(1);
+
+        Job(JobKey key, int priority, long sequence, ImageSource source){
+            mKey = key;
+            mPriority = priority;
+            mSequence = sequence;
+            mSource = source;
+        }
+
+        UrlKey getUrl(){
+            return mKey.mUrl;
+        }
+
+        /**
+         * Returns the image views still waiting on this job
+         * @return
+         */
+        List<ImageView> getTargets(){
+            List<ImageView> targets = new ArrayList<>(mTargets.size());
+            for(WeakReference<ImageView> reference : mTargets){
+                ImageView imageView = reference.get();
+                if(imageView != null){
+                    targets.add(imageView);
+                }
+            }
+            return targets;
+        }
+
+        private void addTarget(ImageView target){
+            if(target != null && !getTargets().contains(target)){
+                mTargets.add(new WeakReference<>(target));
+            }
+        }
+
+        private void removeTarget(ImageView target){
+            Iterator<WeakReference<ImageView>> iterator = mTargets.iterator();
+            while(iterator.hasNext()){
+                ImageView imageView = iterator.next().get();
+                if(imageView == null || imageView == target){
+                    iterator.remove();
+                }
+            }
+        }
+
+        private boolean hasTargets(){
+            return !getTargets().isEmpty();
+        }
+
+        @Override
+        public void run(){
+            if(mCancelled){
+                return;
+            }
+            mWaitTimes.record(System.nanoTime() - mEnqueuedAt);
+
+            final Bitmap bitmap = mSource.load(mKey.mUrl);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Job.this, bitmap);
+                }
+            });
+        }
+
+        /**
+         * Orders higher priority first, then the most recent request first
+         */
+        @Override
+        public int compareTo(Job other){
+            if(mPriority != other.mPriority){
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            if(mSequence != other.mSequence){
+                return mSequence > other.mSequence ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Identifies a job by the url it loads and the callback its result goes to
+     */
+    private static class JobKey {
+        private final UrlKey mUrl;
+        private final Callback mCallback;
+
+        JobKey(UrlKey url, Callback callback){
+            mUrl = url;
+            mCallback = callback;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof JobKey)){
+                return false;
+            }
+            JobKey other = (JobKey) o;
+            return mUrl.equals(other.mUrl) && mCallback == other.mCallback;
+        }
+
+        @Override
+        public int hashCode(){
+            return 31 * mUrl.hashCode() + System.identityHashCode(mCallback);
+        }
+    }
+
+    /**
+     * Totals of how long jobs waited in the queue before starting
+     */
+    private static class WaitTimes {
+        private long mCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        synchronized void record(long nanos){
+            mCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        synchronized long getAverageMillis(){
+            return mCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(mTotalNanos / mCount);
+        }
+
+        synchronized long getMaxMillis(){
+            return TimeUnit.NANOSECONDS.toMillis(mMaxNanos);
+        }
+    }
+
+    /**
+     * Runs scheduler threads at background priority so they don't compete with drawing
+     */
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable){
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "ImageScheduler #" + mCount.incrementAndGet());
+        }
+    }
+
+    /**
+     * Point in time view of the scheduler counters
+     */
+    static class Stats {
+
+        final int queueDepth;
+        final int maxQueueDepth;
+        final int activeCount;
+        final long requestCount;
+        final long coalescedCount;
+        final long droppedCount;
+        final long completedCount;
+        final long averageWaitMillis;
+        final long maxWaitMillis;
+
+        Stats(int queueDepth, int maxQueueDepth, int activeCount, long requestCount,
+              long coalescedCount, long droppedCount, long completedCount,
+              long averageWaitMillis, long maxWaitMillis){
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.activeCount = activeCount;
+            this.requestCount = requestCount;
+            this.coalescedCount = coalescedCount;
+            this.droppedCount = droppedCount;
+            this.completedCount = completedCount;
+            this.averageWaitMillis = averageWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        @Override
+        public String toString(){
+            return "queued=" + queueDepth + " maxQueued=" + maxQueueDepth
+                    + " active=" + activeCount + " requests=" + requestCount
+                    + " coalesced=" + coalescedCount + " dropped=" + droppedCount
+                    + " completed=" + completedCount + " avgWaitMs=" + averageWaitMillis
+                    + " maxWaitMs=" + maxWaitMillis;
+        }
+    }
+}
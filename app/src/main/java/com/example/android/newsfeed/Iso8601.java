@@ -0,0 +1,201 @@
+package com.example.android.newsfeed;
+
+import java.text.ParseException;
+
+/**
+ * Parses and formats the ISO 8601 timestamps the Guardian API uses, such as
+ * "2017-07-20T09:15:30Z". Works straight off the characters with no Calendar or
+ * SimpleDateFormat, so it allocates nothing on the parse path and is safe to call from any
+ * number of threads at once
+ */
+
+final class Iso8601 {
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    private Iso8601(){}
+
+    /**
+     * Returns the milliseconds since the epoch for a date, or a date and time with optional
+     * fractional seconds and an optional "Z" or "+hh:mm" offset. Times without an offset are
+     * taken as UTC. Fractions beyond milliseconds are dropped
+     * @param text
+     * @return
+     * @throws ParseException
+     */
+    static long parse(String text) throws ParseException{
+        int length = text.length();
+
+        //yyyy-MM-dd
+        int year = digits(text, 0, 4);
+        expect(text, 4, '-');
+        int month = digits(text, 5, 2);
+        expect(text, 7, '-');
+        int day = digits(text, 8, 2);
+        if(month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)){
+            throw new ParseException("Invalid date: " + text, 5);
+        }
+
+        long millis = daysFromEpoch(year, month, day) * MILLIS_PER_DAY;
+        if(length == 10){
+            return millis;
+        }
+
+        //THH:mm[:ss[.fraction]]
+        if(length <= 10 || (text.charAt(10) != 'T' && text.charAt(10) != 't')){
+            throw new ParseException("Expected time: " + text, 10);
+        }
+        int hour = digits(text, 11, 2);
+        expect(text, 13, ':');
+        int minute = digits(text, 14, 2);
+        int second = 0;
+        int millisecond = 0;
+        int position = 16;
+        if(position < length && text.charAt(position) == ':'){
+            second = digits(text, position + 1, 2);
+            position += 3;
+            if(position < length && (text.charAt(position) == '.' || text.charAt(position) == ',')){
+                position++;
+                int start = position;
+                int scale = 100;
+                while(position < length && isDigit(text.charAt(position))){
+                    millisecond += (text.charAt(position) - '0') * scale;
+                    scale /= 10;
+                    position++;
+                }
+                if(position == start){
+                    throw new ParseException("Expected fraction: " + text, position);
+                }
+            }
+        }
+        //Allow 24:00 and a leap second of 60, which land on the next day and next minute
+        if(hour > 24 || minute > 59 || second > 60 || (hour == 24 && (minute | second) != 0)){
+            throw new ParseException("Invalid time: " + text, 11);
+        }
+
+        millis += ((hour * 60L + minute) * 60 + second) * 1000 + millisecond;
+
+        //Z, +hh:mm, +hhmm, +hh or nothing
+        if(position == length){
+            return millis;
+        }
+        char sign = text.charAt(position);
+        if((sign == 'Z' || sign == 'z') && position + 1 == length){
+            return millis;
+        }
+        if(sign != '+' && sign != '-'){
+            throw new ParseException("Invalid offset: " + text, position);
+        }
+        int offsetHours = digits(text, position + 1, 2);
+        int offsetMinutes = 0;
+        position += 3;
+        if(position < length){
+            if(text.charAt(position) == ':'){
+                position++;
+            }
+            offsetMinutes = digits(text, position, 2);
+            position += 2;
+        }
+        if(position != length || offsetHours > 23 || offsetMinutes > 59){
+            throw new ParseException("Invalid offset: " + text, position);
+        }
+        long offset = (offsetHours * 60L + offsetMinutes) * MILLIS_PER_MINUTE;
+        return sign == '+' ? millis - offset : millis + offset;
+    }
+
+    /**
+     * Formats a time as a UTC timestamp to the second, such as "2017-07-20T09:15:30Z"
+     * @param millis
+     * @return
+     */
+    static String formatUtc(long millis){
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int millisOfDay = (int) (millis - days * MILLIS_PER_DAY);
+        int secondOfDay = millisOfDay / 1000;
+
+        //Days to civil date, see daysFromEpoch
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] out = new char[20];
+        pad(out, 0, (int) year, 4);
+        out[4] = '-';
+        pad(out, 5, month, 2);
+        out[7] = '-';
+        pad(out, 8, day, 2);
+        out[10] = 'T';
+        pad(out, 11, secondOfDay / 3600, 2);
+        out[13] = ':';
+        pad(out, 14, secondOfDay / 60 % 60, 2);
+        out[16] = ':';
+        pad(out, 17, secondOfDay % 60, 2);
+        out[19] = 'Z';
+        return new String(out);
+    }
+
+    /**
+     * Days between 1970-01-01 and a date in the proleptic Gregorian calendar, using the
+     * era based method from Howard Hinnant's date algorithms
+     */
+    private static long daysFromEpoch(int year, int month, int day){
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month){
+        if(month == 2){
+            boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static int digits(String text, int start, int count) throws ParseException{
+        if(start + count > text.length()){
+            throw new ParseException("Too short: " + text, text.length());
+        }
+        int value = 0;
+        for(int i = start; i < start + count; i++){
+            char c = text.charAt(i);
+            if(!isDigit(c)){
+                throw new ParseException("Expected digit: " + text, i);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void expect(String text, int position, char expected) throws ParseException{
+        if(position >= text.length() || text.charAt(position) != expected){
+            throw new ParseException("Expected '" + expected + "': " + text, position);
+        }
+    }
+
+    private static boolean isDigit(char c){
+        return c >= '0' && c <= '9';
+    }
+
+    private static long floorDiv(long x, long y){
+        long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+
+    private static void pad(char[] out, int start, int value, int width){
+        for(int i = start + width - 1; i >= start; i--){
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.newsfeed;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in a fixed set of buckets so percentiles can be read back without keeping
+ * every sample. Durations are in microseconds. Below 16 each value has its own bucket, above
+ * that every power of two is split into 8 buckets, so a percentile is never more than an
+ * eighth above the true value. Anything over about a minute lands in the last bucket.
+ *
+ * Recording is a few atomic adds and never allocates or locks, so it is safe from any thread
+ */
+
+class LatencyHistogram {
+
+    //Values below this have a bucket each
+    private static final int LINEAR_BUCKETS = 16;
+
+    //Buckets each power of two above the linear range is split into, as a power of two
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    //Largest power of two with its own buckets, 2^26 microseconds is a little over a minute
+    private static final int MAX_EXPONENT = 26;
+
+    private static final int FIRST_EXPONENT = 4;
+    static final int BUCKET_COUNT = LINEAR_BUCKETS
+            + (MAX_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Adds a duration in microseconds. Negative durations count as zero
+     * @param micros
+     */
+    void record(long micros){
+        if(micros < 0){
+            micros = 0;
+        }
+        mCounts.incrementAndGet(bucketFor(micros));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(micros);
+
+        long max = mMax.get();
+        while(micros > max && !mMax.compareAndSet(max, micros)){
+            max = mMax.get();
+        }
+    }
+
+    static int bucketFor(long micros){
+        if(micros < LINEAR_BUCKETS){
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if(exponent > MAX_EXPONENT){
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value that falls in a bucket
+     * @param bucket
+     * @return
+     */
+    static long bucketUpperBound(int bucket){
+        if(bucket < LINEAR_BUCKETS){
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Returns a copy of the counts recorded so far. Samples recorded while the copy is made
+     * may or may not be included
+     * @return
+     */
+    Snapshot getSnapshot(){
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            counts[i] = mCounts.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, mTotal.get(), mMax.get());
+    }
+
+    void reset(){
+        for(int i = 0; i < BUCKET_COUNT; i++){
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Percentiles and totals of a histogram at one point in time
+     */
+    static class Snapshot {
+
+        private final long[] mCounts;
+        final long count;
+        final long totalMicros;
+        final long maxMicros;
+
+        Snapshot(long[] counts, long count, long totalMicros, long maxMicros){
+            mCounts = counts;
+            this.count = count;
+            this.totalMicros = totalMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        /**
+         * Returns the duration in microseconds that the given fraction of samples were at or
+         * below, or 0 if there are none
+         * @param fraction between 0 and 1
+         * @return
+         */
+        long getPercentile(double fraction){
+            if(count == 0){
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * count));
+            long seen = 0;
+            for(int i = 0; i < mCounts.length; i++){
+                seen += mCounts[i];
+                if(seen >= rank){
+                    return Math.min(bucketUpperBound(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        long getMeanMicros(){
+            return count == 0 ? 0 : totalMicros / count;
+        }
+
+        @Override
+        public String toString(){
+            return "n=" + count + " p50=" + formatMillis(getPercentile(0.50))
+                    + " p95=" + formatMillis(getPercentile(0.95))
+                    + " p99=" + formatMillis(getPercentile(0.99))
+                    + " max=" + formatMillis(maxMicros);
+        }
+
+        private static String formatMillis(long micros){
+            return String.format("%.1fms", micros / 1000.0);
+        }
+    }
+}
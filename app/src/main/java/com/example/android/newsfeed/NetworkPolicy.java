@@ -0,0 +1,238 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.telephony.TelephonyManager;
+
+import java.net.URISyntaxException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides how much the feed may fetch on the current connection. The connection is classed
+ * as unmetered, metered or slow, and each class gets a page size, a thumbnail prefetch depth,
+ * a thumbnail mode and how many article bodies to save for the reader:
+ *
+ * Unmetered: full pages, thumbnails at the size the API gives, a deep prefetch and the
+ * bodies of the top stories.
+ * Metered: smaller pages, small thumbnails, a shallow prefetch and fewer bodies.
+ * Slow: the smallest pages, small thumbnails only for rows on screen and no bodies.
+ *
+ * With data saver on, from settings or the system's Data Saver, a connection that isn't
+ * unmetered gets the smallest pages and only thumbnails and bodies already on the device
+ */
+
+class NetworkPolicy {
+
+    //Connection classes, from the most to the least that may be fetched
+    static final int NETWORK_NONE = 0;
+    static final int NETWORK_UNMETERED = 1;
+    static final int NETWORK_METERED = 2;
+    static final int NETWORK_SLOW = 3;
+
+    //Thumbnails at the size the API gives
+    static final int THUMBNAILS_FULL = 0;
+
+    //Thumbnails at the small rendition where there is one
+    static final int THUMBNAILS_SMALL = 1;
+
+    //Only thumbnails already in the memory or disk cache, nothing is downloaded
+    static final int THUMBNAILS_CACHED = 2;
+
+    //Page sizes for each class
+    private static final int METERED_PAGE_SIZE = 15;
+    private static final int SLOW_PAGE_SIZE = 10;
+
+    //Top stories whose bodies are saved for the reader after the feed loads
+    static final int ARTICLE_PREFETCH_COUNT = 10;
+    private static final int METERED_ARTICLE_PREFETCH_COUNT = 5;
+
+    //Median request time above which the connection counts as slow whatever its type
+    static final long SLOW_MEDIAN_MS = 2000;
+
+    //Width of the small rendition of a Guardian image, the API gives the 500 pixel one
+    static final int SMALL_RENDITION_WIDTH = 140;
+
+    //The last path segment of a Guardian image rendition, such as 500.jpg
+    private static final Pattern RENDITION = Pattern.compile("/(\\d+)\\.(jpg|jpeg|png)$");
+
+    final int networkClass;
+    final boolean dataSaver;
+    final int pageSize;
+    final int prefetchBaseDepth;
+    final int prefetchMaxDepth;
+    final int thumbnailMode;
+    final int articlePrefetchCount;
+
+    private NetworkPolicy(int networkClass, boolean dataSaver, int pageSize,
+                          int prefetchBaseDepth, int prefetchMaxDepth, int thumbnailMode,
+                          int articlePrefetchCount){
+        this.networkClass = networkClass;
+        this.dataSaver = dataSaver;
+        this.pageSize = pageSize;
+        this.prefetchBaseDepth = prefetchBaseDepth;
+        this.prefetchMaxDepth = prefetchMaxDepth;
+        this.thumbnailMode = thumbnailMode;
+        this.articlePrefetchCount = articlePrefetchCount;
+    }
+
+    /**
+     * Returns the policy for the connection the device has now and the data saver setting
+     * @param context
+     * @param prefetchBaseDepth prefetch depth on an unmetered connection
+     * @param prefetchMaxDepth
+     * @return
+     */
+    static NetworkPolicy get(Context context, int prefetchBaseDepth, int prefetchMaxDepth){
+        return forConnection(classify(context), isDataSaverOn(context),
+                prefetchBaseDepth, prefetchMaxDepth);
+    }
+
+    /**
+     * Returns the policy for a connection class
+     * @param networkClass
+     * @param dataSaver
+     * @param prefetchBaseDepth prefetch depth on an unmetered connection, scaled down for
+     *                          the others
+     * @param prefetchMaxDepth
+     * @return
+     */
+    static NetworkPolicy forConnection(int networkClass, boolean dataSaver,
+                                       int prefetchBaseDepth, int prefetchMaxDepth){
+        if(networkClass == NETWORK_UNMETERED){
+            return new NetworkPolicy(networkClass, dataSaver, FeedQuery.PAGE_SIZE,
+                    prefetchBaseDepth, prefetchMaxDepth, THUMBNAILS_FULL, ARTICLE_PREFETCH_COUNT);
+        }
+        if(dataSaver){
+            return new NetworkPolicy(networkClass, true, SLOW_PAGE_SIZE, 0, 0, THUMBNAILS_CACHED,
+                    0);
+        }
+        if(networkClass == NETWORK_METERED){
+            return new NetworkPolicy(networkClass, false, METERED_PAGE_SIZE,
+                    (prefetchBaseDepth + 1) / 2, (prefetchMaxDepth + 1) / 2, THUMBNAILS_SMALL,
+                    METERED_ARTICLE_PREFETCH_COUNT);
+        }
+
+        //Slow or no connection, thumbnails are left until their row is on screen and bodies
+        //until the article is opened
+        return new NetworkPolicy(networkClass, false, SLOW_PAGE_SIZE, 0, 0, THUMBNAILS_SMALL, 0);
+    }
+
+    boolean isConnected(){
+        return networkClass != NETWORK_NONE;
+    }
+
+    /**
+     * Classes the active connection. A connection is slow if it is a 2G one, or if recent
+     * feed requests on it have been slow
+     * @param context
+     * @return
+     */
+    static int classify(Context context){
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        if(activeNetwork == null || !activeNetwork.isConnected()){
+            return NETWORK_NONE;
+        }
+
+        long median = FetchPolicy.getInstance().getPercentile(0.5);
+        if(isSlowType(activeNetwork) || median > SLOW_MEDIAN_MS){
+            return NETWORK_SLOW;
+        }
+        return isMetered(cm, activeNetwork) ? NETWORK_METERED : NETWORK_UNMETERED;
+    }
+
+    private static boolean isMetered(ConnectivityManager cm, NetworkInfo activeNetwork){
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN){
+            return cm.isActiveNetworkMetered();
+        }
+        int type = activeNetwork.getType();
+        return type != ConnectivityManager.TYPE_WIFI && type != ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    private static boolean isSlowType(NetworkInfo activeNetwork){
+        if(activeNetwork.getType() != ConnectivityManager.TYPE_MOBILE){
+            return false;
+        }
+        switch(activeNetwork.getSubtype()){
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns true if the user has turned on data saver in settings or, from Nougat, the
+     * system's Data Saver is restricting this app
+     * @param context
+     * @return
+     */
+    static boolean isDataSaverOn(Context context){
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if(sharedPrefs.getBoolean(context.getString(R.string.settings_data_saver_key), false)){
+            return true;
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N){
+            ConnectivityManager cm =
+                    (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return cm.getRestrictBackgroundStatus()
+                    == ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the url of the small rendition of a Guardian image, or null if the url isn't a
+     * rendition or is already small
+     * @param url
+     * @return
+     */
+    static UrlKey getSmallRendition(UrlKey url){
+        String string = url.toString();
+        Matcher matcher = RENDITION.matcher(string);
+        if(!matcher.find() || Integer.parseInt(matcher.group(1)) <= SMALL_RENDITION_WIDTH){
+            return null;
+        }
+        try{
+            return UrlKey.parse(string.substring(0, matcher.start())
+                    + "/" + SMALL_RENDITION_WIDTH + "." + matcher.group(2));
+        }catch(URISyntaxException e){
+            return null;
+        }
+    }
+
+    /**
+     * Returns a short name for a connection class for the log
+     * @param networkClass
+     * @return
+     */
+    static String getName(int networkClass){
+        switch(networkClass){
+            case NETWORK_UNMETERED:
+                return "unmetered";
+            case NETWORK_METERED:
+                return "metered";
+            case NETWORK_SLOW:
+                return "slow";
+            default:
+                return "none";
+        }
+    }
+
+    @Override
+    public String toString(){
+        return getName(networkClass) + (dataSaver ? " dataSaver" : "") + " pageSize=" + pageSize
+                + " prefetch=" + prefetchBaseDepth + "/" + prefetchMaxDepth
+                + " thumbnails=" + thumbnailMode + " articles=" + articlePrefetchCount;
+    }
+}
@@ -1,30 +1,30 @@
 package com.example.android.newsfeed;
 
 import android.app.LoaderManager.LoaderCallbacks;
-import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
 import android.content.SharedPreferences;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.SimpleItemAnimator;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
-import static android.content.Intent.ACTION_VIEW;
 
 public class NewsActivity extends AppCompatActivity implements LoaderCallbacks<List<NewsItem>>{
 
@@ -32,50 +32,167 @@ public class NewsActivity extends AppCompatActivity implements LoaderCallbacks<L
     //News loader id
     private final int NEWS_LOADER_ID = 1;
 
-    //Guardian API key
-    private final String API_KEY = "c0c86898-4718-4693-9051-ab2875f72ae7";
+    //Loader id for pages after the first
+    private final int PAGE_LOADER_ID = 2;
 
-    //Base query string
-    private static final String BASE_QUERY_URL = "https://content.guardianapis.com/search?";
+    //Loader id for the feed saved on the device
+    private final int STORED_LOADER_ID = 3;
+
+    //Loader id for refreshes that only fetch items newer than those shown
+    private final int DELTA_LOADER_ID = 4;
+
+    //Loader argument holding the publication time to fetch items from
+    private static final String ARG_FROM_DATE = "from_date";
+
+    //Loader argument holding the publication time to fetch items up to, the oldest shown
+    private static final String ARG_TO_DATE = "to_date";
+
+    //Start fetching the next page when the user is this many rows from the bottom
+    private static final int PAGE_THRESHOLD = 5;
+
+    //Most rows kept in the list, the oldest are dropped from the top as new pages arrive
+    private static final int MAX_ITEMS = 200;
+
+    //Number of rows ahead of the screen to prefetch thumbnails for, rising with scroll speed
+    private static final int PREFETCH_BASE_DEPTH = 5;
+    private static final int PREFETCH_MAX_DEPTH = 20;
+
+    //Rows kept bound just off screen, reused on a small scroll back without rebinding
+    private static final int ITEM_VIEW_CACHE_SIZE = 4;
+
+    //Spare row views kept for binding, enough for a full screen of short rows on a tablet
+    private static final int RECYCLED_VIEW_POOL_SIZE = 16;
+
+    //Longest gap between checks of relative times on screen
+    private static final long TIME_TICK_MAX_DELAY_MS = 60 * 1000;
+
+    //Most stories shown for a search
+    private static final int MAX_SEARCH_RESULTS = 50;
 
     private NewsItemAdapter newsItemAdapter;
 
+    //Updates relative times on screen as they go out of date, runs only while resumed
+    private final Handler timeTickHandler = new Handler();
+    private final Runnable timeTick = new Runnable() {
+        @Override
+        public void run() {
+            long nextChange = Math.min(newsItemAdapter.refreshDisplayTimes(recyclerView),
+                    searchAdapter.refreshDisplayTimes(searchResultsView));
+            long delay = Math.min(TIME_TICK_MAX_DELAY_MS, nextChange - System.currentTimeMillis());
+            timeTickHandler.postDelayed(this, Math.max(1000, delay));
+        }
+    };
+
+    //Warms the thumbnail cache for rows about to scroll onto the screen
+    private ThumbnailPrefetcher thumbnailPrefetcher;
+
+    private RecyclerView recyclerView;
+    private LinearLayoutManager layoutManager;
+
+    //Paging state. Only one page is ever being fetched at a time
+    private boolean pageLoading;
+    private boolean morePagesAvailable;
+
+    //Results asked for per page, set from the network policy each time the feed is refreshed
+    //so every page of one listing is the same size
+    private int pageSize = FeedQuery.PAGE_SIZE;
+
+    //What the feed may fetch on the connection it last checked
+    private NetworkPolicy networkPolicy;
+
+    //Bytes received since the activity was last started
+    private PerfMetrics.Session session;
+
+    //Set once the network has delivered the feed so the stored copy is no longer wanted
+    private boolean networkFeedShown;
+
+    //Sections the list was last fully loaded for, a delta refresh only makes sense for the same
+    private Set<String> shownSections;
+
     //Variable for error message view
     private TextView errorMessageView;
 
     //Variable to hold swipe refresh container for results list view
     private SwipeRefreshLayout swipeLayout;
 
+    //Search over every story fetched so far, shown in place of the feed while searching
+    private SearchIndex searchIndex;
+    private NewsItemAdapter searchAdapter;
+    private RecyclerView searchResultsView;
+    private TextView searchEmptyView;
+
+    //Query the search results are shown for, null when not searching
+    private String searchQuery;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_news);
 
-        //Build blank list of news Items
-        List<NewsItem> newsItems = new ArrayList<>();
-
-        //Build array adapter and link it to the list view
-        ListView listView = (ListView) findViewById(R.id.news_items_list);
-        newsItemAdapter = new NewsItemAdapter(this, newsItems);
-        listView.setAdapter(newsItemAdapter);
-
-        //Create listner to take user to news item clicked on
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        //Build adapter with a listner to take user to news item clicked on
+        NewsItemAdapter.OnItemClickListener clickListener = new NewsItemAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onItemClick(NewsItem newsItem) {
 
-                //Get news item that has been clicked on
-                NewsItem newsItem = (NewsItem) parent.getItemAtPosition(position);
+                //Open the story in the reader, which can still hand it to the browser
+                startActivity(ArticleActivity.newIntent(NewsActivity.this, newsItem));
+            }
+        };
+        newsItemAdapter = new NewsItemAdapter(this, clickListener);
+
+        //Link the adapter to the feed
+        recyclerView = (RecyclerView) findViewById(R.id.news_items_list);
+        layoutManager = new LinearLayoutManager(this);
+
+        //Lay out the next row during idle time in the frame before it scrolls on screen
+        layoutManager.setItemPrefetchEnabled(true);
+        recyclerView.setLayoutManager(layoutManager);
+        recyclerView.addItemDecoration(new DividerItemDecoration(this,
+                DividerItemDecoration.VERTICAL));
+
+        //The feed fills the screen whatever it holds, so changes never need a full relayout
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setItemViewCacheSize(ITEM_VIEW_CACHE_SIZE);
+        recyclerView.getRecycledViewPool().setMaxRecycledViews(0, RECYCLED_VIEW_POOL_SIZE);
+
+        //Rows that change are rebound in place rather than cross faded
+        RecyclerView.ItemAnimator itemAnimator = recyclerView.getItemAnimator();
+        if(itemAnimator instanceof SimpleItemAnimator){
+            ((SimpleItemAnimator) itemAnimator).setSupportsChangeAnimations(false);
+        }
+        recyclerView.setAdapter(newsItemAdapter);
 
-                //Create intent to launch browser
-                Intent intent = new Intent(ACTION_VIEW, Uri.parse(newsItem.getUrl().toString()));
-                startActivity(intent);
+        //Start fetching thumbnails for the rows the user is scrolling towards
+        thumbnailPrefetcher = new ThumbnailPrefetcher(newsItemAdapter,
+                PREFETCH_BASE_DEPTH, PREFETCH_MAX_DEPTH);
+        recyclerView.addOnScrollListener(thumbnailPrefetcher);
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView view, int dx, int dy) {
+                //Fetch the next page once the user nears the bottom of the list
+                int totalItemCount = newsItemAdapter.getItemCount();
+                if(totalItemCount > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= totalItemCount - 1 - PAGE_THRESHOLD){
+                    loadNextPage();
+                }
             }
         });
 
         errorMessageView = (TextView) findViewById(R.id.error_text_view);
 
+        //Search results open stories the same way the feed does, and show thumbnails from the
+        //feed's image cache so a story in both isn't held in memory twice
+        searchIndex = SearchIndex.getInstance(this);
+        searchAdapter = new NewsItemAdapter(this, clickListener, newsItemAdapter);
+        searchResultsView = (RecyclerView) findViewById(R.id.search_results_list);
+        searchResultsView.setLayoutManager(new LinearLayoutManager(this));
+        searchResultsView.addItemDecoration(new DividerItemDecoration(this,
+                DividerItemDecoration.VERTICAL));
+        searchResultsView.setHasFixedSize(true);
+        searchResultsView.setAdapter(searchAdapter);
+        searchEmptyView = (TextView) findViewById(R.id.search_empty_view);
+
         //Set up pull down refresh
         swipeLayout = (SwipeRefreshLayout) findViewById(R.id.swipe_container);
         swipeLayout.setOnRefreshListener(new SwipeRefreshLayout.OnRefreshListener() {
@@ -88,8 +205,61 @@ public class NewsActivity extends AppCompatActivity implements LoaderCallbacks<L
         //set color for loading on refresh
         swipeLayout.setColorSchemeColors(ContextCompat.getColor(this,R.color.colorAccent));
 
+        //Show the feed saved last time straight away while the refresh runs
+        getLoaderManager().initLoader(STORED_LOADER_ID, null, NewsActivity.this);
+
         //Force refresh on launch
         Refresh();
+
+        //Keep the stored feed and thumbnails fresh for next time while the app is closed
+        FeedSyncJobService.schedule(this);
+    }
+
+    @Override
+    protected void onStart(){
+        super.onStart();
+        session = PerfMetrics.getInstance().startSession();
+    }
+
+    /**
+     * Picks up the time display and data saver settings, which may have changed in settings,
+     * and starts keeping relative times up to date
+     */
+    @Override
+    protected void onResume(){
+        super.onResume();
+        applyNetworkPolicy();
+
+        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        boolean relativeTimes = sharedPrefs.getBoolean(
+                getString(R.string.settings_relative_time_key), false);
+        newsItemAdapter.setRelativeTimes(relativeTimes);
+        searchAdapter.setRelativeTimes(relativeTimes);
+
+        if(relativeTimes){
+            timeTickHandler.removeCallbacks(timeTick);
+            timeTickHandler.post(timeTick);
+        }
+    }
+
+    @Override
+    protected void onPause(){
+        super.onPause();
+        timeTickHandler.removeCallbacks(timeTick);
+    }
+
+    /**
+     * Logs where the time went while the feed was in use and the bytes this session used,
+     * see PerfMetrics
+     */
+    @Override
+    protected void onStop(){
+        super.onStop();
+        PerfMetrics metrics = PerfMetrics.getInstance();
+        metrics.log();
+        if(session != null){
+            metrics.logSession(session, String.valueOf(networkPolicy));
+        }
     }
 
     /**
@@ -99,9 +269,97 @@ public class NewsActivity extends AppCompatActivity implements LoaderCallbacks<L
     @Override
     public boolean onCreateOptionsMenu(Menu menu){
         getMenuInflater().inflate(R.menu.main, menu);
+
+        //Search as the user types, the feed comes back when search is closed
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                showSearchResults(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String query) {
+                showSearchResults(query);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                setSearching(true);
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                setSearching(false);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Swaps the feed for the search results or back
+     * @param searching
+     */
+    private void setSearching(boolean searching){
+        swipeLayout.setVisibility(searching ? View.GONE : View.VISIBLE);
+        searchResultsView.setVisibility(searching ? View.VISIBLE : View.GONE);
+        if(searching){
+            searchQuery = "";
+            loadSearchIndex();
+        }else{
+            searchQuery = null;
+            searchEmptyView.setVisibility(View.GONE);
+            searchAdapter.replaceAll(Collections.<NewsItem>emptyList());
+        }
+    }
+
+    /**
+     * Reads the search index from disk the first time search is opened, unless a fetch has
+     * already loaded it, then searches again for whatever has been typed meanwhile
+     */
+    private void loadSearchIndex(){
+        if(searchIndex.isLoaded()){
+            return;
+        }
+        searchIndex.loadInBackground(new Runnable() {
+            @Override
+            public void run() {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(searchQuery != null && !isFinishing()){
+                            showSearchResults(searchQuery);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows the stories matching a query. Answered from the search index in memory, so it is
+     * quick enough to run on every key press
+     * @param query
+     */
+    private void showSearchResults(String query){
+        searchQuery = query;
+        long searchStart = PerfMetrics.start();
+        List<NewsItem> results = searchIndex.search(query, MAX_SEARCH_RESULTS,
+                System.currentTimeMillis());
+        PerfMetrics.getInstance().record(PerfMetrics.SEARCH_QUERY, searchStart);
+
+        searchAdapter.replaceAll(results);
+        searchEmptyView.setVisibility(results.isEmpty() && !query.trim().isEmpty()
+                ? View.VISIBLE : View.GONE);
+    }
+
 
     /**
      * Takes a selected menu item an launches it if it is the settings menu
@@ -128,32 +386,93 @@ public class NewsActivity extends AppCompatActivity implements LoaderCallbacks<L
         //Make error message invisible
         errorMessageView.setVisibility(View.GONE);
 
-        //Clear results pane
-        newsItemAdapter.clear();
+        //The rows already shown stay until the new results arrive
+
+        //Drop any page still being fetched, paging starts again from the refreshed list
+        getLoaderManager().destroyLoader(PAGE_LOADER_ID);
+        pageLoading = false;
+        morePagesAvailable = false;
 
         //Set refresh circle to appear
         swipeLayout.setRefreshing(true);
 
         //Check internet connection, executing query if connected
-        if(checkConnection()) {
-            //Run a loader to query the Guardian API
-            getLoaderManager().restartLoader(NEWS_LOADER_ID, null, NewsActivity.this);
+        applyNetworkPolicy();
+        if(networkPolicy.isConnected()) {
+            pageSize = networkPolicy.pageSize;
+            long newest = newsItemAdapter.getNewestPublicationTime();
+            if(networkFeedShown && newest > 0 && sameSections(shownSections, getSelectedSections())){
+                //Only ask for what has been published since the newest item we have
+                Bundle args = new Bundle();
+                args.putLong(ARG_FROM_DATE, newest);
+                startFeedLoader(DELTA_LOADER_ID, args);
+            }else{
+                //Run a loader to query the Guardian API
+                startFeedLoader(NEWS_LOADER_ID, null);
+            }
         }else{
             //Stop refreshing of swipe refresh
             swipeLayout.setRefreshing(false);
-            errorMessageView.setText(getString(R.string.no_connection));
-            errorMessageView.setVisibility(View.VISIBLE);
+
+            //Keep showing the stored feed if we have one
+            if(newsItemAdapter.isEmpty()){
+                errorMessageView.setText(getString(R.string.no_connection));
+                errorMessageView.setVisibility(View.VISIBLE);
+            }
         }
     }
 
+    /**
+     * Starts a loader fetching the feed. If the loader already there is for the same query and
+     * is either still fetching or has a fresh result it is kept, so a repeated refresh waits
+     * on the fetch in progress or gets the fresh result back instead of fetching again
+     * @param id
+     * @param args
+     */
+    private void startFeedLoader(int id, Bundle args){
+        Loader<List<NewsItem>> loader = getLoaderManager().getLoader(id);
+        if(loader instanceof NewsItemLoader
+                && ((NewsItemLoader) loader).canReuse(buildFeedUrls(args))){
+            getLoaderManager().initLoader(id, args, NewsActivity.this);
+        }else{
+            getLoaderManager().restartLoader(id, args, NewsActivity.this);
+        }
+    }
+
+    /**
+     * Starts fetching the items older than the oldest shown unless a page is already being
+     * fetched. Every section is asked for items up to the same time so the feed stays newest
+     * first however often each section publishes
+     */
+    private void loadNextPage(){
+        if(pageLoading || !morePagesAvailable || swipeLayout.isRefreshing() || !checkConnection()){
+            return;
+        }
+
+        pageLoading = true;
+        Bundle args = new Bundle();
+        args.putLong(ARG_TO_DATE, newsItemAdapter.getOldestPublicationTime());
+        getLoaderManager().restartLoader(PAGE_LOADER_ID, args, NewsActivity.this);
+    }
+
     /**
      * Checks users connection and return true if connected to internet
      * @return
      */
     private boolean checkConnection(){
-        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-        return activeNetwork != null && activeNetwork.isConnected();
+        return NetworkPolicy.classify(this) != NetworkPolicy.NETWORK_NONE;
+    }
+
+    /**
+     * Sets how far ahead thumbnails are prefetched and at what size from the connection the
+     * device has now and the data saver setting
+     */
+    private void applyNetworkPolicy(){
+        networkPolicy = NetworkPolicy.get(this, PREFETCH_BASE_DEPTH, PREFETCH_MAX_DEPTH);
+        thumbnailPrefetcher.setDepth(networkPolicy.prefetchBaseDepth,
+                networkPolicy.prefetchMaxDepth);
+        newsItemAdapter.setThumbnailMode(networkPolicy.thumbnailMode);
+        searchAdapter.setThumbnailMode(networkPolicy.thumbnailMode);
     }
 
     /**
@@ -165,67 +484,203 @@ public class NewsActivity extends AppCompatActivity implements LoaderCallbacks<L
     @Override
     public Loader<List<NewsItem>> onCreateLoader(int id, Bundle args){
 
+        if(id == STORED_LOADER_ID){
+            return new StoredFeedLoader(NewsActivity.this, getSelectedSections(), FeedQuery.PAGE_SIZE);
+        }
 
-        //Get user preferences and build query from them
-        SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        List<String> urls = buildFeedUrls(args);
+        if(urls.size() > 1){
+            //A page missing a section is fetched again rather than shown, as the next page
+            //starts from its oldest item and would skip what the section had before it
+            return new NewsItemLoader(NewsActivity.this, urls, id == PAGE_LOADER_ID);
+        }
+        return new NewsItemLoader(NewsActivity.this, urls.get(0));
+    }
 
-        //Get preferences
-        Set<String> sections = sharedPrefs.getStringSet(getString(R.string.settings_section_key), null);
+    /**
+     * Returns the urls a feed loader with the given arguments queries, one per section if
+     * several sections are chosen
+     * @param args
+     * @return
+     */
+    private List<String> buildFeedUrls(Bundle args){
+        Date fromDate = args != null && args.containsKey(ARG_FROM_DATE)
+                ? new Date(args.getLong(ARG_FROM_DATE)) : null;
+        Date toDate = args != null && args.containsKey(ARG_TO_DATE)
+                ? new Date(args.getLong(ARG_TO_DATE)) : null;
+        return FeedQuery.buildUrls(this, pageSize, fromDate, toDate);
+    }
 
-        //Get base uri and convert to form that can be added to
-        Uri baseUri = Uri.parse(BASE_QUERY_URL);
-        Uri.Builder uriBuilder = baseUri.buildUpon();
+    /**
+     * Returns true if two section selections are the same, treating null and empty alike
+     * @param a
+     * @param b
+     * @return
+     */
+    private static boolean sameSections(Set<String> a, Set<String> b){
+        if(a == null || a.isEmpty()){
+            return b == null || b.isEmpty();
+        }
+        return a.equals(b);
+    }
 
+    /**
+     * Returns the sections the user has chosen in settings, or null if none are set
+     * @return
+     */
+    private Set<String> getSelectedSections(){
+        return FeedQuery.getSelectedSections(this);
+    }
 
-        uriBuilder.appendQueryParameter("format", "json");
-        uriBuilder.appendQueryParameter("show-fields", "headline,thumbnail");
-        uriBuilder.appendQueryParameter("order-by", "newest");
-        uriBuilder.appendQueryParameter("page-size", "25");
+    /**
+     * Update the results list with results of the query
+     * @param loader
+     * @param data
+     */
+    @Override
+    public void onLoadFinished(Loader<List<NewsItem>> loader, List<NewsItem> data){
 
-        if(sections != null && !sections.isEmpty()){
-            StringBuilder sectionsToQuery = new StringBuilder();
-            boolean firstIteration = true;
+        if(loader.getId() == PAGE_LOADER_ID){
+            onPageLoaded(((NewsItemLoader) loader).getFailure(), data);
+            return;
+        }
 
-            for(String section : sections){
+        if(loader.getId() == DELTA_LOADER_ID){
+            onDeltaLoaded(data);
+            return;
+        }
 
-                //Add comma seperation in front of each entry after first
-                if(!firstIteration){
-                    sectionsToQuery.append("|");
-                }else{
-                    firstIteration = false;
-                }
-                sectionsToQuery.append(section);
+        if(loader.getId() == STORED_LOADER_ID){
+            //Only show the stored feed if the network hasn't beaten it
+            if(!networkFeedShown && newsItemAdapter.isEmpty() && data != null && !data.isEmpty()){
+                errorMessageView.setVisibility(View.GONE);
+                newsItemAdapter.replaceAll(data);
             }
+            return;
+        }
 
-            //Add sections to Uri
-            uriBuilder.appendQueryParameter("section", sectionsToQuery.toString());
+        //Stop refreshing of swipe refresh
+        swipeLayout.setRefreshing(false);
 
+        //Replace the results if we received any
+        if(data != null && !data.isEmpty()){
+            showFirstPage(data);
+        } else if(newsItemAdapter.isEmpty()) {
+            //Say why nothing came back rather than that there are no results
+            FetchException failure = loader instanceof NewsItemLoader
+                    ? ((NewsItemLoader) loader).getFailure() : null;
+            errorMessageView.setText(failure != null
+                    ? getFailureMessage(failure) : getString(R.string.no_results));
+            errorMessageView.setVisibility(View.VISIBLE);
         }
+    }
 
-        uriBuilder.appendQueryParameter("api-key", API_KEY);
+    /**
+     * Returns the message to show when the feed couldn't be fetched
+     * @param failure
+     * @return
+     */
+    private String getFailureMessage(FetchException failure){
+        switch(failure.getReason()){
+            case FetchException.REASON_TIMEOUT:
+                return getString(R.string.error_timeout);
+            case FetchException.REASON_HTTP:
+                return getString(R.string.error_server);
+            case FetchException.REASON_PARSE:
+                return getString(R.string.error_response);
+            default:
+                return getString(R.string.error_network);
+        }
+    }
 
-        return new NewsItemLoader(NewsActivity.this, uriBuilder.toString());
+    /**
+     * Replaces the whole list with a freshly fetched first page
+     * @param data
+     */
+    private void showFirstPage(List<NewsItem> data){
+        networkFeedShown = true;
+        shownSections = getSelectedSections();
+        newsItemAdapter.replaceAll(data);
+
+        //Pages from several sections are cut short to the time they all cover, so a short page
+        //doesn't mean the end. The end is found by a page adding nothing
+        morePagesAvailable = true;
+        prefetchArticles(data);
     }
 
+    /**
+     * Saves the bodies of the top stories for the reader, as many as the connection allows
+     * @param data the newest stories first
+     */
+    private void prefetchArticles(List<NewsItem> data){
+        ArticlePrefetcher.prefetchInBackground(this, data, networkPolicy.articlePrefetchCount);
+    }
 
     /**
-     * Update the results list with results of the query
-     * @param loader
+     * Merges the items published since the last refresh into the list, only inserting the new
+     * rows. The rows on screen stay in place unless the user is at the top, when the list
+     * scrolls up to show the new rows
      * @param data
      */
-    @Override
-    public void onLoadFinished(Loader<List<NewsItem>> loader, List<NewsItem> data){
+    private void onDeltaLoaded(List<NewsItem> data){
 
         //Stop refreshing of swipe refresh
         swipeLayout.setRefreshing(false);
 
-        //Update results if we received any
-        if(data != null && !data.isEmpty()){
-            newsItemAdapter.addAll(data);
-        } else {
-            errorMessageView.setText(getString(R.string.no_results));
-            errorMessageView.setVisibility(View.VISIBLE);
+        if(data == null || data.isEmpty()){
+            return;
+        }
+
+        //A full page with nothing we already have may have skipped items between it and our
+        //newest row, so load the first page from scratch instead
+        boolean overlaps = false;
+        for(NewsItem newsItem : data){
+            if(newsItemAdapter.containsArticle(newsItem.getUrl())){
+                overlaps = true;
+                break;
+            }
+        }
+        if(!overlaps && data.size() >= pageSize){
+            showFirstPage(data);
+            return;
+        }
+
+        //Rows inserted above the first one on screen land off screen, so bring them into view
+        //if the user was looking at the top of the list
+        Runnable onShown = null;
+        if(layoutManager.findFirstCompletelyVisibleItemPosition() == 0){
+            onShown = new Runnable() {
+                @Override
+                public void run() {
+                    recyclerView.scrollToPosition(0);
+                }
+            };
         }
+
+        if(newsItemAdapter.mergeNewer(data, MAX_ITEMS, onShown) == 0){
+            return;
+        }
+        prefetchArticles(data);
+    }
+
+    /**
+     * Appends a page after the first to the list. The page only has items published at or
+     * before the oldest row so it goes on the end. Rows dropped from the top are off screen and
+     * the rows on screen keep their place
+     * @param failure why the page couldn't be fetched, null if it was
+     * @param data
+     */
+    private void onPageLoaded(FetchException failure, List<NewsItem> data){
+        pageLoading = false;
+
+        //A failed page is tried again when the list is next scrolled near its end
+        if(failure != null){
+            return;
+        }
+
+        //A page with nothing we haven't shown means we have reached the end, a refresh starts
+        //again. The page starts at the oldest row so always repeats it
+        morePagesAvailable = data != null && newsItemAdapter.appendPage(data, MAX_ITEMS) > 0;
     }
 
     @Override
@@ -1,7 +1,7 @@
 package com.example.android.newsfeed;
 
-import java.net.URL;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Class to represent news item in app
@@ -9,31 +9,64 @@ import java.util.Date;
 
 class NewsItem {
 
+    //Section names and ids shared by every item, there are only a few dozen of them
+    private static final Map<String, String> sSectionNames = new HashMap<>();
+
     //Represents article headline
     private String mHeadline;
 
     //Represents article category
     private String mSection;
 
-    //Represents date article was published
-    private Date mWebPublicationDate;
+    //Represents the id of the article category used in queries, may be null
+    private String mSectionId;
+
+    //Represents time article was published in milliseconds since the epoch
+    private long mWebPublicationTime;
 
     //Represents the url of the article
-    private URL mUrl;
+    private UrlKey mUrl;
 
     //Represents the thumbnail of the article
-    private URL mThumbnailUrl;
+    private UrlKey mThumbnailUrl;
 
-    public NewsItem(String headline, String section, Date webPublicationDate,
-                    URL url, URL thumbnailUrl){
+    //Publication time as last shown, the formatter that made it and when it goes out of date.
+    //Only touched on the main thread
+    private String mDisplayTime;
+    private int mDisplayTimeFormat;
+    private long mDisplayTimeExpiresAt;
+
+    public NewsItem(String headline, String section, String sectionId, long webPublicationTime,
+                    UrlKey url, UrlKey thumbnailUrl){
 
         mHeadline = headline;
-        mSection = section;
-        mWebPublicationDate = webPublicationDate;
+        mSection = internSectionName(section);
+        mSectionId = internSectionName(sectionId);
+        mWebPublicationTime = webPublicationTime;
         mUrl = url;
         mThumbnailUrl = thumbnailUrl;
     }
 
+    /**
+     * Returns the shared copy of a section name so items from the same section don't each
+     * hold their own
+     * @param name
+     * @return
+     */
+    private static String internSectionName(String name){
+        if(name == null){
+            return null;
+        }
+        synchronized(sSectionNames){
+            String shared = sSectionNames.get(name);
+            if(shared == null){
+                sSectionNames.put(name, name);
+                shared = name;
+            }
+            return shared;
+        }
+    }
+
     public String getHeadline(){
         return mHeadline;
     }
@@ -42,16 +75,41 @@ class NewsItem {
         return mSection;
     }
 
-    public Date getWebPublicationDate(){
-        return mWebPublicationDate;
+    public String getSectionId(){
+        return mSectionId;
+    }
+
+    public long getWebPublicationTime(){
+        return mWebPublicationTime;
     }
 
-    public URL getUrl(){
+    public UrlKey getUrl(){
         return mUrl;
     }
 
-    public URL getThumbnailUrl(){
+    public UrlKey getThumbnailUrl(){
         return mThumbnailUrl;
     }
 
+    /**
+     * Returns the cached display string for the publication time if it was made by the given
+     * formatter and is still correct, otherwise null
+     * @param formatId
+     * @param now
+     * @return
+     */
+    String getDisplayTime(int formatId, long now){
+        return formatId == mDisplayTimeFormat && now < mDisplayTimeExpiresAt ? mDisplayTime : null;
+    }
+
+    void setDisplayTime(String displayTime, int formatId, long expiresAt){
+        mDisplayTime = displayTime;
+        mDisplayTimeFormat = formatId;
+        mDisplayTimeExpiresAt = expiresAt;
+    }
+
+    long getDisplayTimeExpiresAt(){
+        return mDisplayTimeExpiresAt;
+    }
+
 }
@@ -2,163 +2,568 @@ package com.example.android.newsfeed;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
-import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created by Daniel on 05/07/2017.
  */
 
-class NewsItemAdapter extends ArrayAdapter<NewsItem> {
+class NewsItemAdapter extends RecyclerView.Adapter<NewsItemAdapter.ViewHolder> {
 
     private String LOG_TAG = NewsItemAdapter.class.getName();
 
-    //Cache of thumbnail downloads
-    private Cache cache;
+    //Size of the on disk thumbnail cache in bytes
+    private static final long DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    //On disk thumbnail cache shared by every adapter, opened on first use off the main thread
+    private static DiskCache sDiskCache;
+
+    private final Context mContext;
+
+    //Cache of thumbnail downloads, may be shared with another adapter
+    private final Cache cache;
+
+    //Bitmaps evicted from the cache that new thumbnails can be decoded into
+    private final BitmapPool mBitmapPool;
+
+    //Size thumbnails are displayed at in pixels, images are decoded no larger than needed
+    private final int mThumbnailWidth;
+    private final int mThumbnailHeight;
+
+    //Moves the rows shown to each new list, diffing in the background
+    private final FeedDiffer mDiffer = new FeedDiffer(this);
+
+    //The newest list handed to the differ, which may not be on screen yet. Every change is
+    //made to a copy of this so changes made in quick succession build on each other
+    private List<NewsItem> mLatestList = new ArrayList<>();
+
+    //Urls of the articles in the latest list so a page that overlaps the last one adds no duplicates
+    private final Set<UrlKey> mArticleUrls = new HashSet<>();
+
+    //Formats publication times, caching the result on each item
+    private final PublishedTimeFormatter mTimeFormatter;
+
+    private final OnItemClickListener mClickListener;
+
+    //Runs thumbnail downloads, most recently requested first
+    private final ImageScheduler mScheduler = ImageScheduler.getInstance();
+    private final ThumbnailLoader mThumbnailLoader = new ThumbnailLoader();
+
+    private final PerfMetrics mMetrics = PerfMetrics.getInstance();
+
+    //How thumbnails not already cached are fetched, one of NetworkPolicy's THUMBNAILS_ modes.
+    //Read on the scheduler threads
+    private volatile int mThumbnailMode = NetworkPolicy.THUMBNAILS_FULL;
+
+    /**
+     * Told when the user taps a row
+     */
+    interface OnItemClickListener {
+        void onItemClick(NewsItem newsItem);
+    }
 
     /**
-     * Set up adapter with list of news items
+     * Set up an empty adapter
      *
      * @param context
-     * @param newsItems
+     * @param clickListener
+     */
+    NewsItemAdapter(Context context, OnItemClickListener clickListener) {
+        this(context, clickListener, null);
+    }
+
+    /**
+     * Set up an empty adapter that shows thumbnails from another adapter's image cache, so a
+     * thumbnail in both lists is held and decoded only once
+     *
+     * @param context
+     * @param clickListener
+     * @param shareImagesWith adapter whose image cache and bitmap pool are used, null to build
+     *                        new ones
+     */
+    NewsItemAdapter(Context context, OnItemClickListener clickListener,
+                    NewsItemAdapter shareImagesWith) {
+        mContext = context;
+        mClickListener = clickListener;
+
+        //Rows are identified by article url so they keep their views across updates
+        setHasStableIds(true);
+
+        if (shareImagesWith != null) {
+            mBitmapPool = shareImagesWith.mBitmapPool;
+            cache = shareImagesWith.cache;
+        } else {
+            //Build a new image cache, recycling evicted bitmaps through a pool a quarter its size
+            int cacheBytes = Cache.getDefaultMaxBytes(context);
+            mBitmapPool = new BitmapPool(cacheBytes / 4);
+            cache = new Cache(cacheBytes, mBitmapPool);
+        }
+
+        mThumbnailWidth = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_width);
+        mThumbnailHeight = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_height);
+        mTimeFormatter = new PublishedTimeFormatter(context, false);
+    }
+
+    /**
+     * Switches the date column between relative times and dates, redrawing if it changed
+     *
+     * @param relative
+     */
+    void setRelativeTimes(boolean relative) {
+        if (mTimeFormatter.setRelative(relative) && getItemCount() > 0) {
+            notifyItemRangeChanged(0, getItemCount());
+        }
+    }
+
+    /**
+     * Sets how thumbnails that aren't cached are fetched, see NetworkPolicy. Applies to
+     * downloads that haven't started yet
+     *
+     * @param thumbnailMode
+     */
+    void setThumbnailMode(int thumbnailMode) {
+        mThumbnailMode = thumbnailMode;
+    }
+
+    /**
+     * Updates the time shown on each visible row whose text has gone out of date, without
+     * rebinding anything else. Returns when the next visible time will go out of date, or
+     * Long.MAX_VALUE if none will
+     *
+     * @param recyclerView
+     * @return
+     */
+    long refreshDisplayTimes(RecyclerView recyclerView) {
+        long now = System.currentTimeMillis();
+        long nextChange = Long.MAX_VALUE;
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            ViewHolder holder = (ViewHolder) recyclerView.getChildViewHolder(recyclerView.getChildAt(i));
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || position >= getItemCount()) {
+                continue;
+            }
+            NewsItem newsItem = getItem(position);
+            String text = mTimeFormatter.format(newsItem, now);
+            if (!text.contentEquals(holder.date.getText())) {
+                holder.date.setText(text);
+            }
+            nextChange = Math.min(nextChange, newsItem.getDisplayTimeExpiresAt());
+        }
+        return nextChange;
+    }
+
+    /**
+     * Returns the item shown at a position
+     *
+     * @param position
+     * @return
      */
-    NewsItemAdapter(Context context, List<NewsItem> newsItems) {
-        super(context, 0, newsItems);
-        //Build a new image cache
-        cache = new Cache(20);
+    NewsItem getItem(int position) {
+        return mDiffer.getCurrentList().get(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mDiffer.getCurrentList().size();
     }
 
-    @NonNull
     @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
+    public long getItemId(int position) {
+        return getItem(position).getUrl().getStableId();
+    }
 
-        View listItem = convertView;
-        Holder holder;
+    /**
+     * Returns true if there are no articles, counting changes not on screen yet
+     *
+     * @return
+     */
+    boolean isEmpty() {
+        return mLatestList.isEmpty();
+    }
 
-        if (listItem == null) {
-            listItem = LayoutInflater.from(getContext()).inflate(R.layout.news_list_item, parent, false);
+    /**
+     * Returns the number of articles, counting changes not on screen yet
+     *
+     * @return
+     */
+    int getArticleCount() {
+        return mLatestList.size();
+    }
 
-            //Get references for holder
-            holder = new Holder();
-            holder.headline = (TextView) listItem.findViewById(R.id.headline_text);
-            holder.section = (TextView) listItem.findViewById(R.id.section_text);
-            holder.date = (TextView) listItem.findViewById(R.id.date_text);
-            holder.thumbnail = (ImageView) listItem.findViewById(R.id.thumbnail);
+    /**
+     * Replaces the list. Rows for articles in both the old and new list are kept and only
+     * rebound if they changed
+     *
+     * @param newsItems
+     */
+    void replaceAll(List<NewsItem> newsItems) {
+        List<NewsItem> list = new ArrayList<>(newsItems.size());
+        mArticleUrls.clear();
+        for (NewsItem newsItem : newsItems) {
+            if (mArticleUrls.add(newsItem.getUrl())) {
+                list.add(newsItem);
+            }
+        }
+        submit(list, null);
+    }
 
-            //Link the holder to the list item view
-            listItem.setTag(holder);
-        } else {
-            //If the view is being recycled fetch the holder that contains references to each element
-            holder = (Holder) listItem.getTag();
+    /**
+     * Adds a page of items to the end of the list, skipping any already shown. If the list then
+     * holds more than maxItems the oldest rows are removed from the top. Returns the number of
+     * rows added
+     *
+     * @param newsItems items no newer than the last row, newest first
+     * @param maxItems
+     * @return
+     */
+    int appendPage(List<NewsItem> newsItems, int maxItems) {
+        List<NewsItem> list = new ArrayList<>(mLatestList);
+        int added = 0;
+
+        for (NewsItem newsItem : newsItems) {
+            if (mArticleUrls.add(newsItem.getUrl())) {
+                list.add(newsItem);
+                added++;
+            }
+        }
+        if (added == 0) {
+            return 0;
+        }
+
+        int trim = list.size() - maxItems;
+        if (trim > 0) {
+            for (NewsItem oldest : list.subList(0, trim)) {
+                mArticleUrls.remove(oldest.getUrl());
+            }
+            list.subList(0, trim).clear();
+        }
+
+        submit(list, null);
+        return added;
+    }
+
+    /**
+     * Returns true if an article is already in the list
+     *
+     * @param url
+     * @return
+     */
+    boolean containsArticle(UrlKey url) {
+        return mArticleUrls.contains(url);
+    }
+
+    /**
+     * Returns the publication time of the newest article in the list, or 0 if it is empty
+     *
+     * @return
+     */
+    long getNewestPublicationTime() {
+        long newest = 0;
+        for (NewsItem newsItem : mLatestList) {
+            newest = Math.max(newest, newsItem.getWebPublicationTime());
+        }
+        return newest;
+    }
+
+    /**
+     * Returns the publication time of the oldest article in the list, or 0 if it is empty
+     *
+     * @return
+     */
+    long getOldestPublicationTime() {
+        long oldest = 0;
+        for (NewsItem newsItem : mLatestList) {
+            long time = newsItem.getWebPublicationTime();
+            if (oldest == 0 || time < oldest) {
+                oldest = time;
+            }
         }
+        return oldest;
+    }
 
+    /**
+     * Inserts the items not already in the list at their place in newest first order, leaving
+     * every existing row where it is. If the list then holds more than maxItems the oldest rows
+     * are removed from the bottom. Returns the number of rows inserted
+     *
+     * @param newsItems
+     * @param maxItems
+     * @param onShown run once the new rows are on screen, may be null
+     * @return
+     */
+    int mergeNewer(List<NewsItem> newsItems, int maxItems, Runnable onShown) {
+        List<NewsItem> list = new ArrayList<>(mLatestList);
+        int inserted = 0;
+        for (NewsItem newsItem : newsItems) {
+            if (mArticleUrls.add(newsItem.getUrl())) {
+                list.add(findInsertPosition(list, newsItem.getWebPublicationTime()), newsItem);
+                inserted++;
+            }
+        }
+        if (inserted == 0) {
+            return 0;
+        }
+
+        while (list.size() > maxItems) {
+            mArticleUrls.remove(list.remove(list.size() - 1).getUrl());
+        }
+
+        submit(list, onShown);
+        return inserted;
+    }
+
+    /**
+     * Binary searches a newest first list for the first row older than a time
+     */
+    private static int findInsertPosition(List<NewsItem> list, long time) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid).getWebPublicationTime() < time) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private void submit(List<NewsItem> list, Runnable onCommitted) {
+        mLatestList = list;
+        mDiffer.submitList(list, onCommitted);
+    }
+
+    /**
+     * Returns the on disk thumbnail cache, opening it if needed. Returns null if it can't be
+     * opened in which case thumbnails just come from the network. Shared with the background
+     * sync, which fills it ahead of the app opening. Reads the disk so must only be called from
+     * a background thread
+     *
+     * @param context
+     * @return
+     */
+    static synchronized DiskCache getDiskCache(Context context) {
+        if (sDiskCache == null) {
+            try {
+                sDiskCache = DiskCache.open(new File(context.getCacheDir(), "thumbnails"),
+                        DISK_CACHE_BYTES);
+            } catch (IOException e) {
+                Log.e(NewsItemAdapter.class.getName(), "Error opening thumbnail disk cache", e);
+            }
+        }
+        return sDiskCache;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(mContext).inflate(R.layout.news_list_item, parent, false);
+        return new ViewHolder(itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long bindStart = PerfMetrics.start();
         NewsItem newsItem = getItem(position);
 
         holder.headline.setText(newsItem.getHeadline());
         holder.section.setText(newsItem.getSection());
 
-        //Put date into localised date format
-        String date = DateFormat.getDateInstance(DateFormat.SHORT).format(newsItem.getWebPublicationDate());
-        holder.date.setText(date);
+        //Put date into localised date format, only worked out again once it goes out of date
+        holder.date.setText(mTimeFormatter.format(newsItem, System.currentTimeMillis()));
 
-        URL thumbnailUrl = newsItem.getThumbnailUrl();
+        UrlKey thumbnailUrl = newsItem.getThumbnailUrl();
 
         Bitmap thumbnail = cache.getImage(thumbnailUrl);
 
         //If the thumbnail is not in the cache we need to download it
         if (thumbnail == null) {
+            mMetrics.increment(PerfMetrics.IMAGE_MEMORY_MISSES);
             download(thumbnailUrl, holder.thumbnail);
         } else {
-            holder.thumbnail.setImageBitmap(thumbnail);
+            mMetrics.increment(PerfMetrics.IMAGE_MEMORY_HITS);
+
+            //Stop waiting on any download for the image this row showed before
+            ImageScheduler.Job downloadJob = getDownloadJob(holder.thumbnail);
+            if (downloadJob != null) {
+                mScheduler.detach(downloadJob, holder.thumbnail);
+            }
+            showThumbnail(holder.thumbnail, thumbnail);
         }
 
-        return listItem;
+        mMetrics.record(PerfMetrics.ADAPTER_BIND, bindStart);
+    }
+
+    /**
+     * A row going back to the pool no longer needs its thumbnail, so the download is dropped if
+     * nothing else is waiting on it, and the bitmap it showed may be decoded into again
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        ImageScheduler.Job downloadJob = getDownloadJob(holder.thumbnail);
+        if (downloadJob != null) {
+            mScheduler.detach(downloadJob, holder.thumbnail);
+        }
+        setThumbnailDrawable(holder.thumbnail, null, null);
     }
 
+    /**
+     * Shows a thumbnail in an image view
+     *
+     * @param imageView
+     * @param bitmap
+     */
+    private void showThumbnail(ImageView imageView, Bitmap bitmap) {
+        setThumbnailDrawable(imageView, null, bitmap);
+    }
 
     /**
-     * Class to holder view references to make list updating more efficient
+     * Sets what an image view shows, either a drawable or a bitmap, keeping the cache told
+     * which bitmaps are on screen so none is reused while a view still draws it
      */
-    private static class Holder {
-        TextView headline;
-        TextView section;
-        TextView date;
-        ImageView thumbnail;
+    private void setThumbnailDrawable(ImageView imageView, Drawable drawable, Bitmap bitmap) {
+        Bitmap shown = (Bitmap) imageView.getTag(R.id.thumbnail);
+        if (shown == bitmap && bitmap != null) {
+            return;
+        }
+        cache.retain(bitmap);
+        imageView.setTag(R.id.thumbnail, bitmap);
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+        } else {
+            imageView.setImageDrawable(drawable);
+        }
+        cache.release(shown);
     }
 
     /**
-     * This method sets up new download task if applicable
+     * Holds the views of a row so binding doesn't have to look them up
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView headline;
+        final TextView section;
+        final TextView date;
+        final ImageView thumbnail;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            headline = (TextView) itemView.findViewById(R.id.headline_text);
+            section = (TextView) itemView.findViewById(R.id.section_text);
+            date = (TextView) itemView.findViewById(R.id.date_text);
+            thumbnail = (ImageView) itemView.findViewById(R.id.thumbnail);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && mClickListener != null) {
+                mClickListener.onItemClick(getItem(position));
+            }
+        }
+    }
+
+    /**
+     * Queues a low priority download of the thumbnail for a row that is not on screen yet so it
+     * is in the cache by the time the row is shown. Returns null if the thumbnail is already
+     * cached or there is no such row
+     *
+     * @param position
+     * @return
+     */
+    ImageScheduler.Job prefetchThumbnail(int position) {
+        if (position < 0 || position >= getItemCount()) {
+            return null;
+        }
+
+        UrlKey thumbnailUrl = getItem(position).getThumbnailUrl();
+        if (cache.getImage(thumbnailUrl) != null) {
+            return null;
+        }
+
+        return mScheduler.request(thumbnailUrl, null, ImageScheduler.PRIORITY_PREFETCH,
+                mThumbnailLoader, mThumbnailLoader);
+    }
+
+    /**
+     * Drops a prefetch that is no longer wanted unless it has already started or a row is now
+     * waiting on it. Returns true if it was dropped
+     *
+     * @param job
+     * @return
+     */
+    boolean cancelPrefetch(ImageScheduler.Job job) {
+        return mScheduler.detach(job, null);
+    }
+
+    /**
+     * This method queues a new download if applicable
      *
      * @param url
      * @param imageView
      */
-    private void download(URL url, ImageView imageView) {
+    private void download(UrlKey url, ImageView imageView) {
         if (cancelPotentialDownload(url, imageView)) {
-            //Create download task
-            ImageDownloaderTask task = new ImageDownloaderTask(imageView, cache);
+            //Queue the download, joining any download of the same image already under way
+            ImageScheduler.Job job = mScheduler.request(url, imageView,
+                    ImageScheduler.PRIORITY_VISIBLE, mThumbnailLoader, mThumbnailLoader);
 
             //Set imageview to use the image downloaded
-            DownloadedDrawable downloadedDrawable = new DownloadedDrawable(task,
-                    ContextCompat.getColor(this.getContext(), R.color.colorPrimaryDark));
-            imageView.setImageDrawable(downloadedDrawable);
-            task.execute(url);
+            DownloadedDrawable downloadedDrawable = new DownloadedDrawable(job,
+                    ContextCompat.getColor(mContext, R.color.colorPrimaryDark));
+            setThumbnailDrawable(imageView, downloadedDrawable, null);
         }
     }
 
     //** Bind download to the image view while being downloaded
     static class DownloadedDrawable extends ColorDrawable {
-        private final WeakReference<ImageDownloaderTask> bitmapDownloaderTaskReference;
+        private final WeakReference<ImageScheduler.Job> downloadJobReference;
 
-        DownloadedDrawable(ImageDownloaderTask bitmapDownloaderTask, int placeholderColor) {
+        DownloadedDrawable(ImageScheduler.Job downloadJob, int placeholderColor) {
             //First set image background to placeholder
             super(placeholderColor);
 
-            //Store a reference to the downloader task
-            bitmapDownloaderTaskReference =
-                    new WeakReference<ImageDownloaderTask>(bitmapDownloaderTask);
+            //Store a reference to the download job
+            downloadJobReference = new WeakReference<ImageScheduler.Job>(downloadJob);
         }
 
-        ImageDownloaderTask getBitmapDownloaderTask() {
-            return bitmapDownloaderTaskReference.get();
+        ImageScheduler.Job getDownloadJob() {
+            return downloadJobReference.get();
         }
     }
 
     /**
-     * This method checks if an imagedownloader task has been created and if it has it cancels the
-     * task if it does not have a url or the new url does not match the existing one
+     * This method checks if the image view is already waiting on a download and if it is
+     * detaches it from that download if the new url does not match the existing one
      *
      * @param url
      * @param imageView
      * @return
      */
-    private static boolean cancelPotentialDownload(URL url, ImageView imageView) {
-        ImageDownloaderTask bitmapDownloaderTask = getBitmapDownloaderTask(imageView);
-
-        if (bitmapDownloaderTask != null) {
-            URL bitmapUrl = bitmapDownloaderTask.getUrl();
-            if ((bitmapUrl == null) || (!bitmapUrl.equals(url))) {
-                //Cancel old download of different image
-                bitmapDownloaderTask.cancel(true);
+    private boolean cancelPotentialDownload(UrlKey url, ImageView imageView) {
+        ImageScheduler.Job downloadJob = getDownloadJob(imageView);
+
+        if (downloadJob != null) {
+            if (!downloadJob.getUrl().equals(url)) {
+                //Stop waiting on the old image, the download is dropped if nothing else wants it
+                mScheduler.detach(downloadJob, imageView);
             } else {
                 // The same URL is already being downloaded.
                 return false;
@@ -169,115 +574,117 @@ class NewsItemAdapter extends ArrayAdapter<NewsItem> {
 
     /**
      * Because we attach an instance of Download Drawable to the image view we can
-     * request the image download task reference held by DownloadDrawable
+     * request the download job reference held by DownloadDrawable
      */
-    private static ImageDownloaderTask getBitmapDownloaderTask(ImageView imageView) {
+    private static ImageScheduler.Job getDownloadJob(ImageView imageView) {
         if (imageView != null) {
             Drawable drawable = imageView.getDrawable();
             if (drawable instanceof DownloadedDrawable) {
-                //We ask for the download task
+                //We ask for the download job
                 DownloadedDrawable downloadedDrawable = (DownloadedDrawable) drawable;
-                return downloadedDrawable.getBitmapDownloaderTask();
+                return downloadedDrawable.getDownloadJob();
             }
         }
         return null;
     }
 
     /**
-     * Task to download bitmap images
+     * Loads thumbnails for the scheduler from the disk cache or the network and hands the
+     * results back to the image views waiting on them
      */
-    class ImageDownloaderTask extends AsyncTask<URL, Void, Bitmap> {
-
-        //Store reference to the image view to update
-        //A weak reference isnt strong enough to keep an object in memory if nothing else refers to it
-        private final WeakReference<ImageView> mImageViewReference;
-
-        //Create a reference to the image cache so we can store images
-        private final WeakReference<Cache> mCachceRef;
-
-        private URL mDownloadUrl;
-
-
-        public ImageDownloaderTask(ImageView imageView, Cache cache) {
-            mImageViewReference = new WeakReference<ImageView>(imageView);
-            mCachceRef = new WeakReference<Cache>(cache);
-        }
+    private class ThumbnailLoader implements ImageScheduler.ImageSource, ImageScheduler.Callback {
 
+        /**
+         * Runs on a scheduler thread
+         */
         @Override
-        protected Bitmap doInBackground(URL... params) {
-
-            mDownloadUrl = params[0];
+        public Bitmap load(UrlKey url) {
+
+            String key = url.toString();
+
+            //Try the disk cache before going to the network
+            DiskCache diskCache = getDiskCache(mContext);
+            if (diskCache != null) {
+                long readStart = PerfMetrics.start();
+                byte[] cached = diskCache.getBytes(key);
+                mMetrics.record(PerfMetrics.IMAGE_DISK_READ, readStart);
+                if (cached != null) {
+                    Bitmap bitmap = decodeThumbnail(cached);
+                    if (bitmap != null) {
+                        mMetrics.increment(PerfMetrics.IMAGE_DISK_HITS);
+                        return bitmap;
+                    }
+                    //The entry can't be decoded so drop it and download again
+                    diskCache.remove(key);
+                }
+                mMetrics.increment(PerfMetrics.IMAGE_DISK_MISSES);
+            }
 
-            try {
-                return downloadBitmap(mDownloadUrl);
-            } catch (IOException e) {
-                Log.e(LOG_TAG, "Error closing input stream", e);
+            //Data saver only shows thumbnails already on the device
+            int thumbnailMode = mThumbnailMode;
+            if (thumbnailMode == NetworkPolicy.THUMBNAILS_CACHED) {
                 return null;
             }
-        }
-
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
 
-            //Dont update if the task has been cancelled
-            if (isCancelled()) {
-                bitmap = null;
+            //On a metered or slow connection try the small rendition first. It is decoded to
+            //the size of the view and stored under the url from the API like the full one
+            long downloadStart = PerfMetrics.start();
+            byte[] data = null;
+            UrlKey smallUrl = thumbnailMode == NetworkPolicy.THUMBNAILS_SMALL
+                    ? NetworkPolicy.getSmallRendition(url) : null;
+            if (smallUrl != null) {
+                data = QueryUtils.downloadBytes(smallUrl);
             }
-
-            //Check if reference to image view still exists
-            if (mImageViewReference != null) {
-                ImageView imageView = mImageViewReference.get();
-                if (imageView != null) {
-                    //Get the latest bitmap image downloader instance tied to the image view
-                    ImageDownloaderTask imageDownloaderTask = getBitmapDownloaderTask(imageView);
-
-                    //If the bitmap exists and the valid image downlaoader is this one then update the image
-                    if (bitmap != null && this == imageDownloaderTask) {
-                        imageView.setImageBitmap(bitmap);
-                        mCachceRef.get().addImage(mDownloadUrl, bitmap);
-                    }
-                }
+            if (data == null) {
+                data = QueryUtils.downloadBytes(url);
             }
-        }
+            if (data == null) {
+                mMetrics.increment(PerfMetrics.IMAGE_ERRORS);
+                return null;
+            }
+            mMetrics.record(PerfMetrics.IMAGE_DOWNLOAD, downloadStart);
+            mMetrics.add(PerfMetrics.IMAGE_BYTES_RECEIVED, data.length);
 
-        //** Get URL being downloaded
-        public URL getUrl() {
-            return mDownloadUrl;
-        }
+            Bitmap bitmap = decodeThumbnail(data);
 
-        //** Download bitmap from specified URL */
-        private Bitmap downloadBitmap(URL url) throws IOException {
-            HttpURLConnection urlConnection = null;
-            InputStream inputStream = null;
-            try {
-                //Try and create a http connection
-                urlConnection = (HttpURLConnection) url.openConnection();
-                int statusCode = urlConnection.getResponseCode();
-                if (statusCode != HttpURLConnection.HTTP_OK) {
-                    return null;
+            //Only keep images we were able to decode
+            if (bitmap != null && diskCache != null) {
+                try {
+                    diskCache.put(key, data);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error writing thumbnail to disk cache", e);
                 }
+            }
+            return bitmap;
+        }
 
-                // Get inputstream and build a bitmap
-                inputStream = urlConnection.getInputStream();
-                if (inputStream != null) {
-                    Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                    return bitmap;
-                }
-            } catch (Exception e) {
-                Log.e(LOG_TAG, "Error downloading image from " + url, e);
-                //This finally always executes even if bitmap is returned above
-            } finally {
+        /**
+         * Runs on the main thread once a download has finished
+         */
+        @Override
+        public void onImageLoaded(ImageScheduler.Job job, Bitmap bitmap) {
+            if (bitmap == null) {
+                return;
+            }
 
-                if (urlConnection != null) {
-                    urlConnection.disconnect();
-                }
+            cache.addImage(job.getUrl(), bitmap);
 
-                if (inputStream != null) {
-                    inputStream.close();
+            //Update every image view that is still waiting on this download
+            for (ImageView imageView : job.getTargets()) {
+                if (getDownloadJob(imageView) == job) {
+                    showThumbnail(imageView, bitmap);
                 }
             }
-            return null;
+        }
+
+        //** Decode an image at the size of the thumbnail view */
+        private Bitmap decodeThumbnail(byte[] data) {
+            long decodeStart = PerfMetrics.start();
+            Bitmap bitmap = BitmapDecoder.decode(data, mThumbnailWidth, mThumbnailHeight,
+                    Bitmap.Config.RGB_565, mBitmapPool);
+            mMetrics.record(PerfMetrics.IMAGE_DECODE, decodeStart);
+            return bitmap;
         }
 
     }
-}
\ No newline at end of file
+}
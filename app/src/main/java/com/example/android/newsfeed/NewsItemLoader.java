@@ -2,28 +2,133 @@ package com.example.android.newsfeed;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Created by mgdog on 10/07/2017.
+ *
+ * Keeps the last result it loaded along with the query it answered and when, so an activity
+ * coming back to the loader gets that result straight away instead of a new fetch. See
+ * canReuse() for telling whether a refresh can be served by this loader
  */
 
 class NewsItemLoader extends AsyncTaskLoader<List<NewsItem>>{
 
+    private static final String LOG_TAG = NewsItemLoader.class.getName();
+
+    //How long a result is good for before asking for the same query fetches it again
+    static final long FRESH_FOR_MS = 60 * 1000;
+
     private String mUrl;
+    private List<String> mSectionUrls;
+
+    //True if a result missing some sections counts as a failure
+    private boolean mAllSections;
+
+    //The urls this loader queries, as a whole they identify the query
+    private final List<String> mQueryKey;
+
+    //Last result and the elapsed realtime it arrived at. Only touched on the main thread
+    private List<NewsItem> mResult;
+    private long mResultTime;
+    private boolean mLoading;
+
+    //Why the last load failed, null if it didn't. Set on the loading thread
+    private volatile FetchException mFailure;
 
     NewsItemLoader(Context context, String url){
         super(context);
         mUrl = url;
+        mQueryKey = Collections.singletonList(url);
+    }
+
+    /**
+     * Loads one query per section concurrently and merges them by publication date
+     * @param context
+     * @param sectionUrls
+     * @param allSections true to fail rather than deliver the result without a section that
+     *                    failed or was too slow, so the same query can be tried again
+     */
+    NewsItemLoader(Context context, List<String> sectionUrls, boolean allSections){
+        super(context);
+        mUrl = "";
+        mSectionUrls = sectionUrls;
+        mQueryKey = sectionUrls;
+        mAllSections = allSections;
+    }
+
+    /**
+     * Returns true if a refresh for the given query urls can be answered by this loader,
+     * either by the fetch it is running now or by a result that is still fresh. A result
+     * with no items is never reused as it may be from a failed fetch
+     * @param queryUrls
+     * @return
+     */
+    boolean canReuse(List<String> queryUrls){
+        if(!mQueryKey.equals(queryUrls)){
+            return false;
+        }
+        if(mLoading){
+            return true;
+        }
+        return mResult != null && !mResult.isEmpty()
+                && SystemClock.elapsedRealtime() - mResultTime < FRESH_FOR_MS;
+    }
+
+    /**
+     * Returns why the last load failed, or null if it succeeded. A load that succeeded can
+     * still have no items if the query has no results
+     * @return
+     */
+    FetchException getFailure(){
+        return mFailure;
     }
 
     /**
-     * Force the loader to load when its starts
+     * Hands back the last result at once if there is one, and only loads if there isn't and
+     * nothing is loading already
      */
     @Override
     public void onStartLoading(){
-        forceLoad();
+        if(mResult != null){
+            super.deliverResult(mResult);
+        }
+        if((mResult == null && !mLoading) || takeContentChanged()){
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onForceLoad(){
+        super.onForceLoad();
+        mLoading = true;
+    }
+
+    /**
+     * Keeps the result of a load before passing it on
+     * @param newsItems
+     */
+    @Override
+    public void deliverResult(List<NewsItem> newsItems){
+        mLoading = false;
+        mResult = newsItems;
+        mResultTime = SystemClock.elapsedRealtime();
+        if(isStarted()){
+            super.deliverResult(newsItems);
+        }
+    }
+
+    @Override
+    protected void onReset(){
+        super.onReset();
+        cancelLoad();
+        mLoading = false;
+        mResult = null;
     }
 
     /**
@@ -33,14 +138,95 @@ class NewsItemLoader extends AsyncTaskLoader<List<NewsItem>>{
     @Override
     public List<NewsItem> loadInBackground(){
 
-        if(mUrl.isEmpty()){
+        long loadStart = PerfMetrics.start();
+        PerfMetrics metrics = PerfMetrics.getInstance();
+
+        List<NewsItem> newsItems;
+        FetchException failure = null;
+
+        if(mSectionUrls == null && mUrl.isEmpty()){
             return null;
         }
+        try{
+            newsItems = fetchFeed(getContext(), mQueryKey, mAllSections);
+        }catch(FetchException e){
+            newsItems = Collections.emptyList();
+            failure = e;
+        }
+        mFailure = failure;
+
+        //Keep what we fetched so the feed can be shown at once next launch or offline
+        if(failure == null){
+            long storeStart = PerfMetrics.start();
+            storeItems(getContext(), newsItems);
+            metrics.record(PerfMetrics.LOADER_STORE, storeStart);
+        }
 
-        //Fetch results of query
-        return QueryUtils.fetchNewsItems(mUrl);
+        metrics.record(PerfMetrics.LOADER_LOAD, loadStart);
+        return newsItems;
     }
 
+    /**
+     * Keeps fetched items on the device: in the feed store for showing offline, and in the
+     * search index. Blocks so must be called off the main thread
+     * @param context
+     * @param newsItems
+     */
+    static void storeItems(Context context, List<NewsItem> newsItems){
+        FeedStore.getInstance(context).saveItems(newsItems);
 
+        SearchIndex searchIndex = SearchIndex.getInstance(context);
+        if(searchIndex.addAll(newsItems) > 0){
+            try{
+                searchIndex.save();
+            }catch(IOException e){
+                //Still searchable until the app is closed, saved again on the next fetch
+                Log.e(LOG_TAG, "Problem saving the search index", e);
+            }
+        }
+    }
 
-}
+    /**
+     * Fetches the feed for the given query urls through the response cache. Several urls are
+     * fetched at once and merged, and a slow or failed one only loses its own items. Blocks so
+     * must be called off the main thread
+     * @param context
+     * @param urls
+     * @param allSections true to fail if any url couldn't be fetched
+     * @return
+     * @throws FetchException if no url could be fetched, or any if allSections is set
+     */
+    static List<NewsItem> fetchFeed(Context context, List<String> urls, boolean allSections)
+            throws FetchException{
+        final ResponseCache responseCache = ResponseCache.getInstance(context);
+        if(urls.size() == 1){
+            return QueryUtils.fetchNewsItems(urls.get(0), responseCache);
+        }
+
+        //Fetch every section at once, a slow or failed section only loses its own items. Each
+        //gets as long as an attempt may take with the timeouts in use now
+        SectionFetcher sectionFetcher = new SectionFetcher(SectionFetcher.getExecutor(),
+                new SectionFetcher.Source() {
+                    @Override
+                    public List<NewsItem> fetch(String url) throws FetchException {
+                        return QueryUtils.fetchNewsItems(url, responseCache);
+                    }
+                }, FetchPolicy.getInstance().getAttemptTimeoutMs());
+        int sectionPageSize = FeedQuery.getPageSize(urls.get(0));
+        SectionFetcher.Result result = sectionFetcher.fetch(urls,
+                sectionPageSize > 0 ? sectionPageSize : Integer.MAX_VALUE);
+        if(result.isPartial() && !allSections){
+            Log.w(LOG_TAG, "Delivering partial feed " + result);
+        }
+
+        //Only a failure if no section came back at all, unless every section is needed
+        if((result.isPartial() && allSections) || (result.newsItems.isEmpty()
+                && result.failedCount + result.timedOutCount == result.sectionCount)){
+            throw result.failure instanceof FetchException
+                    ? (FetchException) result.failure
+                    : new FetchException(FetchException.REASON_TIMEOUT,
+                            "Not every section arrived in time", result.failure);
+        }
+        return result.newsItems;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,261 @@
+package com.example.android.newsfeed;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times each phase of loading the feed and its thumbnails, and counts bytes and cache hits,
+ * so it can be told where the time goes when the feed feels slow. Each phase keeps a
+ * LatencyHistogram so memory use stays the same however long the app runs.
+ *
+ * Timing a phase is a call to start() before it and record() after it. Both are cheap enough
+ * to leave in release builds, and safe from any thread. The totals are logged under the
+ * PerfMetrics tag each time the feed is left, so they can be collected from a device with
+ * adb logcat -s PerfMetrics
+ */
+
+class PerfMetrics {
+
+    private static final String LOG_TAG = "PerfMetrics";
+
+    //Phases of a feed query. Connecting covers DNS, TCP and TLS, or nothing on a reused
+    //socket. Reading and parsing are one phase as the body is parsed as it arrives
+    static final int FEED_CONNECT = 0;
+    static final int FEED_FIRST_BYTE = 1;
+    static final int FEED_READ_PARSE = 2;
+    static final int FEED_FETCH = 3;
+
+    //The loader from start to finish, and the part of it spent storing the feed
+    static final int LOADER_LOAD = 4;
+    static final int LOADER_STORE = 5;
+
+    //Binding one row on the main thread
+    static final int ADAPTER_BIND = 6;
+
+    //Phases of loading a thumbnail that isn't in memory
+    static final int IMAGE_DISK_READ = 7;
+    static final int IMAGE_DOWNLOAD = 8;
+    static final int IMAGE_DECODE = 9;
+
+    //Answering one search query from the search index on the main thread
+    static final int SEARCH_QUERY = 10;
+
+    //Fetching article bodies for the reader, and opening one in the reader from disk
+    static final int ARTICLE_FETCH = 11;
+    static final int ARTICLE_OPEN = 12;
+
+    private static final String[] PHASE_NAMES = {
+            "feed.connect", "feed.firstByte", "feed.readParse", "feed.fetch",
+            "loader.load", "loader.store",
+            "adapter.bind",
+            "image.diskRead", "image.download", "image.decode",
+            "search.query",
+            "article.fetch", "article.open"
+    };
+
+    //Bytes as they came over the network and once decompressed
+    static final int FEED_BYTES_RECEIVED = 0;
+    static final int FEED_BYTES_DECODED = 1;
+    static final int IMAGE_BYTES_RECEIVED = 2;
+
+    //Feed responses served from the response cache after a 304, and full responses
+    static final int FEED_NOT_MODIFIED = 3;
+    static final int FEED_DOWNLOADED = 4;
+    static final int FEED_ERRORS = 5;
+
+    //Thumbnail lookups when a row is bound, then on a memory miss the disk cache
+    static final int IMAGE_MEMORY_HITS = 6;
+    static final int IMAGE_MEMORY_MISSES = 7;
+    static final int IMAGE_DISK_HITS = 8;
+    static final int IMAGE_DISK_MISSES = 9;
+    static final int IMAGE_ERRORS = 10;
+
+    //Feed requests tried again, and hedged copies sent and how many answered first
+    static final int FEED_RETRIES = 11;
+    static final int FEED_HEDGES = 12;
+    static final int FEED_HEDGE_WINS = 13;
+
+    //Bytes of article bodies as they came over the network
+    static final int ARTICLE_BYTES_RECEIVED = 14;
+
+    private static final String[] COUNTER_NAMES = {
+            "feed.bytesReceived", "feed.bytesDecoded", "image.bytesReceived",
+            "feed.notModified", "feed.downloaded", "feed.errors",
+            "image.memoryHits", "image.memoryMisses", "image.diskHits", "image.diskMisses",
+            "image.errors",
+            "feed.retries", "feed.hedges", "feed.hedgeWins",
+            "article.bytesReceived"
+    };
+
+    private static PerfMetrics sInstance;
+
+    private final LatencyHistogram[] mPhases = new LatencyHistogram[PHASE_NAMES.length];
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNTER_NAMES.length);
+
+    /**
+     * Returns the metrics shared by the whole app
+     * @return
+     */
+    static synchronized PerfMetrics getInstance(){
+        if(sInstance == null){
+            sInstance = new PerfMetrics();
+        }
+        return sInstance;
+    }
+
+    PerfMetrics(){
+        for(int i = 0; i < mPhases.length; i++){
+            mPhases[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the time to pass to record() once the phase is over
+     * @return
+     */
+    static long start(){
+        return System.nanoTime();
+    }
+
+    /**
+     * Records how long a phase took since start() was called
+     * @param phase
+     * @param startNanos
+     */
+    void record(int phase, long startNanos){
+        mPhases[phase].record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    void increment(int counter){
+        mCounters.incrementAndGet(counter);
+    }
+
+    void add(int counter, long amount){
+        mCounters.addAndGet(counter, amount);
+    }
+
+    LatencyHistogram.Snapshot getPhase(int phase){
+        return mPhases[phase].getSnapshot();
+    }
+
+    long getCounter(int counter){
+        return mCounters.get(counter);
+    }
+
+    /**
+     * Fraction of lookups that were hits, or 0 if there were none
+     * @param hits
+     * @param misses
+     * @return
+     */
+    double getHitRatio(int hits, int misses){
+        long hitCount = getCounter(hits);
+        long total = hitCount + getCounter(misses);
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Returns a line per phase that has been timed, then the counters and hit ratios
+     * @return
+     */
+    String dump(){
+        StringBuilder dump = new StringBuilder();
+        for(int i = 0; i < mPhases.length; i++){
+            LatencyHistogram.Snapshot snapshot = mPhases[i].getSnapshot();
+            if(snapshot.count > 0){
+                dump.append(PHASE_NAMES[i]).append(' ').append(snapshot).append('\n');
+            }
+        }
+
+        for(int i = 0; i < COUNTER_NAMES.length; i++){
+            if(i > 0){
+                dump.append(' ');
+            }
+            dump.append(COUNTER_NAMES[i]).append('=').append(mCounters.get(i));
+        }
+        dump.append('\n');
+
+        dump.append("feed.cacheHitRatio=")
+                .append(String.format("%.2f", getHitRatio(FEED_NOT_MODIFIED, FEED_DOWNLOADED)))
+                .append(" image.memoryHitRatio=")
+                .append(String.format("%.2f", getHitRatio(IMAGE_MEMORY_HITS, IMAGE_MEMORY_MISSES)))
+                .append(" image.diskHitRatio=")
+                .append(String.format("%.2f", getHitRatio(IMAGE_DISK_HITS, IMAGE_DISK_MISSES)));
+        return dump.toString();
+    }
+
+    /**
+     * Writes the dump to the log, a line at a time so none is cut short
+     */
+    void log(){
+        for(String line : dump().split("\n")){
+            Log.i(LOG_TAG, line);
+        }
+    }
+
+    /**
+     * Starts counting the bytes received from now, for example while the feed is on screen
+     * @return
+     */
+    Session startSession(){
+        return new Session(getCounter(FEED_BYTES_RECEIVED), getCounter(IMAGE_BYTES_RECEIVED),
+                getCounter(ARTICLE_BYTES_RECEIVED));
+    }
+
+    /**
+     * Logs the bytes received since a session started, with a label such as the connection it
+     * was on, so sessions on different connections and settings can be compared
+     * @param session
+     * @param label
+     */
+    void logSession(Session session, String label){
+        Log.i(LOG_TAG, "session " + session + " " + label);
+    }
+
+    void reset(){
+        for(LatencyHistogram phase : mPhases){
+            phase.reset();
+        }
+        for(int i = 0; i < COUNTER_NAMES.length; i++){
+            mCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Bytes received from a starting point, read from the app wide counters
+     */
+    class Session {
+
+        private final long mFeedBytesAtStart;
+        private final long mImageBytesAtStart;
+        private final long mArticleBytesAtStart;
+
+        private Session(long feedBytesAtStart, long imageBytesAtStart, long articleBytesAtStart){
+            mFeedBytesAtStart = feedBytesAtStart;
+            mImageBytesAtStart = imageBytesAtStart;
+            mArticleBytesAtStart = articleBytesAtStart;
+        }
+
+        long getFeedBytes(){
+            return getCounter(FEED_BYTES_RECEIVED) - mFeedBytesAtStart;
+        }
+
+        long getImageBytes(){
+            return getCounter(IMAGE_BYTES_RECEIVED) - mImageBytesAtStart;
+        }
+
+        long getArticleBytes(){
+            return getCounter(ARTICLE_BYTES_RECEIVED) - mArticleBytesAtStart;
+        }
+
+        @Override
+        public String toString(){
+            long feedBytes = getFeedBytes();
+            long imageBytes = getImageBytes();
+            long articleBytes = getArticleBytes();
+            return "bytes=" + (feedBytes + imageBytes + articleBytes) + " feed=" + feedBytes
+                    + " images=" + imageBytes + " articles=" + articleBytes;
+        }
+    }
+}
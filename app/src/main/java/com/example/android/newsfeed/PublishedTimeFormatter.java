@@ -0,0 +1,106 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Turns publication times into the strings shown in the list, either as a short date or as a
+ * relative time such as "5 min. ago" for items from the last day.
+ *
+ * Each string is cached on its item along with the time it stops being correct, so binding a
+ * row only formats again once the minute or hour it shows has passed. Must be used on the
+ * main thread
+ */
+
+class PublishedTimeFormatter {
+
+    //Short date formats by locale, building one is far more costly than using it
+    private static final Map<Locale, DateFormat> sDateFormats = new HashMap<>();
+
+    //Gives every formatter setup its own id so strings cached by another are not reused
+    private static int sNextFormatId = 1;
+
+    private final String mJustNow;
+    private final DateFormat mDateFormat;
+    private final Date mDate = new Date();
+
+    private boolean mRelative;
+    private int mFormatId;
+
+    PublishedTimeFormatter(Context context, boolean relative){
+        mJustNow = context.getString(R.string.time_just_now);
+        mDateFormat = getDateFormat(context.getResources().getConfiguration().locale);
+        mRelative = relative;
+        mFormatId = sNextFormatId++;
+    }
+
+    private static DateFormat getDateFormat(Locale locale){
+        DateFormat dateFormat = sDateFormats.get(locale);
+        if(dateFormat == null){
+            dateFormat = DateFormat.getDateInstance(DateFormat.SHORT, locale);
+            sDateFormats.put(locale, dateFormat);
+        }
+        return dateFormat;
+    }
+
+    /**
+     * Switches between relative times and dates. Returns true if that changed anything
+     * @param relative
+     * @return
+     */
+    boolean setRelative(boolean relative){
+        if(relative == mRelative){
+            return false;
+        }
+        mRelative = relative;
+        mFormatId = sNextFormatId++;
+        return true;
+    }
+
+    boolean isRelative(){
+        return mRelative;
+    }
+
+    /**
+     * Returns the string to show for when an item was published
+     * @param newsItem
+     * @param now
+     * @return
+     */
+    String format(NewsItem newsItem, long now){
+        String cached = newsItem.getDisplayTime(mFormatId, now);
+        if(cached != null){
+            return cached;
+        }
+
+        long published = newsItem.getWebPublicationTime();
+        long elapsed = now - published;
+        String text;
+        long expiresAt;
+
+        if(!mRelative || elapsed >= DateUtils.DAY_IN_MILLIS){
+            mDate.setTime(published);
+            text = mDateFormat.format(mDate);
+            expiresAt = Long.MAX_VALUE;
+        }else if(elapsed < DateUtils.MINUTE_IN_MILLIS){
+            //Also covers times slightly in the future from clock differences
+            text = mJustNow;
+            expiresAt = Math.max(published, now) + DateUtils.MINUTE_IN_MILLIS;
+        }else{
+            long resolution = elapsed < DateUtils.HOUR_IN_MILLIS
+                    ? DateUtils.MINUTE_IN_MILLIS : DateUtils.HOUR_IN_MILLIS;
+            text = DateUtils.getRelativeTimeSpanString(published, now, resolution,
+                    DateUtils.FORMAT_ABBREV_RELATIVE).toString();
+            expiresAt = published + (elapsed / resolution + 1) * resolution;
+        }
+
+        newsItem.setDisplayTime(text, mFormatId, expiresAt);
+        return text;
+    }
+}
@@ -1,23 +1,29 @@
 package com.example.android.newsfeed;
 
+import android.util.JsonReader;
 import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Daniel on 06/07/2017.
@@ -26,25 +32,86 @@ import java.util.List;
 class QueryUtils {
     private static final String LOG_TAG = QueryUtils.class.getName();
 
-    private static SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //Buffers shared by every read of a response body
+    private static final ByteArrayPool BUFFER_POOL = new ByteArrayPool(8 * 1024, 4);
 
     //** Private Constructor to stop instantiation
     private QueryUtils(){}
 
-    public static List<NewsItem> fetchNewsItems(String url){
+    public static List<NewsItem> fetchNewsItems(String url) throws FetchException{
+        return fetchNewsItems(url, null);
+    }
 
-        //conver String to actual URL
-        URL queryUrl = convertStringToUrl(url);
+    /**
+     * Fetches news items for a query, revalidating any response stored in the cache rather
+     * than downloading it again if it hasn't changed. Failures that might pass are retried as
+     * FetchPolicy decides
+     * @param url
+     * @param responseCache may be null
+     * @return the items, which may be none if the query has no results
+     * @throws FetchException if the items could not be fetched
+     */
+    public static List<NewsItem> fetchNewsItems(String url, final ResponseCache responseCache)
+            throws FetchException{
 
-        String jsonResponse = null;
+        long fetchStart = PerfMetrics.start();
+
+        //conver String to actual URL
+        final URL queryUrl = convertStringToUrl(url);
+        if(queryUrl == null){
+            throw new FetchException(FetchException.REASON_PARSE, "Bad query url " + url, null);
+        }
 
         try{
-            jsonResponse = makeHttpRequest(queryUrl);
-        }catch(IOException e){
+            return FetchPolicy.getInstance().execute(new FetchPolicy.Request<List<NewsItem>>() {
+                @Override
+                public List<NewsItem> run(int connectTimeoutMs, int readTimeoutMs)
+                        throws FetchException{
+                    return makeHttpRequest(queryUrl, responseCache, connectTimeoutMs, readTimeoutMs);
+                }
+            });
+        }catch(FetchException e){
             Log.e(LOG_TAG, "Error Making Http Request", e);
+            throw e;
+        }finally{
+            PerfMetrics.getInstance().record(PerfMetrics.FEED_FETCH, fetchStart);
+        }
+    }
+
+    /**
+     * Fetches the bodies of the articles a query returns, see FeedQuery.buildArticlesUrl.
+     * Bodies aren't kept in the response cache as the article store holds them. Failures that
+     * might pass are retried as the article FetchPolicy decides, which never hedges and keeps
+     * body times out of the feed's timeouts
+     * @param url
+     * @return each article's body by its web url, leaving out articles without one
+     * @throws FetchException if the bodies could not be fetched
+     */
+    static Map<UrlKey, String> fetchArticleBodies(String url) throws FetchException{
+
+        long fetchStart = PerfMetrics.start();
+
+        final URL queryUrl = convertStringToUrl(url);
+        if(queryUrl == null){
+            throw new FetchException(FetchException.REASON_PARSE, "Bad query url " + url, null);
         }
 
-        return extractFeaturesFromJson(jsonResponse);
+        try{
+            return FetchPolicy.getArticleInstance().execute(new FetchPolicy.Request<Map<UrlKey, String>>() {
+                @Override
+                public Map<UrlKey, String> run(int connectTimeoutMs, int readTimeoutMs)
+                        throws FetchException{
+                    return makeArticleRequest(queryUrl, connectTimeoutMs, readTimeoutMs);
+                }
+            });
+        }catch(FetchException e){
+            Log.e(LOG_TAG, "Error fetching article bodies", e);
+            throw e;
+        }finally{
+            PerfMetrics.getInstance().record(PerfMetrics.ARTICLE_FETCH, fetchStart);
+        }
     }
 
     /**
@@ -52,7 +119,7 @@ class QueryUtils {
      * @param jsonResponse
      * @return
      */
-    private static List<NewsItem> extractFeaturesFromJson(String jsonResponse){
+    static List<NewsItem> extractFeaturesFromJson(String jsonResponse){
 
         //Build empty list of results
         List<NewsItem> newsItems = new ArrayList<>();
@@ -66,30 +133,207 @@ class QueryUtils {
             //Loop through each article result
             for(int i = 0; i < resultsList.length(); i++){
                 JSONObject result = (JSONObject) resultsList.get(i);
-
-                String section = result.getString("sectionName");
-                Date webPublicationDate = DATE_FORMAT.parse(result.getString("webPublicationDate"));
-                URL url = new URL(result.getString("webUrl"));
-
                 JSONObject fields = result.getJSONObject("fields");
-                String headline = fields.getString("headline");
-                URL thumbnailUrl = new URL(fields.getString("thumbnail"));
 
                 //Create new newsItem object and add it to our results list
-                NewsItem newsItem = new NewsItem(headline,section, webPublicationDate, url, thumbnailUrl);
+                NewsItem newsItem = buildNewsItem(fields.getString("headline"),
+                        result.getString("sectionName"), result.optString("sectionId", null),
+                        result.getString("webPublicationDate"),
+                        result.getString("webUrl"), fields.getString("thumbnail"));
                 newsItems.add(newsItem);
             }
         }catch(JSONException e){
             Log.e(LOG_TAG, "Error parsing JSON", e);
         }catch(ParseException e){
             Log.e(LOG_TAG, "Error parsing date from JSON", e);
-        }catch(MalformedURLException e){
+        }catch(URISyntaxException e){
             Log.e(LOG_TAG, "Error parsing URL from JSON", e);
         }
 
         return newsItems;
     }
 
+    /**
+     * Parses a JSON response straight off a stream, building news items as each result is read.
+     * Unlike extractFeaturesFromJson the whole response is never held in memory as a String or
+     * a JSONObject tree, and fields we do not display are skipped without being materialised
+     * @param inputStream
+     * @return
+     */
+    static List<NewsItem> extractNewsItemsFromStream(InputStream inputStream){
+
+        //Build empty list of results
+        List<NewsItem> newsItems = new ArrayList<>();
+
+        if(inputStream == null){
+            return newsItems;
+        }
+
+        try{
+            readNewsItems(inputStream, newsItems);
+        }catch(IOException e){
+            Log.e(LOG_TAG, "Error parsing JSON stream", e);
+        }catch(IllegalStateException e){
+            //Thrown by JsonReader when the response does not have the shape we expect
+            Log.e(LOG_TAG, "Unexpected JSON structure", e);
+        }
+
+        return newsItems;
+    }
+
+    /**
+     * Parses a JSON response off a stream into the list
+     * @param inputStream
+     * @param newsItems
+     * @throws IOException if the stream can't be read
+     * @throws IllegalStateException if the JSON isn't a search response
+     */
+    private static void readNewsItems(InputStream inputStream, List<NewsItem> newsItems)
+            throws IOException{
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, UTF_8));
+
+        //Walk the top level object until we find the response
+        reader.beginObject();
+        while(reader.hasNext()){
+            if(reader.nextName().equals("response")){
+                readResponse(reader, newsItems);
+            }else{
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Parses a body that must be a whole search response, telling a broken connection apart
+     * from a body that isn't JSON we understand
+     * @param inputStream
+     * @return
+     * @throws FetchException
+     */
+    private static List<NewsItem> parseResponse(InputStream inputStream) throws FetchException{
+        List<NewsItem> newsItems = new ArrayList<>();
+        try{
+            readNewsItems(inputStream, newsItems);
+        }catch(IOException e){
+            throw toFetchException(e);
+        }catch(IllegalStateException e){
+            //Thrown by JsonReader when the response does not have the shape we expect
+            throw new FetchException(FetchException.REASON_PARSE, "Unexpected JSON structure", e);
+        }
+        return newsItems;
+    }
+
+    /**
+     * Reads the response object, adding each entry of its results array to the list
+     * @param reader
+     * @param newsItems
+     * @throws IOException
+     */
+    private static void readResponse(JsonReader reader, List<NewsItem> newsItems) throws IOException{
+        reader.beginObject();
+        while(reader.hasNext()){
+            if(reader.nextName().equals("results")){
+                reader.beginArray();
+                while(reader.hasNext()){
+                    NewsItem newsItem = readResult(reader);
+                    if(newsItem != null){
+                        newsItems.add(newsItem);
+                    }
+                }
+                reader.endArray();
+            }else{
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads a single article result. Returns null if the result is missing a field we need
+     * or one of its fields cannot be parsed
+     * @param reader
+     * @return
+     * @throws IOException
+     */
+    private static NewsItem readResult(JsonReader reader) throws IOException{
+        String section = null;
+        String sectionId = null;
+        String webPublicationDate = null;
+        String webUrl = null;
+        String headline = null;
+        String thumbnail = null;
+
+        reader.beginObject();
+        while(reader.hasNext()){
+            String name = reader.nextName();
+            if(name.equals("sectionName")){
+                section = reader.nextString();
+            }else if(name.equals("sectionId")){
+                sectionId = reader.nextString();
+            }else if(name.equals("webPublicationDate")){
+                webPublicationDate = reader.nextString();
+            }else if(name.equals("webUrl")){
+                webUrl = reader.nextString();
+            }else if(name.equals("fields")){
+                //Only the headline and thumbnail are needed from the requested fields
+                reader.beginObject();
+                while(reader.hasNext()){
+                    String field = reader.nextName();
+                    if(field.equals("headline")){
+                        headline = reader.nextString();
+                    }else if(field.equals("thumbnail")){
+                        thumbnail = reader.nextString();
+                    }else{
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }else{
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if(section == null || webPublicationDate == null || webUrl == null
+                || headline == null || thumbnail == null){
+            return null;
+        }
+
+        try{
+            return buildNewsItem(headline, section, sectionId, webPublicationDate, webUrl, thumbnail);
+        }catch(ParseException e){
+            Log.e(LOG_TAG, "Error parsing date from JSON", e);
+        }catch(URISyntaxException e){
+            Log.e(LOG_TAG, "Error parsing URL from JSON", e);
+        }
+        return null;
+    }
+
+    /**
+     * Converts the raw string values of a result into a news item
+     * @param headline
+     * @param section
+     * @param sectionId
+     * @param webPublicationDate
+     * @param webUrl
+     * @param thumbnail
+     * @return
+     * @throws ParseException
+     * @throws URISyntaxException
+     */
+    private static NewsItem buildNewsItem(String headline, String section, String sectionId,
+                                          String webPublicationDate, String webUrl, String thumbnail)
+            throws ParseException, URISyntaxException{
+
+        //Keeps the full time, and unlike a shared SimpleDateFormat is safe on parallel fetches
+        long publishedAt = Iso8601.parse(webPublicationDate);
+        UrlKey url = UrlKey.parse(webUrl);
+        UrlKey thumbnailUrl = UrlKey.parse(thumbnail);
+
+        return new NewsItem(headline, section, sectionId, publishedAt, url, thumbnailUrl);
+    }
+
     /**
      * Attempts to convert string url to a URL object. Returns null if an issue
      * @param url
@@ -116,77 +360,377 @@ class QueryUtils {
 
 
     /**
-     * Makes a Http GET request and returns json response string
+     * Makes a Http GET request and parses the news items from the response as it arrives.
+     * If a cached response has validators the request is made conditional and the cached
+     * response is used when the server says it hasn't changed
      * @param url
+     * @param responseCache may be null
+     * @param connectTimeout
+     * @param readTimeout
      * @return
-     * @throws IOException
+     * @throws FetchException
      */
-    private static String makeHttpRequest(URL url) throws IOException{
+    private static List<NewsItem> makeHttpRequest(URL url, ResponseCache responseCache,
+                                                  int connectTimeout, int readTimeout)
+            throws FetchException{
 
-        String jsonResponse = "";
+        List<NewsItem> newsItems;
 
-        if(url == null){
-            return jsonResponse;
-        }
+        String cacheKey = url.toString();
+        ResponseCache.Entry cached = responseCache != null ? responseCache.get(cacheKey) : null;
 
+        HttpClient httpClient = HttpClient.getInstance();
+        PerfMetrics metrics = PerfMetrics.getInstance();
         HttpURLConnection connection = null;
         InputStream inputStream = null;
 
+        //Only a body read to the end is drained for keep-alive, one that failed part way may be
+        //on a stalled socket so the connection is dropped instead
+        boolean complete = false;
+
         //Try and open a connection
         try{
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setReadTimeout(10000);
-            connection.setConnectTimeout(15000);
+            connection = httpClient.open(url, connectTimeout, readTimeout);
+
+            //Ask for a compressed response, JSON shrinks a lot over the wire
+            ResponseBody.acceptCompressed(connection);
+
+            //Only send the body if it has changed since we stored it
+            if(cached != null){
+                if(cached.etag != null){
+                    connection.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if(cached.lastModified != null){
+                    connection.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
 
             //Make the connection
+            long phaseStart = PerfMetrics.start();
             connection.connect();
+            metrics.record(PerfMetrics.FEED_CONNECT, phaseStart);
 
-            //Extract the JSON from connection if response is fine
-            if(connection.getResponseCode() == HttpURLConnection.HTTP_OK){
+            phaseStart = PerfMetrics.start();
+            int responseCode = connection.getResponseCode();
+            metrics.record(PerfMetrics.FEED_FIRST_BYTE, phaseStart);
+
+            phaseStart = PerfMetrics.start();
+
+            if(responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null){
                 inputStream = connection.getInputStream();
-                jsonResponse = readFromStream(inputStream);
+                newsItems = responseCache.getParsed(cacheKey);
+                if(newsItems == null){
+                    newsItems = extractNewsItemsFromStream(new ByteArrayInputStream(cached.body));
+                    responseCache.putParsed(cacheKey, newsItems);
+                }
+
+                //Store it again so a response that keeps validating doesn't age out
+                responseCache.put(cacheKey, cached.etag, cached.lastModified, cached.body);
+                metrics.record(PerfMetrics.FEED_READ_PARSE, phaseStart);
+                metrics.increment(PerfMetrics.FEED_NOT_MODIFIED);
+                Log.d(LOG_TAG, "Response not modified, reused cached body for " + url.getHost());
+
+            }else if(responseCode == HttpURLConnection.HTTP_OK){
+                //Parse the JSON from connection if response is fine
+                ResponseBody body = ResponseBody.open(connection);
+                inputStream = body;
+
+                String etag = connection.getHeaderField("ETag");
+                String lastModified = connection.getHeaderField("Last-Modified");
+
+                if(responseCache != null && (etag != null || lastModified != null)){
+                    //Keep a copy of the body as it is parsed so it can be stored
+                    ResponseCache.RecordingInputStream recorder =
+                            new ResponseCache.RecordingInputStream(body, ResponseCache.MAX_ENTRY_BYTES);
+                    newsItems = parseResponse(recorder);
+                    readBytesFromStream(recorder);
+
+                    byte[] recorded = recorder.getRecorded();
+                    if(recorded != null && !newsItems.isEmpty()){
+                        responseCache.put(cacheKey, etag, lastModified, recorded);
+                        responseCache.putParsed(cacheKey, newsItems);
+                    }
+                }else{
+                    newsItems = parseResponse(body);
+                }
+                metrics.record(PerfMetrics.FEED_READ_PARSE, phaseStart);
+                metrics.increment(PerfMetrics.FEED_DOWNLOADED);
+                metrics.add(PerfMetrics.FEED_BYTES_RECEIVED, body.getBytesReceived());
+                metrics.add(PerfMetrics.FEED_BYTES_DECODED, body.getBytesDecoded());
+
+                Log.d(LOG_TAG, "Read " + body.getBytesReceived() + " bytes ("
+                        + body.getBytesDecoded() + " decoded) from " + url.getHost());
+            }else{
+                throw FetchException.forStatus(responseCode, getRetryAfterMs(connection));
             }
+            complete = true;
         }catch(IOException e){
-            Log.e(LOG_TAG, "Error oppening HTTP connection or reading stream", e);
+            metrics.increment(PerfMetrics.FEED_ERRORS);
+            throw toFetchException(e);
+        }catch(FetchException e){
+            metrics.increment(PerfMetrics.FEED_ERRORS);
+            throw e;
         } finally {
-            //Close connection and inputstream
-            if(connection != null){
-                connection.disconnect();
+            //Hand the connection back, keeping it alive if the body was read cleanly
+            httpClient.release(connection, complete ? inputStream : null);
+        }
+
+        return newsItems;
+    }
+
+
+    /**
+     * Makes a Http GET request for article bodies and reads them from the response as it
+     * arrives
+     * @param url
+     * @param connectTimeout
+     * @param readTimeout
+     * @return
+     * @throws FetchException
+     */
+    private static Map<UrlKey, String> makeArticleRequest(URL url, int connectTimeout,
+                                                          int readTimeout)
+            throws FetchException{
+
+        HttpClient httpClient = HttpClient.getInstance();
+        PerfMetrics metrics = PerfMetrics.getInstance();
+        HttpURLConnection connection = null;
+        InputStream inputStream = null;
+        boolean complete = false;
+
+        try{
+            connection = httpClient.open(url, connectTimeout, readTimeout);
+
+            //Article HTML shrinks even more than the feed over the wire
+            ResponseBody.acceptCompressed(connection);
+            connection.connect();
+
+            int responseCode = connection.getResponseCode();
+            if(responseCode != HttpURLConnection.HTTP_OK){
+                throw FetchException.forStatus(responseCode, getRetryAfterMs(connection));
             }
 
-            if(inputStream != null){
-                inputStream.close();
+            ResponseBody body = ResponseBody.open(connection);
+            inputStream = body;
+            Map<UrlKey, String> bodies = new HashMap<>();
+            JsonReader reader = new JsonReader(new InputStreamReader(body, UTF_8));
+            reader.beginObject();
+            while(reader.hasNext()){
+                if(reader.nextName().equals("response")){
+                    readArticleBodies(reader, bodies);
+                }else{
+                    reader.skipValue();
+                }
             }
+            reader.endObject();
+
+            metrics.add(PerfMetrics.ARTICLE_BYTES_RECEIVED, body.getBytesReceived());
+            Log.d(LOG_TAG, "Read " + bodies.size() + " article bodies in "
+                    + body.getBytesReceived() + " bytes from " + url.getHost());
+            complete = true;
+            return bodies;
+        }catch(IOException e){
+            metrics.increment(PerfMetrics.FEED_ERRORS);
+            throw toFetchException(e);
+        }catch(IllegalStateException e){
+            //Thrown by JsonReader when the response does not have the shape we expect
+            metrics.increment(PerfMetrics.FEED_ERRORS);
+            throw new FetchException(FetchException.REASON_PARSE, "Unexpected JSON structure", e);
+        }catch(FetchException e){
+            metrics.increment(PerfMetrics.FEED_ERRORS);
+            throw e;
+        }finally{
+            //A body not read to the end is dropped rather than drained, see makeHttpRequest
+            httpClient.release(connection, complete ? inputStream : null);
         }
+    }
 
-        return jsonResponse;
+    /**
+     * Reads the web url and body field of each entry of the response's results array
+     * @param reader
+     * @param bodies
+     * @throws IOException
+     */
+    private static void readArticleBodies(JsonReader reader, Map<UrlKey, String> bodies)
+            throws IOException{
+        reader.beginObject();
+        while(reader.hasNext()){
+            if(!reader.nextName().equals("results")){
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while(reader.hasNext()){
+                String webUrl = null;
+                String articleBody = null;
+                reader.beginObject();
+                while(reader.hasNext()){
+                    String name = reader.nextName();
+                    if(name.equals("webUrl")){
+                        webUrl = reader.nextString();
+                    }else if(name.equals("fields")){
+                        reader.beginObject();
+                        while(reader.hasNext()){
+                            if(reader.nextName().equals("body")){
+                                articleBody = reader.nextString();
+                            }else{
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }else{
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if(webUrl != null && articleBody != null && !articleBody.isEmpty()){
+                    try{
+                        bodies.put(UrlKey.parse(webUrl), articleBody);
+                    }catch(URISyntaxException e){
+                        Log.e(LOG_TAG, "Error parsing URL from JSON", e);
+                    }
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
     }
 
+    /**
+     * Types an error from opening or reading a connection
+     * @param e
+     * @return
+     */
+    private static FetchException toFetchException(IOException e){
+        if(e instanceof InterruptedIOException){
+            //Also thrown when waiting on a connection slot takes too long
+            if(!(e instanceof SocketTimeoutException) && Thread.currentThread().isInterrupted()){
+                return new FetchException(FetchException.REASON_CANCELLED, "Interrupted", e);
+            }
+            return new FetchException(FetchException.REASON_TIMEOUT, "Timed out", e);
+        }
+        return new FetchException(FetchException.REASON_NETWORK,
+                "Error opening HTTP connection or reading stream", e);
+    }
 
     /**
-     * Reads text from an input stream and returns string response
+     * Returns how long a Retry-After header in seconds asks us to wait, or 0 if there isn't one
+     * @param connection
+     * @return
+     */
+    private static long getRetryAfterMs(HttpURLConnection connection){
+        String retryAfter = connection.getHeaderField("Retry-After");
+        if(retryAfter == null){
+            return 0;
+        }
+        try{
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+        }catch(NumberFormatException e){
+            //An HTTP date, which the API doesn't send
+            return 0;
+        }
+    }
+
+    /**
+     * Downloads the body of a url, such as an encoded thumbnail, through the shared client.
+     * Returns null if the server doesn't answer with the body or it can't be read
+     * @param url
+     * @return
+     */
+    static byte[] downloadBytes(UrlKey url){
+        return downloadBytes(url, Long.MAX_VALUE);
+    }
+
+    /**
+     * Downloads the body of a url as above, giving up on it rather than reading more than
+     * maxBytes. A body the server says is too big isn't read at all
+     * @param url
+     * @param maxBytes
+     * @return
+     */
+    static byte[] downloadBytes(UrlKey url, long maxBytes){
+        HttpClient httpClient = HttpClient.getInstance();
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        boolean complete = false;
+        try{
+            //Try and create a http connection from the shared client
+            urlConnection = httpClient.open(url.toUrl());
+            int statusCode = urlConnection.getResponseCode();
+            if(statusCode != HttpURLConnection.HTTP_OK || urlConnection.getContentLength() > maxBytes){
+                return null;
+            }
+
+            //Get inputstream and read the bytes
+            inputStream = urlConnection.getInputStream();
+            if(inputStream != null){
+                byte[] data = readBytesFromStream(inputStream, maxBytes);
+                complete = true;
+                return data;
+            }
+        }catch(Exception e){
+            Log.e(LOG_TAG, "Error downloading " + url, e);
+        }finally{
+            //Hand the connection back so the next download can reuse the socket, unless the body
+            //failed part way and the socket may be stalled
+            httpClient.release(urlConnection, complete ? inputStream : null);
+        }
+        return null;
+    }
+
+    /**
+     * Reads text from an input stream and returns string response. The stream is read
+     * as UTF-8 through a pooled buffer
      * @param inputStream
      * @return
      * @throws IOException
      */
-    private static String readFromStream(InputStream inputStream) throws  IOException{
+    static String readFromStream(InputStream inputStream) throws  IOException{
 
-        StringBuilder json = new StringBuilder();
+        if(inputStream == null) {
+            return "";
+        }
 
-        if(inputStream != null) {
-            //Create reader to read text from stream
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        return new String(readBytesFromStream(inputStream), UTF_8);
+    }
 
-            String line = reader.readLine();
+    /**
+     * Reads an input stream to the end through a pooled buffer and returns its bytes
+     * @param inputStream
+     * @return
+     * @throws IOException
+     */
+    static byte[] readBytesFromStream(InputStream inputStream) throws IOException{
+        return readBytesFromStream(inputStream, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads an input stream to the end as above
+     * @param inputStream
+     * @param maxBytes
+     * @return
+     * @throws IOException if the stream holds more than maxBytes
+     */
+    static byte[] readBytesFromStream(InputStream inputStream, long maxBytes) throws IOException{
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = BUFFER_POOL.acquire();
 
-            while (line != null) {
-                json.append(line);
-                line = reader.readLine();
+        try {
+            int count = inputStream.read(buffer);
+            while (count != -1) {
+                bytes.write(buffer, 0, count);
+                if (bytes.size() > maxBytes) {
+                    throw new IOException("Body is larger than " + maxBytes + " bytes");
+                }
+                count = inputStream.read(buffer);
             }
+        } finally {
+            BUFFER_POOL.release(buffer);
         }
 
-        return json.toString();
+        return bytes.toByteArray();
     }
 
 }
@@ -0,0 +1,189 @@
+package com.example.android.newsfeed;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decoded body of a HTTP response. Undoes any gzip or deflate content encoding and keeps
+ * count of both the bytes received over the wire and the bytes handed to the reader
+ */
+
+class ResponseBody extends FilterInputStream {
+
+    //Value sent in the Accept-Encoding header of requests that can decode the body
+    static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final CountingInputStream mWireStream;
+
+    private long mBytesDecoded;
+
+    private ResponseBody(InputStream decodedStream, CountingInputStream wireStream){
+        super(decodedStream);
+        mWireStream = wireStream;
+    }
+
+    /**
+     * Asks the server for a compressed body. Once this is set the platform will no longer
+     * decompress for us, so the body must be read through open()
+     * @param connection
+     */
+    static void acceptCompressed(HttpURLConnection connection){
+        connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+    }
+
+    /**
+     * Opens the body of a connection, decoding it according to its Content-Encoding header
+     * @param connection
+     * @return
+     * @throws IOException
+     */
+    static ResponseBody open(HttpURLConnection connection) throws IOException{
+        return wrap(connection.getInputStream(), connection.getContentEncoding());
+    }
+
+    /**
+     * Wraps a raw body stream, decoding it according to the given content encoding
+     * @param rawStream
+     * @param contentEncoding
+     * @return
+     * @throws IOException
+     */
+    static ResponseBody wrap(InputStream rawStream, String contentEncoding) throws IOException{
+        CountingInputStream wireStream = new CountingInputStream(rawStream);
+        InputStream decodedStream = wireStream;
+
+        if(contentEncoding != null){
+            String encoding = contentEncoding.trim();
+            if(encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip")){
+                decodedStream = new GZIPInputStream(wireStream);
+            }else if(encoding.equalsIgnoreCase("deflate")){
+                decodedStream = openDeflate(wireStream);
+            }
+        }
+
+        return new ResponseBody(decodedStream, wireStream);
+    }
+
+    /**
+     * Deflate bodies should be zlib wrapped but some servers send raw deflate data,
+     * so peek at the header to decide which inflater to use
+     * @param wireStream
+     * @return
+     * @throws IOException
+     */
+    private static InputStream openDeflate(InputStream wireStream) throws IOException{
+        PushbackInputStream pushback = new PushbackInputStream(wireStream, 2);
+        int cmf = pushback.read();
+        int flg = cmf == -1 ? -1 : pushback.read();
+
+        if(flg != -1){
+            pushback.unread(flg);
+        }
+        if(cmf != -1){
+            pushback.unread(cmf);
+        }
+
+        boolean zlibWrapped = cmf != -1 && flg != -1
+                && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+
+        return new InflaterInputStream(pushback, new Inflater(!zlibWrapped));
+    }
+
+    @Override
+    public int read() throws IOException{
+        int b = super.read();
+        if(b != -1){
+            mBytesDecoded++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException{
+        int count = super.read(buffer, offset, length);
+        if(count > 0){
+            mBytesDecoded += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException{
+        long skipped = super.skip(n);
+        mBytesDecoded += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported(){
+        return false;
+    }
+
+    /**
+     * Number of bytes read off the connection so far, before decoding
+     * @return
+     */
+    long getBytesReceived(){
+        return mWireStream.getCount();
+    }
+
+    /**
+     * Number of decoded bytes read from this body so far
+     * @return
+     */
+    long getBytesDecoded(){
+        return mBytesDecoded;
+    }
+
+    /**
+     * Counts the bytes passing through a stream
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException{
+            int b = super.read();
+            if(b != -1){
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException{
+            int count = super.read(buffer, offset, length);
+            if(count > 0){
+                mCount += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException{
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported(){
+            return false;
+        }
+
+        long getCount(){
+            return mCount;
+        }
+    }
+}
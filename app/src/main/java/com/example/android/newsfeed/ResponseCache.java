@@ -0,0 +1,249 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches feed query responses along with their ETag and Last-Modified validators so a repeat
+ * query can be sent as a conditional request. When the server answers 304 Not Modified the
+ * stored body, or the items already parsed from it, are used instead of downloading it again.
+ *
+ * Bodies are kept on disk bounded by size, and entries older than a day are discarded.
+ * Must be used off the main thread
+ */
+
+class ResponseCache {
+
+    private static final String LOG_TAG = ResponseCache.class.getName();
+
+    //Size of the on disk response cache in bytes
+    private static final long MAX_BYTES = 2 * 1024 * 1024;
+
+    //Largest single body worth keeping
+    static final int MAX_ENTRY_BYTES = 512 * 1024;
+
+    //Entries older than this are never revalidated
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    //Number of parsed responses kept in memory
+    private static final int MAX_PARSED_ENTRIES = 8;
+
+    private static ResponseCache sInstance;
+
+    private final File mDirectory;
+    private DiskCache mDiskCache;
+
+    private final LruCache<String, List<NewsItem>> mParsed =
+            new LruCache<>(MAX_PARSED_ENTRIES);
+
+    /**
+     * Returns the response cache shared by the whole app
+     * @param context
+     * @return
+     */
+    static synchronized ResponseCache getInstance(Context context){
+        if(sInstance == null){
+            sInstance = new ResponseCache(new File(context.getCacheDir(), "responses"));
+        }
+        return sInstance;
+    }
+
+    private ResponseCache(File directory){
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns the stored response for a url, or null if there is none or it has expired
+     * @param url
+     * @return
+     */
+    Entry get(String url){
+        DiskCache diskCache = getDiskCache();
+        if(diskCache == null){
+            return null;
+        }
+
+        byte[] data = diskCache.getBytes(url);
+        if(data == null){
+            return null;
+        }
+
+        try{
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            long storedAt = in.readLong();
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+
+            if(System.currentTimeMillis() - storedAt > MAX_AGE_MS){
+                remove(url);
+                return null;
+            }
+            return new Entry(etag.isEmpty() ? null : etag,
+                    lastModified.isEmpty() ? null : lastModified, storedAt, body);
+        }catch(IOException e){
+            //Can't make sense of the entry so drop it
+            remove(url);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a response body with its validators. Responses without validators can't be
+     * revalidated so aren't worth keeping
+     * @param url
+     * @param etag
+     * @param lastModified
+     * @param body
+     */
+    void put(String url, String etag, String lastModified, byte[] body){
+        DiskCache diskCache = getDiskCache();
+        if(diskCache == null || (etag == null && lastModified == null)
+                || body.length > MAX_ENTRY_BYTES){
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try{
+            out.writeUTF(etag != null ? etag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(body.length);
+            out.write(body);
+            out.flush();
+            diskCache.put(url, bytes.toByteArray());
+        }catch(IOException e){
+            Log.e(LOG_TAG, "Error storing response", e);
+        }
+    }
+
+    /**
+     * Returns a copy of the items parsed from the stored response for a url if they are
+     * still in memory
+     * @param url
+     * @return
+     */
+    List<NewsItem> getParsed(String url){
+        List<NewsItem> newsItems = mParsed.get(url);
+        return newsItems != null ? new ArrayList<>(newsItems) : null;
+    }
+
+    void putParsed(String url, List<NewsItem> newsItems){
+        mParsed.put(url, new ArrayList<>(newsItems));
+    }
+
+    void remove(String url){
+        mParsed.remove(url);
+        DiskCache diskCache = getDiskCache();
+        if(diskCache != null){
+            diskCache.remove(url);
+        }
+    }
+
+    private synchronized DiskCache getDiskCache(){
+        if(mDiskCache == null){
+            try{
+                mDiskCache = DiskCache.open(mDirectory, MAX_BYTES);
+            }catch(IOException e){
+                Log.e(LOG_TAG, "Error opening response cache", e);
+            }
+        }
+        return mDiskCache;
+    }
+
+    /**
+     * A stored response
+     */
+    static class Entry {
+        final String etag;
+        final String lastModified;
+        final long storedAt;
+        final byte[] body;
+
+        Entry(String etag, String lastModified, long storedAt, byte[] body){
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Keeps a copy of the bytes read through it, up to a limit, so a body can be parsed as it
+     * streams in and still be stored afterwards
+     */
+    static class RecordingInputStream extends FilterInputStream {
+
+        private final int mLimit;
+        private ByteArrayOutputStream mRecorded = new ByteArrayOutputStream();
+
+        RecordingInputStream(InputStream in, int limit){
+            super(in);
+            mLimit = limit;
+        }
+
+        @Override
+        public int read() throws IOException{
+            int b = super.read();
+            if(b != -1){
+                record(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException{
+            int count = super.read(buffer, offset, length);
+            if(count > 0){
+                record(buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException{
+            //Skipped bytes would leave a hole in the recording
+            mRecorded = null;
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported(){
+            return false;
+        }
+
+        private void record(byte[] buffer, int offset, int count){
+            if(mRecorded == null){
+                return;
+            }
+            if(mRecorded.size() + count > mLimit){
+                //Too big to keep, stop recording
+                mRecorded = null;
+                return;
+            }
+            mRecorded.write(buffer, offset, count);
+        }
+
+        /**
+         * Returns everything read so far, or null if the body was too big to record
+         * @return
+         */
+        byte[] getRecorded(){
+            return mRecorded != null ? mRecorded.toByteArray() : null;
+        }
+    }
+}
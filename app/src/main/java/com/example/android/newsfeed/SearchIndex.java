@@ -0,0 +1,655 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index over the headlines of every item the app has fetched, so the feed can be
+ * searched on the device, offline and as the user types.
+ *
+ * Headlines are split into lower case words with accents removed, and each word maps to the
+ * items using it and how often. Every word of a query matches as a prefix, so a query can be
+ * answered before the last word is finished. An item must match every word, and is scored by
+ * how often it uses them, weighted to favour rare words and exact words over completions, then
+ * by how recently it was published.
+ *
+ * Items are added as they are fetched and the oldest dropped beyond a maximum. Removed items
+ * are only marked as gone and swept out once they make up much of the index. The index is
+ * saved to a file so it is ready at the next launch without re-reading every headline.
+ *
+ * search() only touches memory and is quick enough to call on the main thread. It finds nothing
+ * until load() has finished. load(), addAll() and save() touch the disk so must be called off
+ * it. They change a working copy of the index one at a time, and after each change publish a
+ * read only copy that search() uses. search() takes no lock so is never held up by a save or
+ * by trimming the index, at the cost of copying the index once per change
+ */
+
+class SearchIndex {
+
+    static final String FILE_NAME = "search.index";
+    private static final String FILE_HEADER = "newsfeed.SearchIndex";
+    private static final int FILE_VERSION = 1;
+
+    //Most items indexed, the oldest by publication date are dropped beyond this
+    static final int MAX_DOCUMENTS = 5000;
+
+    //Most words one query word expands to as a prefix, keeps short prefixes within a frame
+    static final int MAX_PREFIX_TERMS = 64;
+
+    //Weight of a word matched by completing a prefix compared to the word typed in full
+    private static final float PREFIX_MATCH_WEIGHT = 0.5f;
+
+    //How quickly the recency boost fades, and the most it can add to a score
+    private static final long RECENCY_HALF_LIFE_MS = 2 * 24 * 60 * 60 * 1000L;
+    private static final float RECENCY_WEIGHT = 1f;
+
+    //Sweep out removed items once they are this fraction of the index
+    private static final float COMPACT_FRACTION = 0.25f;
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static SearchIndex sInstance;
+
+    //Loads the index for loadInBackground()
+    private static ExecutorService sExecutor;
+
+    private final File mFile;
+
+    //Held while the working copy is changed or the file read or written. search() never takes
+    //it. Guards everything below except mSnapshot
+    private final Object mWriteLock = new Object();
+
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    //What search() reads, replaced after each change. Null until loaded
+    private volatile Snapshot mSnapshot;
+
+    //Indexed items by document id, null once removed
+    private final List<NewsItem> mDocuments = new ArrayList<>();
+    private final Map<UrlKey, Integer> mDocumentIds = new HashMap<>();
+    private int mRemovedCount;
+
+    //Word to the documents that use it, sorted so a prefix is a range of words
+    private final TreeMap<String, Postings> mTerms = new TreeMap<>();
+
+    /**
+     * Returns the index shared by the whole app. It isn't read from disk until load() is called
+     * @param context
+     * @return
+     */
+    static synchronized SearchIndex getInstance(Context context){
+        if(sInstance == null){
+            sInstance = new SearchIndex(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param file where the index is saved, read by load()
+     */
+    SearchIndex(File file){
+        mFile = file;
+    }
+
+    /**
+     * Reads the saved index if it hasn't been read yet. A missing or unreadable file leaves
+     * the index empty, it fills again as the feed is fetched
+     */
+    void load(){
+        synchronized(mWriteLock){
+            if(mLoaded){
+                return;
+            }
+
+            if(mFile.exists()){
+                try{
+                    DataInputStream in = new DataInputStream(
+                            new BufferedInputStream(new FileInputStream(mFile)));
+                    try{
+                        readFrom(in);
+                    }finally{
+                        in.close();
+                    }
+                }catch(IOException e){
+                    clear();
+                    mFile.delete();
+                }
+            }
+            mLoaded = true;
+            publish();
+        }
+    }
+
+    /**
+     * Reads the saved index on a thread of its own if it hasn't been read yet
+     * @param onLoaded run on the loading thread once the index can be searched, may be null
+     */
+    void loadInBackground(final Runnable onLoaded){
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+                if(onLoaded != null){
+                    onLoaded.run();
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getExecutor(){
+        if(sExecutor == null){
+            sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "SearchIndex");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    boolean isLoaded(){
+        return mSnapshot != null;
+    }
+
+    /**
+     * Indexes fetched items. An item already indexed is indexed again only if its headline or
+     * publication time changed
+     * @param newsItems
+     * @return the number of items added or updated
+     */
+    int addAll(List<NewsItem> newsItems){
+        synchronized(mWriteLock){
+            load();
+            int changed = addLoaded(newsItems);
+            if(changed > 0){
+                publish();
+            }
+            return changed;
+        }
+    }
+
+    private int addLoaded(List<NewsItem> newsItems){
+        int changed = 0;
+        for(NewsItem newsItem : newsItems){
+            Integer documentId = mDocumentIds.get(newsItem.getUrl());
+            if(documentId != null){
+                NewsItem indexed = mDocuments.get(documentId);
+                if(indexed.getHeadline().equals(newsItem.getHeadline())
+                        && indexed.getWebPublicationTime() == newsItem.getWebPublicationTime()){
+                    continue;
+                }
+                remove(documentId);
+            }
+            add(newsItem);
+            changed++;
+        }
+
+        if(changed > 0){
+            mDirty = true;
+            trimToSize();
+            if(mRemovedCount > mDocuments.size() * COMPACT_FRACTION){
+                compact();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Makes the working copy what search() sees by swapping in a read only copy of it
+     */
+    private void publish(){
+        TreeMap<String, Postings> terms = new TreeMap<>();
+        for(Map.Entry<String, Postings> entry : mTerms.entrySet()){
+            terms.put(entry.getKey(), entry.getValue().copy());
+        }
+        mSnapshot = new Snapshot(new ArrayList<>(mDocuments), mDocumentIds.size(), terms);
+    }
+
+    /**
+     * Returns the number of items indexed
+     * @return
+     */
+    int size(){
+        Snapshot snapshot = mSnapshot;
+        return snapshot != null ? snapshot.liveCount : 0;
+    }
+
+    /**
+     * Returns up to limit items matching every word of the query, best first. Returns none
+     * until load() has finished
+     * @param query
+     * @param limit
+     * @param now current time in milliseconds, recent items rank higher
+     * @return
+     */
+    List<NewsItem> search(String query, int limit, long now){
+        Snapshot snapshot = mSnapshot;
+        List<String> queryTerms = tokenize(query);
+        if(snapshot == null || queryTerms.isEmpty() || snapshot.liveCount == 0 || limit <= 0){
+            return Collections.emptyList();
+        }
+
+        List<NewsItem> documents = snapshot.documents;
+        int documentCount = documents.size();
+        float[] scores = new float[documentCount];
+        int[] matchedTerms = new int[documentCount];
+        float liveCount = snapshot.liveCount;
+
+        for(int i = 0; i < queryTerms.size(); i++){
+            String queryTerm = queryTerms.get(i);
+
+            //The word itself then its completions, in order
+            int expanded = 0;
+            for(Map.Entry<String, Postings> entry
+                    : prefixRange(snapshot.terms, queryTerm).entrySet()){
+                if(expanded++ >= MAX_PREFIX_TERMS){
+                    break;
+                }
+                Postings postings = entry.getValue();
+                float weight = (float) Math.log(1 + liveCount / postings.size)
+                        * (entry.getKey().length() == queryTerm.length() ? 1 : PREFIX_MATCH_WEIGHT);
+
+                for(int p = 0; p < postings.size; p++){
+                    int documentId = postings.documents[p];
+
+                    //Only items that matched every earlier word are still in the running
+                    if(matchedTerms[documentId] < i || documents.get(documentId) == null){
+                        continue;
+                    }
+                    matchedTerms[documentId] = i + 1;
+                    scores[documentId] += weight * postings.frequencies[p];
+                }
+            }
+        }
+
+        //Keep the best limit items, the worst of them at the head
+        PriorityQueue<ScoredDocument> best = new PriorityQueue<>(limit + 1,
+                new Comparator<ScoredDocument>() {
+                    @Override
+                    public int compare(ScoredDocument a, ScoredDocument b){
+                        return Float.compare(a.score, b.score);
+                    }
+                });
+        int queryTermCount = queryTerms.size();
+        for(int documentId = 0; documentId < documentCount; documentId++){
+            if(matchedTerms[documentId] != queryTermCount){
+                continue;
+            }
+            NewsItem newsItem = documents.get(documentId);
+            long age = Math.max(0, now - newsItem.getWebPublicationTime());
+            float recency = (float) Math.pow(0.5, (double) age / RECENCY_HALF_LIFE_MS);
+            float score = scores[documentId] * (1 + RECENCY_WEIGHT * recency);
+
+            if(best.size() < limit){
+                best.add(new ScoredDocument(newsItem, score));
+            }else if(score > best.peek().score){
+                best.poll();
+                best.add(new ScoredDocument(newsItem, score));
+            }
+        }
+
+        List<NewsItem> results = new ArrayList<>(best.size());
+        while(!best.isEmpty()){
+            results.add(best.poll().newsItem);
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    /**
+     * Writes the index to its file if it has changed since it was read or last saved. Written
+     * to a temporary file and renamed into place so a crash leaves the old index intact.
+     * Searches carry on from the published copy while it is written
+     * @throws IOException
+     */
+    void save() throws IOException{
+        synchronized(mWriteLock){
+            if(!mDirty){
+                return;
+            }
+            compact();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeTo(out);
+            out.flush();
+            writeFile(bytes.toByteArray());
+            mDirty = false;
+        }
+    }
+
+    private void writeFile(byte[] data) throws IOException{
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try{
+            out.write(data);
+            out.getFD().sync();
+        }catch(IOException e){
+            out.close();
+            tmpFile.delete();
+            throw e;
+        }
+        out.close();
+
+        if(!tmpFile.renameTo(mFile)){
+            tmpFile.delete();
+            throw new IOException("Unable to move search index into place " + mFile);
+        }
+    }
+
+    /**
+     * Splits text into lower case words without accents
+     * @param text
+     * @return
+     */
+    static List<String> tokenize(String text){
+        List<String> terms = new ArrayList<>();
+        if(text == null){
+            return terms;
+        }
+        String folded = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                .replaceAll("").toLowerCase(Locale.ROOT);
+        for(String term : NON_WORD.split(folded)){
+            if(!term.isEmpty()){
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    private static SortedMap<String, Postings> prefixRange(TreeMap<String, Postings> terms,
+                                                           String prefix){
+        return terms.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    private void add(NewsItem newsItem){
+        int documentId = mDocuments.size();
+        mDocuments.add(newsItem);
+        mDocumentIds.put(newsItem.getUrl(), documentId);
+
+        Map<String, Integer> frequencies = new HashMap<>();
+        for(String term : tokenize(newsItem.getHeadline())){
+            Integer frequency = frequencies.get(term);
+            frequencies.put(term, frequency == null ? 1 : frequency + 1);
+        }
+        for(Map.Entry<String, Integer> entry : frequencies.entrySet()){
+            Postings postings = mTerms.get(entry.getKey());
+            if(postings == null){
+                postings = new Postings();
+                mTerms.put(entry.getKey(), postings);
+            }
+            postings.add(documentId, entry.getValue());
+        }
+    }
+
+    /**
+     * Marks a document as gone, its postings stay until the next compact()
+     */
+    private void remove(int documentId){
+        NewsItem newsItem = mDocuments.set(documentId, null);
+        if(newsItem != null){
+            mDocumentIds.remove(newsItem.getUrl());
+            mRemovedCount++;
+        }
+    }
+
+    /**
+     * Drops the oldest items beyond the maximum
+     */
+    private void trimToSize(){
+        int excess = mDocumentIds.size() - MAX_DOCUMENTS;
+        if(excess <= 0){
+            return;
+        }
+
+        List<Integer> byAge = new ArrayList<>(mDocumentIds.values());
+        Collections.sort(byAge, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b){
+                long timeA = mDocuments.get(a).getWebPublicationTime();
+                long timeB = mDocuments.get(b).getWebPublicationTime();
+                if(timeA != timeB){
+                    return timeA < timeB ? -1 : 1;
+                }
+
+                //Of items published together the one indexed first goes first
+                return a.compareTo(b);
+            }
+        });
+        for(int i = 0; i < excess; i++){
+            remove(byAge.get(i));
+        }
+    }
+
+    /**
+     * Renumbers the remaining documents without gaps and drops postings of removed ones
+     */
+    private void compact(){
+        if(mRemovedCount == 0){
+            return;
+        }
+
+        int[] newIds = new int[mDocuments.size()];
+        List<NewsItem> documents = new ArrayList<>(mDocumentIds.size());
+        for(int documentId = 0; documentId < mDocuments.size(); documentId++){
+            NewsItem newsItem = mDocuments.get(documentId);
+            newIds[documentId] = newsItem == null ? -1 : documents.size();
+            if(newsItem != null){
+                mDocumentIds.put(newsItem.getUrl(), documents.size());
+                documents.add(newsItem);
+            }
+        }
+        mDocuments.clear();
+        mDocuments.addAll(documents);
+
+        Iterator<Postings> iterator = mTerms.values().iterator();
+        while(iterator.hasNext()){
+            Postings postings = iterator.next();
+            postings.remap(newIds);
+            if(postings.size == 0){
+                iterator.remove();
+            }
+        }
+        mRemovedCount = 0;
+    }
+
+    private void clear(){
+        mDocuments.clear();
+        mDocumentIds.clear();
+        mTerms.clear();
+        mRemovedCount = 0;
+    }
+
+    /**
+     * Writes the documents then the postings of each word, document ids as gaps from the last
+     */
+    private void writeTo(DataOutputStream out) throws IOException{
+        out.writeUTF(FILE_HEADER);
+        out.writeInt(FILE_VERSION);
+
+        out.writeInt(mDocuments.size());
+        for(NewsItem newsItem : mDocuments){
+            out.writeUTF(newsItem.getUrl().toString());
+            out.writeUTF(newsItem.getHeadline());
+            out.writeUTF(newsItem.getSection());
+            out.writeBoolean(newsItem.getSectionId() != null);
+            if(newsItem.getSectionId() != null){
+                out.writeUTF(newsItem.getSectionId());
+            }
+            out.writeLong(newsItem.getWebPublicationTime());
+            out.writeUTF(newsItem.getThumbnailUrl().toString());
+        }
+
+        out.writeInt(mTerms.size());
+        for(Map.Entry<String, Postings> entry : mTerms.entrySet()){
+            Postings postings = entry.getValue();
+            out.writeUTF(entry.getKey());
+            writeVarInt(out, postings.size);
+            int last = 0;
+            for(int p = 0; p < postings.size; p++){
+                writeVarInt(out, postings.documents[p] - last);
+                writeVarInt(out, postings.frequencies[p]);
+                last = postings.documents[p];
+            }
+        }
+    }
+
+    private void readFrom(DataInputStream in) throws IOException{
+        if(!FILE_HEADER.equals(in.readUTF()) || in.readInt() != FILE_VERSION){
+            throw new IOException("Not a search index this version can read");
+        }
+
+        int documentCount = in.readInt();
+        try{
+            for(int i = 0; i < documentCount; i++){
+                UrlKey url = UrlKey.parse(in.readUTF());
+                String headline = in.readUTF();
+                String section = in.readUTF();
+                String sectionId = in.readBoolean() ? in.readUTF() : null;
+                long published = in.readLong();
+                UrlKey thumbnailUrl = UrlKey.parse(in.readUTF());
+                NewsItem newsItem = new NewsItem(headline, section, sectionId, published, url,
+                        thumbnailUrl);
+                mDocumentIds.put(url, mDocuments.size());
+                mDocuments.add(newsItem);
+            }
+        }catch(URISyntaxException e){
+            throw new IOException("Bad url in search index", e);
+        }
+
+        int termCount = in.readInt();
+        for(int i = 0; i < termCount; i++){
+            String term = in.readUTF();
+            int size = readVarInt(in);
+            Postings postings = new Postings();
+            int documentId = 0;
+            for(int p = 0; p < size; p++){
+                documentId += readVarInt(in);
+                if(documentId >= documentCount){
+                    throw new IOException("Posting for a missing document");
+                }
+                postings.add(documentId, readVarInt(in));
+            }
+            mTerms.put(term, postings);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException{
+        while((value & ~0x7f) != 0){
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException{
+        int value = 0;
+        for(int shift = 0; shift < 32; shift += 7){
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new EOFException("Malformed number in search index");
+    }
+
+    /**
+     * The documents using one word in increasing id order, and how often each uses it
+     */
+    private static class Postings {
+        int[] documents = new int[2];
+        int[] frequencies = new int[2];
+        int size;
+
+        Postings copy(){
+            Postings copy = new Postings();
+            copy.documents = Arrays.copyOf(documents, size);
+            copy.frequencies = Arrays.copyOf(frequencies, size);
+            copy.size = size;
+            return copy;
+        }
+
+        void add(int documentId, int frequency){
+            if(size == documents.length){
+                documents = Arrays.copyOf(documents, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            documents[size] = documentId;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        /**
+         * Moves postings to new document ids, dropping those mapped to -1. Ids keep their order
+         */
+        void remap(int[] newIds){
+            int kept = 0;
+            for(int p = 0; p < size; p++){
+                int newId = newIds[documents[p]];
+                if(newId >= 0){
+                    documents[kept] = newId;
+                    frequencies[kept] = frequencies[p];
+                    kept++;
+                }
+            }
+            size = kept;
+        }
+    }
+
+    /**
+     * A read only copy of the index as of one change. Removed documents are still null in it
+     */
+    private static class Snapshot {
+        final List<NewsItem> documents;
+        final int liveCount;
+        final TreeMap<String, Postings> terms;
+
+        Snapshot(List<NewsItem> documents, int liveCount, TreeMap<String, Postings> terms){
+            this.documents = documents;
+            this.liveCount = liveCount;
+            this.terms = terms;
+        }
+    }
+
+    private static class ScoredDocument {
+        final NewsItem newsItem;
+        final float score;
+
+        ScoredDocument(NewsItem newsItem, float score){
+            this.newsItem = newsItem;
+            this.score = score;
+        }
+    }
+}
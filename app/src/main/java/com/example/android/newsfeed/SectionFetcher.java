@@ -0,0 +1,399 @@
+package com.example.android.newsfeed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches one query per section at the same time and merges the results newest first.
+ *
+ * Each section gets its own page of results so a busy section can't crowd out a quiet one, and
+ * a section that is slow or fails only loses its own items. A section still loading when its
+ * timeout runs out is abandoned and the others are delivered without it. The timeout is given
+ * by the caller, the feed uses what FetchPolicy allows one attempt so sections aren't cut off
+ * while their request could still succeed.
+ *
+ * Sections publish at different rates, so a full page from a busy section covers less time
+ * than one from a quiet section. The merged page is cut off at the oldest time every full
+ * section reaches, so the feed has no gaps when the next page is asked for from its oldest
+ * item.
+ *
+ * The sections are merged once they are all in rather than as each arrives. The loader hands
+ * the feed over in one go so an earlier partial merge couldn't be shown, and merging a few
+ * pages takes well under a millisecond next to waiting on the network.
+ *
+ * fetch() blocks so must be called off the main thread
+ */
+
+class SectionFetcher {
+
+    //Sections fetched at once, matches the connections HttpClient allows to one host
+    private static final int THREAD_COUNT = 4;
+
+    private static ExecutorService sExecutor;
+
+    private final ExecutorService mExecutor;
+    private final Source mSource;
+    private final long mSectionTimeoutMs;
+
+    /**
+     * Fetches the items for one section query. Called on a pool thread
+     */
+    interface Source {
+        List<NewsItem> fetch(String url) throws Exception;
+    }
+
+    /**
+     * Returns the pool shared by every fan out fetch in the app
+     * @return
+     */
+    static synchronized ExecutorService getExecutor(){
+        if(sExecutor == null){
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new FetchThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    /**
+     * @param executor
+     * @param source
+     * @param sectionTimeoutMs how long a section may take once it has started before it is
+     *                         left out
+     */
+    SectionFetcher(ExecutorService executor, Source source, long sectionTimeoutMs){
+        mExecutor = executor;
+        mSource = source;
+        mSectionTimeoutMs = sectionTimeoutMs;
+    }
+
+    /**
+     * Fetches every section query concurrently and merges whatever arrives in time
+     * @param sectionUrls one query per section, each returning its items newest first
+     * @return
+     */
+    Result fetch(List<String> sectionUrls){
+        return fetch(sectionUrls, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Fetches every section query concurrently and merges whatever arrives in time, leaving
+     * out items older than a full section reaches. See mergePages()
+     * @param sectionUrls one query per section, each returning its items newest first
+     * @param sectionPageSize number of items each query asks for
+     * @return
+     */
+    Result fetch(List<String> sectionUrls, int sectionPageSize){
+        CompletionService<List<NewsItem>> completionService =
+                new ExecutorCompletionService<>(mExecutor);
+
+        List<SectionTask> pending = new ArrayList<>();
+        for(int i = 0; i < sectionUrls.size(); i++){
+            SectionTask task = new SectionTask(mSource, sectionUrls.get(i), i);
+            task.future = completionService.submit(task);
+            pending.add(task);
+        }
+
+        //Results kept in query order so ties merge the same way whatever order they arrive in
+        List<NewsItem>[] sections = newResultArray(sectionUrls.size());
+        int failedCount = 0;
+        int timedOutCount = 0;
+        Throwable failure = null;
+
+        try{
+            while(!pending.isEmpty()){
+                Future<List<NewsItem>> done = completionService.poll(
+                        timeUntilNextDeadline(pending), TimeUnit.MILLISECONDS);
+
+                if(done != null){
+                    SectionTask task = removeTask(pending, done);
+                    if(task == null){
+                        //A section already left out after timing out
+                        continue;
+                    }
+                    try{
+                        sections[task.index] = done.get();
+                    }catch(ExecutionException e){
+                        failedCount++;
+                        if(failure == null){
+                            failure = e.getCause();
+                        }
+                    }
+                    continue;
+                }
+
+                //Leave out sections that have run past their timeout
+                long now = System.nanoTime();
+                for(int i = pending.size() - 1; i >= 0; i--){
+                    SectionTask task = pending.get(i);
+                    if(task.hasTimedOut(now, mSectionTimeoutMs)){
+                        task.stop();
+                        pending.remove(i);
+                        timedOutCount++;
+                    }
+                }
+            }
+        }catch(InterruptedException e){
+            //Give up on the rest but keep what has arrived
+            for(SectionTask task : pending){
+                task.stop();
+            }
+            timedOutCount += pending.size();
+            Thread.currentThread().interrupt();
+        }
+
+        List<List<NewsItem>> arrived = new ArrayList<>();
+        for(List<NewsItem> newsItems : sections){
+            if(newsItems != null){
+                arrived.add(newsItems);
+            }
+        }
+        return new Result(mergePages(arrived, sectionPageSize), sectionUrls.size(), failedCount,
+                timedOutCount, failure);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<NewsItem>[] newResultArray(int size){
+        return (List<NewsItem>[]) new List[size];
+    }
+
+    /**
+     * Returns how long to wait before the first running section reaches its timeout. Sections
+     * still queued for a thread haven't started their clock yet
+     */
+    private long timeUntilNextDeadline(List<SectionTask> pending){
+        long now = System.nanoTime();
+        long wait = mSectionTimeoutMs;
+        for(SectionTask task : pending){
+            long startedAt = task.startedAt;
+            if(startedAt != 0){
+                long remaining = mSectionTimeoutMs
+                        - TimeUnit.NANOSECONDS.toMillis(now - startedAt);
+                wait = Math.min(wait, Math.max(1, remaining));
+            }
+        }
+        return wait;
+    }
+
+    private static SectionTask removeTask(List<SectionTask> pending,
+                                          Future<List<NewsItem>> future){
+        for(int i = 0; i < pending.size(); i++){
+            if(pending.get(i).future == future){
+                return pending.remove(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Merges lists that are each sorted newest first into one newest first list, taking the
+     * next item from whichever list has the newest at its head. Articles appearing in more
+     * than one list are only kept once
+     * @param sortedLists
+     * @return
+     */
+    static List<NewsItem> merge(List<List<NewsItem>> sortedLists){
+        int total = 0;
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, sortedLists.size()),
+                NEWEST_HEAD_FIRST);
+        for(int i = 0; i < sortedLists.size(); i++){
+            List<NewsItem> list = sortedLists.get(i);
+            total += list.size();
+            if(!list.isEmpty()){
+                heads.add(new Cursor(list, i));
+            }
+        }
+
+        List<NewsItem> merged = new ArrayList<>(total);
+        Set<UrlKey> seenUrls = new HashSet<>();
+        while(!heads.isEmpty()){
+            Cursor cursor = heads.poll();
+            NewsItem newsItem = cursor.list.get(cursor.position);
+            if(seenUrls.add(newsItem.getUrl())){
+                merged.add(newsItem);
+            }
+            if(++cursor.position < cursor.list.size()){
+                heads.add(cursor);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Merges a page from each section newest first, leaving out the items older than the
+     * oldest item of any full page. A section that filled its page may have more items just
+     * older than its last, so items past that point would leave a gap in the feed once the
+     * next page is asked for from the oldest item shown. Those items come back on that page
+     * @param pages each sorted newest first
+     * @param pageSize number of items each section was asked for
+     * @return
+     */
+    static List<NewsItem> mergePages(List<List<NewsItem>> pages, int pageSize){
+        long cutOff = Long.MIN_VALUE;
+        for(List<NewsItem> page : pages){
+            if(!page.isEmpty() && page.size() >= pageSize){
+                cutOff = Math.max(cutOff,
+                        page.get(page.size() - 1).getWebPublicationTime());
+            }
+        }
+
+        List<NewsItem> merged = merge(pages);
+        int end = merged.size();
+        while(end > 0 && merged.get(end - 1).getWebPublicationTime() < cutOff){
+            end--;
+        }
+        merged.subList(end, merged.size()).clear();
+        return merged;
+    }
+
+    private static final Comparator<Cursor> NEWEST_HEAD_FIRST = new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor a, Cursor b) {
+            long aTime = a.head().getWebPublicationTime();
+            long bTime = b.head().getWebPublicationTime();
+            if(aTime != bTime){
+                return aTime > bTime ? -1 : 1;
+            }
+            //Keep ties in section order so the result doesn't depend on arrival order
+            return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+        }
+    };
+
+    /**
+     * Read position in one of the lists being merged
+     */
+    private static class Cursor {
+        final List<NewsItem> list;
+        final int order;
+        int position;
+
+        Cursor(List<NewsItem> list, int order){
+            this.list = list;
+            this.order = order;
+        }
+
+        NewsItem head(){
+            return list.get(position);
+        }
+    }
+
+    /**
+     * Fetches one section and records when it started so its timeout only counts time spent
+     * running, not time waiting for a thread. Also records the thread running it so a section
+     * left out can have its request stopped rather than left holding a connection
+     */
+    private static class SectionTask implements Callable<List<NewsItem>> {
+        private final Source mSource;
+        private final String mUrl;
+        final int index;
+        volatile long startedAt;
+        Future<List<NewsItem>> future;
+
+        //Thread fetching the section, null before and after. Guarded by this
+        private Thread mThread;
+
+        SectionTask(Source source, String url, int index){
+            mSource = source;
+            mUrl = url;
+            this.index = index;
+        }
+
+        @Override
+        public List<NewsItem> call() throws Exception{
+            synchronized(this){
+                mThread = Thread.currentThread();
+            }
+            startedAt = System.nanoTime();
+            try{
+                return mSource.fetch(mUrl);
+            }finally{
+                synchronized(this){
+                    mThread = null;
+                }
+            }
+        }
+
+        /**
+         * Cancels the section. If it is being fetched its thread is interrupted and its
+         * connections dropped, as a read blocked on the network doesn't notice an interrupt.
+         * Done holding the lock so the thread can't have moved on to another section
+         */
+        synchronized void stop(){
+            future.cancel(true);
+            if(mThread != null){
+                HttpClient.getInstance().disconnect(mThread);
+            }
+        }
+
+        boolean hasTimedOut(long now, long timeoutMs){
+            long started = startedAt;
+            return started != 0 && TimeUnit.NANOSECONDS.toMillis(now - started) >= timeoutMs;
+        }
+    }
+
+    private static class FetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable){
+            Thread thread = new Thread(runnable, "SectionFetcher #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Merged items along with how many sections were left out
+     */
+    static class Result {
+
+        final List<NewsItem> newsItems;
+        final int sectionCount;
+        final int failedCount;
+        final int timedOutCount;
+
+        //Why the first failed section failed, null if none did
+        final Throwable failure;
+
+        Result(List<NewsItem> newsItems, int sectionCount, int failedCount, int timedOutCount,
+               Throwable failure){
+            this.newsItems = Collections.unmodifiableList(newsItems);
+            this.sectionCount = sectionCount;
+            this.failedCount = failedCount;
+            this.timedOutCount = timedOutCount;
+            this.failure = failure;
+        }
+
+        /**
+         * True if some sections are missing from the items
+         * @return
+         */
+        boolean isPartial(){
+            return failedCount + timedOutCount > 0;
+        }
+
+        @Override
+        public String toString(){
+            return "sections=" + sectionCount + " failed=" + failedCount
+                    + " timedOut=" + timedOutCount + " items=" + newsItems.size();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.android.newsfeed;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads the feed saved by the last successful fetch from the local store
+ */
+
+class StoredFeedLoader extends AsyncTaskLoader<List<NewsItem>> {
+
+    private Set<String> mSectionIds;
+    private int mLimit;
+
+    StoredFeedLoader(Context context, Set<String> sectionIds, int limit){
+        super(context);
+        mSectionIds = sectionIds;
+        mLimit = limit;
+    }
+
+    /**
+     * Force the loader to load when its starts
+     */
+    @Override
+    public void onStartLoading(){
+        forceLoad();
+    }
+
+    /**
+     * Reads stored items in background. The search index isn't read here so it doesn't hold up
+     * the feed, search loads it when opened
+     * @return
+     */
+    @Override
+    public List<NewsItem> loadInBackground(){
+        return FeedStore.getInstance(getContext()).loadFeed(mSectionIds, mLimit);
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.android.newsfeed;
+
+import android.os.SystemClock;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Watches a feed scroll and warms the thumbnail cache for the rows about to come on screen.
+ *
+ * Looks ahead a configurable number of rows in the direction of travel, further when the list
+ * is moving fast. Prefetches run below the priority of visible rows and are dropped once their
+ * row falls out of the look ahead window. Keeps count of how many prefetched rows were actually
+ * scrolled onto the screen
+ */
+
+class ThumbnailPrefetcher extends RecyclerView.OnScrollListener {
+
+    //How many seconds of scrolling at the current speed to look ahead
+    private static final float LOOKAHEAD_SECONDS = 1f;
+
+    //Weight given to the newest speed sample when smoothing
+    private static final float SPEED_SMOOTHING = 0.3f;
+
+    private final NewsItemAdapter mAdapter;
+
+    private int mBaseDepth;
+    private int mMaxDepth;
+
+    //Outstanding prefetches keyed by thumbnail url
+    private final Map<UrlKey, Prefetch> mPrefetches = new HashMap<>();
+
+    //Last scroll position seen
+    private int mLastFirstVisible = -1;
+    private int mLastVisibleCount;
+    private int mLastTotalCount;
+    private long mLastScrollTime;
+
+    //Rows per second, positive when scrolling down the list
+    private float mSpeed;
+
+    private long mIssuedCount;
+    private long mHitCount;
+    private long mMissCount;
+    private long mCancelledCount;
+
+    /**
+     * Set up prefetcher to look at least baseDepth rows ahead and at most maxDepth
+     * @param adapter
+     * @param baseDepth
+     * @param maxDepth
+     */
+    ThumbnailPrefetcher(NewsItemAdapter adapter, int baseDepth, int maxDepth){
+        mAdapter = adapter;
+        setDepth(baseDepth, maxDepth);
+    }
+
+    /**
+     * Changes how far ahead to look. A base depth of 0 turns prefetching off
+     * @param baseDepth
+     * @param maxDepth
+     */
+    void setDepth(int baseDepth, int maxDepth){
+        mBaseDepth = Math.max(0, baseDepth);
+        mMaxDepth = Math.max(mBaseDepth, maxDepth);
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState){
+        //Once the list comes to rest only look the base depth ahead
+        if(newState == RecyclerView.SCROLL_STATE_IDLE){
+            mSpeed = 0;
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy){
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+        if(firstVisibleItem == RecyclerView.NO_POSITION){
+            return;
+        }
+        int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+        onScroll(firstVisibleItem, lastVisibleItem - firstVisibleItem + 1, mAdapter.getItemCount());
+    }
+
+    /**
+     * Moves the look ahead window to follow the rows on screen
+     */
+    private void onScroll(int firstVisibleItem, int visibleItemCount, int totalItemCount){
+
+        //This is called every frame while scrolling, only do work when the rows change
+        if(firstVisibleItem == mLastFirstVisible && visibleItemCount == mLastVisibleCount
+                && totalItemCount == mLastTotalCount){
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if(mLastFirstVisible >= 0 && totalItemCount == mLastTotalCount && now > mLastScrollTime){
+            float sample = (firstVisibleItem - mLastFirstVisible) * 1000f / (now - mLastScrollTime);
+            mSpeed = mSpeed + SPEED_SMOOTHING * (sample - mSpeed);
+        }else if(totalItemCount != mLastTotalCount){
+            //The list contents changed so old prefetches no longer line up with rows
+            cancelAll();
+        }
+
+        mLastFirstVisible = firstVisibleItem;
+        mLastVisibleCount = visibleItemCount;
+        mLastTotalCount = totalItemCount;
+        mLastScrollTime = now;
+
+        int lastVisibleItem = firstVisibleItem + visibleItemCount - 1;
+        recordHits(firstVisibleItem, lastVisibleItem);
+
+        if(mBaseDepth == 0 || totalItemCount == 0){
+            cancelAll();
+            return;
+        }
+
+        //Look further ahead the faster the list is moving
+        int depth = Math.min(mMaxDepth,
+                mBaseDepth + Math.round(Math.abs(mSpeed) * LOOKAHEAD_SECONDS));
+
+        int windowStart;
+        int windowEnd;
+        if(mSpeed < 0){
+            windowStart = Math.max(0, firstVisibleItem - depth);
+            windowEnd = firstVisibleItem - 1;
+        }else{
+            windowStart = lastVisibleItem + 1;
+            windowEnd = Math.min(totalItemCount - 1, lastVisibleItem + depth);
+        }
+
+        cancelOutside(windowStart, windowEnd);
+
+        for(int position = windowStart; position <= windowEnd; position++){
+            UrlKey key = getThumbnailKey(position);
+            if(key == null || mPrefetches.containsKey(key)){
+                continue;
+            }
+            ImageScheduler.Job job = mAdapter.prefetchThumbnail(position);
+            if(job != null){
+                mPrefetches.put(key, new Prefetch(job, position));
+                mIssuedCount++;
+            }
+        }
+    }
+
+    /**
+     * Counts prefetched rows that have now come on screen as correct predictions
+     */
+    private void recordHits(int firstVisibleItem, int lastVisibleItem){
+        if(mPrefetches.isEmpty()){
+            return;
+        }
+        for(int position = firstVisibleItem; position <= lastVisibleItem; position++){
+            UrlKey key = getThumbnailKey(position);
+            if(key != null && mPrefetches.remove(key) != null){
+                mHitCount++;
+            }
+        }
+    }
+
+    /**
+     * Drops prefetches for rows outside the look ahead window, they were wrong predictions
+     */
+    private void cancelOutside(int windowStart, int windowEnd){
+        Iterator<Prefetch> iterator = mPrefetches.values().iterator();
+        while(iterator.hasNext()){
+            Prefetch prefetch = iterator.next();
+            if(prefetch.position < windowStart || prefetch.position > windowEnd){
+                iterator.remove();
+                mMissCount++;
+                if(mAdapter.cancelPrefetch(prefetch.job)){
+                    mCancelledCount++;
+                }
+            }
+        }
+    }
+
+    private void cancelAll(){
+        cancelOutside(Integer.MAX_VALUE, Integer.MIN_VALUE);
+    }
+
+    private UrlKey getThumbnailKey(int position){
+        if(position < 0 || position >= mAdapter.getItemCount()){
+            return null;
+        }
+        return mAdapter.getItem(position).getThumbnailUrl();
+    }
+
+    /**
+     * Returns a snapshot of the prefetch counters
+     * @return
+     */
+    Stats getStats(){
+        return new Stats(mIssuedCount, mHitCount, mMissCount, mCancelledCount,
+                mPrefetches.size());
+    }
+
+    /**
+     * A prefetch in flight and the row it was made for
+     */
+    private static class Prefetch {
+        final ImageScheduler.Job job;
+        final int position;
+
+        Prefetch(ImageScheduler.Job job, int position){
+            this.job = job;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Point in time view of the prefetch counters
+     */
+    static class Stats {
+
+        final long issuedCount;
+        final long hitCount;
+        final long missCount;
+        final long cancelledCount;
+        final int outstandingCount;
+
+        Stats(long issuedCount, long hitCount, long missCount, long cancelledCount,
+              int outstandingCount){
+            this.issuedCount = issuedCount;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.cancelledCount = cancelledCount;
+            this.outstandingCount = outstandingCount;
+        }
+
+        /**
+         * Fraction of settled prefetches whose row was scrolled onto the screen
+         * @return
+         */
+        double getAccuracy(){
+            long settled = hitCount + missCount;
+            return settled == 0 ? 0 : (double) hitCount / settled;
+        }
+
+        @Override
+        public String toString(){
+            return "issued=" + issuedCount + " hits=" + hitCount + " misses=" + missCount
+                    + " cancelled=" + cancelledCount + " outstanding=" + outstandingCount
+                    + " accuracy=" + String.format("%.2f", getAccuracy());
+        }
+    }
+}
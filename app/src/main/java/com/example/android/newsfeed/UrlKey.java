@@ -0,0 +1,123 @@
+package com.example.android.newsfeed;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * An http or https url held as a normalized string, used wherever urls are compared or looked
+ * up. Unlike java.net.URL, equals() and hashCode() never resolve the host, so they are safe and
+ * cheap on the main thread. The hash is worked out once up front.
+ *
+ * Normalizing lower cases the scheme and host, drops the default port and any fragment and
+ * turns an empty path into "/", so urls that only differ in those ways are equal
+ */
+
+final class UrlKey {
+
+    private final String mUrl;
+    private final int mHash;
+    private long mStableId;
+
+    private UrlKey(String url){
+        mUrl = url;
+        mHash = url.hashCode();
+    }
+
+    /**
+     * Parses and normalizes an absolute http or https url
+     * @param url
+     * @return
+     * @throws URISyntaxException if the url isn't an absolute http or https url
+     */
+    static UrlKey parse(String url) throws URISyntaxException{
+        URI uri = new URI(url);
+
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if(scheme == null || host == null){
+            throw new URISyntaxException(url, "Not an absolute url");
+        }
+        scheme = scheme.toLowerCase(Locale.US);
+        if(!scheme.equals("http") && !scheme.equals("https")){
+            throw new URISyntaxException(url, "Not an http url");
+        }
+
+        StringBuilder normalized = new StringBuilder(url.length());
+        normalized.append(scheme).append("://");
+        if(uri.getRawUserInfo() != null){
+            normalized.append(uri.getRawUserInfo()).append('@');
+        }
+        normalized.append(host.toLowerCase(Locale.US));
+
+        int port = uri.getPort();
+        if(port != -1 && !(port == 80 && scheme.equals("http"))
+                && !(port == 443 && scheme.equals("https"))){
+            normalized.append(':').append(port);
+        }
+
+        String path = uri.getRawPath();
+        normalized.append(path == null || path.isEmpty() ? "/" : path);
+
+        if(uri.getRawQuery() != null){
+            normalized.append('?').append(uri.getRawQuery());
+        }
+
+        return new UrlKey(normalized.toString());
+    }
+
+    /**
+     * Returns a URL to open a connection with
+     * @return
+     * @throws MalformedURLException
+     */
+    URL toUrl() throws MalformedURLException{
+        return new URL(mUrl);
+    }
+
+    /**
+     * Returns a 64 bit FNV-1a hash of the url. It is the same in every run of the app and wide
+     * enough that two urls in one list won't share it, so it can serve as a list item id
+     * @return
+     */
+    long getStableId(){
+        long stableId = mStableId;
+        if(stableId == 0){
+            stableId = 0xcbf29ce484222325L;
+            for(int i = 0; i < mUrl.length(); i++){
+                stableId ^= mUrl.charAt(i);
+                stableId *= 0x100000001b3L;
+            }
+            mStableId = stableId;
+        }
+        return stableId;
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o){
+            return true;
+        }
+        if(!(o instanceof UrlKey)){
+            return false;
+        }
+        UrlKey other = (UrlKey) o;
+        return mHash == other.mHash && mUrl.equals(other.mUrl);
+    }
+
+    @Override
+    public int hashCode(){
+        return mHash;
+    }
+
+    /**
+     * Returns the normalized url
+     * @return
+     */
+    @Override
+    public String toString(){
+        return mUrl;
+    }
+}
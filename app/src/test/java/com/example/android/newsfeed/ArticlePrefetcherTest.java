@@ -0,0 +1,115 @@
+package com.example.android.newsfeed;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks which article bodies are fetched for the reader and how they are stored
+ */
+public class ArticlePrefetcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ArticleStore store;
+    private FakeSource source;
+
+    /**
+     * Answers with a body for every article asked for, and records what was asked
+     */
+    private static class FakeSource implements ArticlePrefetcher.Source {
+        final List<List<UrlKey>> requests = new ArrayList<>();
+
+        @Override
+        public Map<UrlKey, String> fetchBodies(List<UrlKey> articleUrls) {
+            requests.add(new ArrayList<>(articleUrls));
+            Map<UrlKey, String> bodies = new HashMap<>();
+            for (UrlKey url : articleUrls) {
+                bodies.put(url, "<p>Body of " + url + "</p>");
+            }
+            return bodies;
+        }
+    }
+
+    private static NewsItem item(int i) throws Exception {
+        return new NewsItem("Headline " + i, "World news", "world", i,
+                UrlKey.parse("https://www.theguardian.com/world/2017/jul/10/story-" + i),
+                UrlKey.parse("https://media.guim.co.uk/" + i + "/500.jpg"));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        store = new ArticleStore(DiskCache.open(folder.newFolder("articles"), 1024 * 1024));
+        source = new FakeSource();
+    }
+
+    @Test
+    public void fetchesOnlyTopStoriesNotSavedYetInOneRequest() throws Exception {
+        List<NewsItem> feed = Arrays.asList(item(1), item(2), item(3), item(4));
+        store.put(feed.get(0).getUrl(), "<p>Saved</p>");
+
+        ArticlePrefetcher prefetcher = new ArticlePrefetcher(source, store);
+        assertEquals(2, prefetcher.prefetch(feed, 3));
+        assertEquals(1, source.requests.size());
+        assertEquals(Arrays.asList(feed.get(1).getUrl(), feed.get(2).getUrl()),
+                source.requests.get(0));
+        assertFalse(store.contains(feed.get(3).getUrl()));
+
+        //All saved now, so nothing more is asked for
+        assertEquals(0, prefetcher.prefetch(feed, 3));
+        assertEquals(1, source.requests.size());
+    }
+
+    @Test
+    public void openingAStoryFetchesItOnlyIfNotSaved() throws Exception {
+        UrlKey url = item(1).getUrl();
+        ArticlePrefetcher prefetcher = new ArticlePrefetcher(source, store);
+
+        assertEquals("<p>Body of " + url + "</p>", prefetcher.get(url));
+        assertTrue(store.contains(url));
+        assertEquals("<p>Body of " + url + "</p>", prefetcher.get(url));
+        assertEquals(1, source.requests.size());
+    }
+
+    @Test
+    public void storesBodiesCompressedWithoutWhatTheReaderCantShow() throws Exception {
+        StringBuilder html = new StringBuilder();
+        html.append("<figure class=\"element\"><img src=\"https://i.guim.co.uk/a.jpg\">"
+                + "<figcaption>Caption</figcaption></figure>");
+        for (int i = 0; i < 50; i++) {
+            html.append("<p>Paragraph ").append(i).append(" of a long story.</p>");
+        }
+        html.append("<script>embed()</script><!-- note -->");
+
+        String simplified = ArticleStore.simplify(html.toString());
+        assertFalse(simplified.contains("figure"));
+        assertFalse(simplified.contains("Caption"));
+        assertFalse(simplified.contains("script"));
+        assertFalse(simplified.contains("note"));
+        assertTrue(simplified.startsWith("<p>Paragraph 0 "));
+
+        byte[] compressed = ArticleStore.compress(simplified);
+        assertTrue(compressed.length < simplified.length() / 2);
+
+        UrlKey url = item(1).getUrl();
+        store.put(url, html.toString());
+        assertEquals(simplified, store.get(url));
+    }
+
+    @Test
+    public void articleIdIsThePathOfAGuardianUrl() throws Exception {
+        assertEquals("world/2017/jul/10/story-1", FeedQuery.getArticleId(item(1).getUrl()));
+        assertNull(FeedQuery.getArticleId(UrlKey.parse("https://example.com/world/story")));
+        assertNull(FeedQuery.getArticleId(UrlKey.parse("https://www.theguardian.com/")));
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.android.newsfeed;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the on disk thumbnail cache
+ */
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveReopen() throws Exception {
+        File dir = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 1000);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(200, 2));
+        cache.close();
+
+        cache = DiskCache.open(dir, 1000);
+        assertArrayEquals(bytes(100, 1), cache.getBytes("a"));
+        assertArrayEquals(bytes(200, 2), cache.getBytes("b"));
+        assertEquals(300, cache.getSize());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        DiskCache cache = DiskCache.open(mFolder.newFolder(), 300);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+        cache.put("c", bytes(100, 3));
+
+        //Reading a makes b the eldest entry
+        assertNotNull(cache.getBytes("a"));
+        cache.put("d", bytes(100, 4));
+
+        assertNull(cache.getBytes("b"));
+        assertNotNull(cache.getBytes("a"));
+        assertNotNull(cache.getBytes("c"));
+        assertNotNull(cache.getBytes("d"));
+        assertEquals(300, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void rejectsAnEntryLargerThanTheCache() throws Exception {
+        DiskCache cache = DiskCache.open(mFolder.newFolder(), 300);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+
+        //Too big to ever fit, so nothing is evicted to make room and a stale b goes
+        assertFalse(cache.put("b", bytes(301, 3)));
+        assertNotNull(cache.getBytes("a"));
+        assertNull(cache.getBytes("b"));
+        assertEquals(100, cache.getSize());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void recencySurvivesReopen() throws Exception {
+        File dir = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 300);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+        cache.put("c", bytes(100, 3));
+        cache.getBytes("a");
+        cache.close();
+
+        cache = DiskCache.open(dir, 300);
+        cache.put("d", bytes(100, 4));
+        assertNull(cache.getBytes("b"));
+        assertNotNull(cache.getBytes("a"));
+    }
+
+    @Test
+    public void shrinkingMaxSizeEvictsOnOpen() throws Exception {
+        File dir = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 1000);
+        cache.put("a", bytes(400, 1));
+        cache.put("b", bytes(400, 2));
+        cache.close();
+
+        cache = DiskCache.open(dir, 500);
+        assertNull(cache.getBytes("a"));
+        assertNotNull(cache.getBytes("b"));
+    }
+
+    @Test
+    public void truncatedJournalKeepsEarlierEntries() throws Exception {
+        File dir = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 1000);
+        cache.put("a", bytes(100, 1));
+        cache.close();
+
+        //Simulate a crash part way through appending a line
+        FileWriter writer = new FileWriter(new File(dir, DiskCache.JOURNAL_FILE), true);
+        writer.write("PUT " + DiskCache.nameFor("b") + " 1");
+        writer.close();
+
+        cache = DiskCache.open(dir, 1000);
+        assertArrayEquals(bytes(100, 1), cache.getBytes("a"));
+        assertNull(cache.getBytes("b"));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void garbageJournalStartsEmpty() throws Exception {
+        File dir = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 1000);
+        cache.put("a", bytes(100, 1));
+        cache.close();
+
+        FileWriter writer = new FileWriter(new File(dir, DiskCache.JOURNAL_FILE));
+        writer.write("not a journal\n\u0000\u0000");
+        writer.close();
+
+        cache = DiskCache.open(dir, 1000);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+
+        //The orphaned entry file is cleaned up
+        assertEquals(Arrays.asList(DiskCache.JOURNAL_FILE), Arrays.asList(dir.list()));
+    }
+
+    @Test
+    public void dropsEntriesWithMissingOrResizedFiles() throws Exception {
+        File dir = mFolder.newFolder();
+        DiskCache cache = DiskCache.open(dir, 1000);
+        cache.put("a", bytes(100, 1));
+        cache.put("b", bytes(100, 2));
+        cache.put("c", bytes(100, 3));
+        cache.close();
+
+        assertTrue(new File(dir, DiskCache.nameFor("a")).delete());
+        FileOutputStream out = new FileOutputStream(new File(dir, DiskCache.nameFor("b")));
+        out.write(bytes(10, 9));
+        out.close();
+
+        cache = DiskCache.open(dir, 1000);
+        assertNull(cache.getBytes("a"));
+        assertNull(cache.getBytes("b"));
+        assertArrayEquals(bytes(100, 3), cache.getBytes("c"));
+        assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void deletesLeftoverTemporaryFiles() throws Exception {
+        File dir = mFolder.newFolder();
+        DiskCache.open(dir, 1000).close();
+
+        File tmp = new File(dir, DiskCache.nameFor("a") + ".7.tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        out.write(bytes(50, 1));
+        out.close();
+
+        DiskCache cache = DiskCache.open(dir, 1000);
+        assertFalse(tmp.exists());
+        assertNull(cache.getBytes("a"));
+    }
+
+    @Test
+    public void concurrentReadersAndWriters() throws Exception {
+        File dir = mFolder.newFolder();
+        final DiskCache cache = DiskCache.open(dir, 5000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Void>> futures = new ArrayList<>();
+
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 300; i++) {
+                        int key = random.nextInt(40);
+                        if (random.nextBoolean()) {
+                            cache.put("key" + key, bytes(100 + key, key));
+                        } else {
+                            byte[] data = cache.getBytes("key" + key);
+                            if (data != null) {
+                                assertArrayEquals(bytes(100 + key, key), data);
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertTrue(cache.getSize() <= 5000);
+        long size = cache.getSize();
+        int entries = cache.getEntryCount();
+        cache.close();
+
+        //The journal agrees with what was in memory
+        DiskCache reopened = DiskCache.open(dir, 5000);
+        assertEquals(size, reopened.getSize());
+        assertEquals(entries, reopened.getEntryCount());
+        assertEquals(entries + 1, dir.list().length);
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+}
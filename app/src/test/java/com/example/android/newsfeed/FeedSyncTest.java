@@ -0,0 +1,162 @@
+package com.example.android.newsfeed;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs syncs against a fake network and a real disk cache and checks which thumbnails are
+ * downloaded and that a run keeps within its byte budget
+ */
+public class FeedSyncTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void downloadsNewestThumbnailsNotAlreadyCached() throws Exception {
+        DiskCache cache = DiskCache.open(mFolder.newFolder(), 100000);
+        List<NewsItem> newsItems = items(5);
+        cache.put(newsItems.get(1).getThumbnailUrl().toString(), new byte[10]);
+
+        FakeNetwork network = new FakeNetwork(newsItems, 100);
+        FeedSync feedSync = new FeedSync(network, cache, 100000, 4);
+
+        assertEquals(newsItems, feedSync.fetchFeed(Collections.singletonList("feed")));
+        assertEquals(3, feedSync.prefetchThumbnails(newsItems));
+
+        //The fifth item is past the thumbnail count and the second was on disk already
+        assertEquals(3, network.downloads.size());
+        assertFalse(network.downloads.contains(newsItems.get(1).getThumbnailUrl()));
+        assertFalse(network.downloads.contains(newsItems.get(4).getThumbnailUrl()));
+        assertTrue(cache.contains(newsItems.get(3).getThumbnailUrl().toString()));
+        assertEquals(1, feedSync.getStats().thumbnailsCached);
+    }
+
+    @Test
+    public void stopsAtTheByteBudget() throws Exception {
+        DiskCache cache = DiskCache.open(mFolder.newFolder(), 100000);
+        List<NewsItem> newsItems = items(10);
+
+        FakeNetwork network = new FakeNetwork(newsItems, 100);
+        FeedSync feedSync = new FeedSync(network, cache, 250, 10);
+
+        assertEquals(2, feedSync.prefetchThumbnails(newsItems));
+        FeedSync.Stats stats = feedSync.getStats();
+        assertTrue(stats.bytesUsed <= 250);
+        assertTrue(stats.budgetExhausted);
+
+        //The 50 bytes left can't hold another thumbnail so none are asked for
+        assertEquals(2, network.downloads.size());
+    }
+
+    @Test
+    public void skipsAThumbnailTooBigForWhatIsLeft() throws Exception {
+        DiskCache cache = DiskCache.open(mFolder.newFolder(), 100000);
+        List<NewsItem> newsItems = items(3);
+
+        FakeNetwork network = new FakeNetwork(newsItems, 100);
+        FeedSync feedSync = new FeedSync(network, cache, 99, 3);
+
+        assertEquals(0, feedSync.prefetchThumbnails(newsItems));
+        assertEquals(99, network.lastMaxBytes);
+        assertEquals(3, network.downloads.size());
+        assertFalse(feedSync.getStats().budgetExhausted);
+    }
+
+    @Test
+    public void stopsWhenInterrupted() throws Exception {
+        DiskCache cache = DiskCache.open(mFolder.newFolder(), 100000);
+        List<NewsItem> newsItems = items(5);
+        FeedSync feedSync = new FeedSync(new FakeNetwork(newsItems, 100), cache, 100000, 5);
+
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(0, feedSync.prefetchThumbnails(newsItems));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void asksForOnlyTheArticlesTheBudgetLeftCanHold() throws Exception {
+        List<NewsItem> newsItems = items(10);
+        FeedSync feedSync = new FeedSync(new FakeNetwork(newsItems, 100),
+                DiskCache.open(mFolder.newFolder(), 100000),
+                100 + 5 * FeedSync.ESTIMATED_ARTICLE_BYTES / 2, 1);
+        assertEquals(1, feedSync.prefetchThumbnails(newsItems));
+
+        //Two and a half bodies' worth is left after the thumbnail, so two are asked for
+        final List<List<UrlKey>> requests = new ArrayList<>();
+        ArticlePrefetcher prefetcher = new ArticlePrefetcher(new ArticlePrefetcher.Source() {
+            @Override
+            public Map<UrlKey, String> fetchBodies(List<UrlKey> articleUrls) {
+                requests.add(articleUrls);
+                PerfMetrics.getInstance().add(PerfMetrics.ARTICLE_BYTES_RECEIVED,
+                        articleUrls.size() * FeedSync.ESTIMATED_ARTICLE_BYTES);
+                Map<UrlKey, String> bodies = new HashMap<>();
+                for (UrlKey url : articleUrls) {
+                    bodies.put(url, "<p>Body</p>");
+                }
+                return bodies;
+            }
+        }, new ArticleStore(DiskCache.open(mFolder.newFolder(), 100000)));
+
+        assertEquals(2, feedSync.prefetchArticles(prefetcher, newsItems, 5));
+        assertEquals(1, requests.size());
+        assertEquals(2, requests.get(0).size());
+        FeedSync.Stats stats = feedSync.getStats();
+        assertEquals(100 + 2 * FeedSync.ESTIMATED_ARTICLE_BYTES, stats.bytesUsed);
+        assertEquals(2, stats.articlesSaved);
+
+        //What is left can't hold another body so nothing more is asked for
+        assertEquals(0, feedSync.prefetchArticles(prefetcher, newsItems, 5));
+        assertEquals(1, requests.size());
+        assertTrue(feedSync.getStats().budgetExhausted);
+    }
+
+    private static List<NewsItem> items(int count) throws Exception {
+        List<NewsItem> newsItems = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            newsItems.add(new NewsItem("Headline " + i, "World", "world", 1000 - i,
+                    UrlKey.parse("https://example.com/article/" + i),
+                    UrlKey.parse("https://example.com/thumbnail/" + i + ".jpg")));
+        }
+        return newsItems;
+    }
+
+    /**
+     * Serves the same feed every time and a thumbnail of a fixed size if it fits
+     */
+    private static class FakeNetwork implements FeedSync.Network {
+        final List<NewsItem> feed;
+        final int thumbnailBytes;
+        final List<UrlKey> downloads = new ArrayList<>();
+        long lastMaxBytes;
+
+        FakeNetwork(List<NewsItem> feed, int thumbnailBytes) {
+            this.feed = feed;
+            this.thumbnailBytes = thumbnailBytes;
+        }
+
+        @Override
+        public List<NewsItem> fetchFeed(List<String> urls) {
+            return feed;
+        }
+
+        @Override
+        public byte[] download(UrlKey url, long maxBytes) {
+            downloads.add(url);
+            lastMaxBytes = maxBytes;
+            return thumbnailBytes <= maxBytes ? new byte[thumbnailBytes] : null;
+        }
+    }
+}
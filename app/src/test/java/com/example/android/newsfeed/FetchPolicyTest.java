@@ -0,0 +1,193 @@
+package com.example.android.newsfeed;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs fake requests that fail, stall or answer through the policy and checks when it
+ * retries, how its timeouts follow recent requests and that a stalled request is hedged
+ */
+public class FetchPolicyTest {
+
+    private ScheduledThreadPoolExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = new ScheduledThreadPoolExecutor(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void retriesRetryableFailuresThenGivesUp() throws Exception {
+        FetchPolicy policy = new FetchPolicy(3, 1, 4, null);
+        FailingRequest request = new FailingRequest(FetchException.forStatus(503, 0));
+
+        try {
+            policy.execute(request);
+            fail("Expected the last failure");
+        } catch (FetchException e) {
+            assertEquals(FetchException.REASON_HTTP, e.getReason());
+            assertEquals(503, e.getHttpStatus());
+        }
+        assertEquals(3, request.attempts.get());
+    }
+
+    @Test
+    public void succeedsOnALaterAttempt() throws Exception {
+        FetchPolicy policy = new FetchPolicy(3, 1, 4, null);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        String result = policy.execute(new FetchPolicy.Request<String>() {
+            @Override
+            public String run(int connectTimeoutMs, int readTimeoutMs) throws FetchException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new FetchException(FetchException.REASON_NETWORK, "reset", null);
+                }
+                return "ok";
+            }
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryClientErrorsOrBadResponses() throws Exception {
+        FetchPolicy policy = new FetchPolicy(3, 1, 4, null);
+
+        FailingRequest notFound = new FailingRequest(FetchException.forStatus(404, 0));
+        FailingRequest badJson = new FailingRequest(
+                new FetchException(FetchException.REASON_PARSE, "bad", null));
+        FailingRequest tooLongToWait = new FailingRequest(FetchException.forStatus(503, 60000));
+        for (FailingRequest request : new FailingRequest[]{notFound, badJson, tooLongToWait}) {
+            try {
+                policy.execute(request);
+                fail("Expected a failure");
+            } catch (FetchException e) {
+                assertEquals(1, request.attempts.get());
+            }
+        }
+    }
+
+    @Test
+    public void backoffGrowsWithJitterUpToTheCap() {
+        FetchPolicy policy = new FetchPolicy(10, 100, 1000, null);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.getBackoffMs(1);
+            long third = policy.getBackoffMs(3);
+            long capped = policy.getBackoffMs(40);
+            assertTrue(String.valueOf(first), first >= 50 && first <= 100);
+            assertTrue(String.valueOf(third), third >= 200 && third <= 400);
+            assertTrue(String.valueOf(capped), capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void timeoutsFollowRecentRequestTimes() throws Exception {
+        FetchPolicy policy = new FetchPolicy(3, 1, 4, null);
+        TimeoutRecordingRequest request = new TimeoutRecordingRequest();
+
+        policy.execute(request);
+        assertEquals(HttpClient.DEFAULT_CONNECT_TIMEOUT, request.connectTimeouts.get(0).intValue());
+        assertEquals(HttpClient.DEFAULT_READ_TIMEOUT, request.readTimeouts.get(0).intValue());
+        assertEquals(HttpClient.DEFAULT_CONNECT_TIMEOUT + HttpClient.DEFAULT_READ_TIMEOUT,
+                policy.getAttemptTimeoutMs());
+
+        //Fast requests bring the timeouts down to their floors
+        for (int i = 0; i < FetchPolicy.MIN_SAMPLES; i++) {
+            policy.addSample(20);
+        }
+        policy.execute(request);
+        assertEquals(FetchPolicy.MIN_CONNECT_TIMEOUT, request.connectTimeouts.get(1).intValue());
+        assertEquals(FetchPolicy.MIN_READ_TIMEOUT, request.readTimeouts.get(1).intValue());
+        assertEquals(FetchPolicy.MIN_CONNECT_TIMEOUT + FetchPolicy.MIN_READ_TIMEOUT,
+                policy.getAttemptTimeoutMs());
+
+        //Slower ones raise them to a few times the 99th percentile
+        for (int i = 0; i < 64; i++) {
+            policy.addSample(2000);
+        }
+        policy.execute(request);
+        assertEquals(6000, request.connectTimeouts.get(2).intValue());
+        assertEquals(6000, request.readTimeouts.get(2).intValue());
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws Exception {
+        FetchPolicy policy = new FetchPolicy(1, 1, 4, mExecutor);
+        for (int i = 0; i < 20; i++) {
+            policy.addSample(10);
+        }
+
+        //Enough requests that a hedge fits in the budget
+        for (int i = 0; i < 20; i++) {
+            policy.execute(new TimeoutRecordingRequest());
+        }
+
+        final AtomicInteger calls = new AtomicInteger();
+        final Thread caller = Thread.currentThread();
+        long start = System.currentTimeMillis();
+        String result = policy.execute(new FetchPolicy.Request<String>() {
+            @Override
+            public String run(int connectTimeoutMs, int readTimeoutMs) throws FetchException {
+                if (calls.incrementAndGet() == 1) {
+                    //The request runs on the calling thread, only the copy on the pool
+                    assertSame(caller, Thread.currentThread());
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        throw new FetchException(FetchException.REASON_CANCELLED, "stopped", e);
+                    }
+                    return "first";
+                }
+                return "hedge";
+            }
+        });
+
+        assertEquals("hedge", result);
+        assertEquals(2, calls.get());
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        //The slow request was stopped and the interrupt stopping it doesn't leak to the caller
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    private static class FailingRequest implements FetchPolicy.Request<String> {
+        final FetchException failure;
+        final AtomicInteger attempts = new AtomicInteger();
+
+        FailingRequest(FetchException failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public String run(int connectTimeoutMs, int readTimeoutMs) throws FetchException {
+            attempts.incrementAndGet();
+            throw failure;
+        }
+    }
+
+    private static class TimeoutRecordingRequest implements FetchPolicy.Request<String> {
+        final List<Integer> connectTimeouts = new ArrayList<>();
+        final List<Integer> readTimeouts = new ArrayList<>();
+
+        @Override
+        public synchronized String run(int connectTimeoutMs, int readTimeoutMs) {
+            connectTimeouts.add(connectTimeoutMs);
+            readTimeouts.add(readTimeoutMs);
+            return "ok";
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.newsfeed;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the timestamp parser against SimpleDateFormat, including from many threads at once
+ */
+public class Iso8601Test {
+
+    @Test
+    public void parsesGuardianTimestampsToTheSecond() throws Exception {
+        assertEquals(utc("2017-07-20T09:15:30.000"), Iso8601.parse("2017-07-20T09:15:30Z"));
+        assertEquals(0, Iso8601.parse("1970-01-01T00:00:00Z"));
+        assertEquals(utc("2017-07-20T00:00:00.000"), Iso8601.parse("2017-07-20"));
+    }
+
+    @Test
+    public void parsesFractionsOffsetsAndShortForms() throws Exception {
+        long expected = utc("2017-07-20T09:15:30.123");
+        assertEquals(expected, Iso8601.parse("2017-07-20T09:15:30.123Z"));
+        assertEquals(expected, Iso8601.parse("2017-07-20T09:15:30.123456789Z"));
+        assertEquals(expected, Iso8601.parse("2017-07-20T10:15:30.123+01:00"));
+        assertEquals(expected, Iso8601.parse("2017-07-20T04:45:30.123-0430"));
+        assertEquals(expected - 30123, Iso8601.parse("2017-07-20T09:15"));
+        assertEquals(utc("2017-07-20T09:15:30.100"), Iso8601.parse("2017-07-20T09:15:30.1Z"));
+    }
+
+    @Test
+    public void handlesLeapYears() throws Exception {
+        assertEquals(utc("2016-02-29T12:00:00.000"), Iso8601.parse("2016-02-29T12:00:00Z"));
+        assertEquals(utc("2000-02-29T12:00:00.000"), Iso8601.parse("2000-02-29T12:00:00Z"));
+        assertInvalid("2017-02-29T12:00:00Z");
+        assertInvalid("1900-02-29T12:00:00Z");
+    }
+
+    @Test
+    public void rejectsMalformedTimestamps() {
+        String[] invalid = {"", "2017", "2017-7-20", "2017-07-20T", "2017-07-20 09:15:30Z",
+                "2017-13-01T00:00:00Z", "2017-07-32T00:00:00Z", "2017-07-20T25:00:00Z",
+                "2017-07-20T09:60:00Z", "2017-07-20T09:15:30.Z", "2017-07-20T09:15:30Q",
+                "2017-07-20T09:15:30+1", "2017-07-20T09:15:30Zjunk", "2017-07-2OT09:15:30Z"};
+        for (String text : invalid) {
+            assertInvalid(text);
+        }
+    }
+
+    @Test
+    public void matchesSimpleDateFormatAcrossRandomTimes() throws Exception {
+        SimpleDateFormat format = utcFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            //Any time from 1900 to 2100
+            long time = -2208988800000L + (long) (random.nextDouble() * 6311433600000L);
+            String text = format.format(time);
+            assertEquals(text, time, Iso8601.parse(text));
+        }
+    }
+
+    @Test
+    public void formatsUtcToTheSecond() throws Exception {
+        SimpleDateFormat format = utcFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            long time = -2208988800000L + (long) (random.nextDouble() * 6311433600000L);
+            assertEquals(format.format(time), Iso8601.formatUtc(time));
+        }
+        assertEquals("1969-12-31T23:59:59Z", Iso8601.formatUtc(-1));
+    }
+
+    @Test
+    public void parsesOnManyThreadsAtOnce() throws Exception {
+        final SimpleDateFormat format = utcFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        final List<String> texts = new ArrayList<>();
+        final long[] expected = new long[2000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = 1500000000000L + i * 3600001000L;
+            texts.add(format.format(expected[i]));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int i = 0; i < texts.size(); i++) {
+                            if (Iso8601.parse(texts.get(i)) != expected[i]) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertInvalid(String text) {
+        try {
+            Iso8601.parse(text);
+            fail("Parsed " + text);
+        } catch (ParseException expected) {
+            //Expected
+        }
+    }
+
+    private static long utc(String text) throws ParseException {
+        return utcFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").parse(text).getTime();
+    }
+
+    private static SimpleDateFormat utcFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.android.newsfeed;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that bucket bounds line up and that percentiles stay within the histogram's
+ * precision of the exact values
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueInOrder() {
+        long previousUpper = -1;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            long upper = LatencyHistogram.bucketUpperBound(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketFor(previousUpper + 1));
+            assertEquals(bucket, LatencyHistogram.bucketFor(upper));
+            previousUpper = upper;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1,
+                LatencyHistogram.bucketFor(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinAnEighth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            //Spread over several orders of magnitude like real request times
+            values[i] = (long) Math.exp(random.nextDouble() * 14);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(values.length, snapshot.count);
+        assertEquals(values[values.length - 1], snapshot.maxMicros);
+        for (double fraction : new double[]{0.5, 0.95, 0.99}) {
+            long exact = values[(int) Math.ceil(fraction * values.length) - 1];
+            long estimate = snapshot.getPercentile(fraction);
+            assertTrue(fraction + ": " + estimate + " < " + exact, estimate >= exact);
+            assertTrue(fraction + ": " + estimate + " > " + exact, estimate <= exact + exact / 8 + 1);
+        }
+    }
+
+    @Test
+    public void emptyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getSnapshot().getPercentile(0.99));
+
+        histogram.record(-5);
+        histogram.record(250);
+        assertEquals(0, histogram.getSnapshot().getPercentile(0.5));
+        assertEquals(250, histogram.getSnapshot().getPercentile(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.getSnapshot().count);
+        assertEquals(0, histogram.getSnapshot().maxMicros);
+    }
+
+    @Test
+    public void metricsDumpShowsTimedPhasesAndRatios() {
+        PerfMetrics metrics = new PerfMetrics();
+        metrics.record(PerfMetrics.FEED_FETCH, PerfMetrics.start());
+        metrics.increment(PerfMetrics.IMAGE_MEMORY_HITS);
+        metrics.increment(PerfMetrics.IMAGE_MEMORY_HITS);
+        metrics.increment(PerfMetrics.IMAGE_MEMORY_HITS);
+        metrics.increment(PerfMetrics.IMAGE_MEMORY_MISSES);
+        metrics.add(PerfMetrics.FEED_BYTES_RECEIVED, 1234);
+
+        String dump = metrics.dump();
+        assertTrue(dump, dump.startsWith("feed.fetch n=1 "));
+        assertFalse(dump, dump.contains("image.decode n="));
+        assertTrue(dump, dump.contains("feed.bytesReceived=1234"));
+        assertEquals(0.75, metrics.getHitRatio(PerfMetrics.IMAGE_MEMORY_HITS,
+                PerfMetrics.IMAGE_MEMORY_MISSES), 0);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.android.newsfeed;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks what each connection class may fetch and the small thumbnail renditions
+ */
+public class NetworkPolicyTest {
+
+    @Test
+    public void fetchesLessOnSlowerOrMeteredConnections() {
+        NetworkPolicy unmetered = NetworkPolicy.forConnection(
+                NetworkPolicy.NETWORK_UNMETERED, false, 5, 20);
+        NetworkPolicy metered = NetworkPolicy.forConnection(
+                NetworkPolicy.NETWORK_METERED, false, 5, 20);
+        NetworkPolicy slow = NetworkPolicy.forConnection(
+                NetworkPolicy.NETWORK_SLOW, false, 5, 20);
+
+        assertEquals(FeedQuery.PAGE_SIZE, unmetered.pageSize);
+        assertEquals(5, unmetered.prefetchBaseDepth);
+        assertEquals(20, unmetered.prefetchMaxDepth);
+        assertEquals(NetworkPolicy.THUMBNAILS_FULL, unmetered.thumbnailMode);
+        assertEquals(NetworkPolicy.ARTICLE_PREFETCH_COUNT, unmetered.articlePrefetchCount);
+
+        assertTrue(metered.pageSize < unmetered.pageSize);
+        assertTrue(metered.articlePrefetchCount < unmetered.articlePrefetchCount);
+        assertTrue(metered.prefetchMaxDepth < unmetered.prefetchMaxDepth);
+        assertTrue(metered.prefetchBaseDepth > 0);
+        assertEquals(NetworkPolicy.THUMBNAILS_SMALL, metered.thumbnailMode);
+
+        assertTrue(slow.pageSize < metered.pageSize);
+        assertEquals(0, slow.prefetchBaseDepth);
+        assertEquals(NetworkPolicy.THUMBNAILS_SMALL, slow.thumbnailMode);
+        assertEquals(0, slow.articlePrefetchCount);
+    }
+
+    @Test
+    public void dataSaverOnlyAppliesOffUnmeteredConnections() {
+        NetworkPolicy unmetered = NetworkPolicy.forConnection(
+                NetworkPolicy.NETWORK_UNMETERED, true, 5, 20);
+        assertEquals(FeedQuery.PAGE_SIZE, unmetered.pageSize);
+        assertEquals(NetworkPolicy.THUMBNAILS_FULL, unmetered.thumbnailMode);
+
+        NetworkPolicy metered = NetworkPolicy.forConnection(
+                NetworkPolicy.NETWORK_METERED, true, 5, 20);
+        assertEquals(0, metered.prefetchMaxDepth);
+        assertEquals(NetworkPolicy.THUMBNAILS_CACHED, metered.thumbnailMode);
+        assertEquals(0, metered.articlePrefetchCount);
+        assertTrue(metered.dataSaver);
+    }
+
+    @Test
+    public void smallRenditionReplacesTheWidth() throws Exception {
+        UrlKey url = UrlKey.parse("https://media.guim.co.uk/abc123/0_0_3500_2100/500.jpg");
+        assertEquals(UrlKey.parse("https://media.guim.co.uk/abc123/0_0_3500_2100/140.jpg"),
+                NetworkPolicy.getSmallRendition(url));
+
+        //Already small, or not a rendition at all
+        assertNull(NetworkPolicy.getSmallRendition(
+                UrlKey.parse("https://media.guim.co.uk/abc123/0_0_3500_2100/140.jpg")));
+        assertNull(NetworkPolicy.getSmallRendition(
+                UrlKey.parse("https://example.com/images/thumbnail.jpg")));
+    }
+}
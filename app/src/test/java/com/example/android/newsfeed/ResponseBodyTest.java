@@ -0,0 +1,141 @@
+package com.example.android.newsfeed;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fetches a JSON body from a local HTTP server in each content encoding and checks both the
+ * bytes received and the decoded text
+ */
+public class ResponseBodyTest {
+
+    private HttpServer mServer;
+    private String mJson;
+    private String mRequestedEncoding;
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder json = new StringBuilder("{\"response\":{\"results\":[");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) {
+                json.append(",\n");
+            }
+            json.append("{\"sectionName\":\"World news\",\"webTitle\":\"Café headline ")
+                    .append(i).append("\"}");
+        }
+        mJson = json.append("]}}").toString();
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequestedEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                String encoding = exchange.getRequestURI().getPath().substring(1);
+                byte[] body = encode(mJson.getBytes("UTF-8"), encoding);
+                if (!encoding.equals("identity")) {
+                    exchange.getResponseHeaders().set("Content-Encoding",
+                            encoding.equals("raw-deflate") ? "deflate" : encoding);
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void decodesGzip() throws Exception {
+        assertRoundTrip("gzip");
+    }
+
+    @Test
+    public void decodesZlibDeflate() throws Exception {
+        assertRoundTrip("deflate");
+    }
+
+    @Test
+    public void decodesRawDeflate() throws Exception {
+        assertRoundTrip("raw-deflate");
+    }
+
+    @Test
+    public void passesIdentityThrough() throws Exception {
+        assertRoundTrip("identity");
+    }
+
+    @Test
+    public void poolReusesBuffers() {
+        ByteArrayPool pool = new ByteArrayPool(16, 2);
+        byte[] first = pool.acquire();
+        pool.release(first);
+        assertSame(first, pool.acquire());
+
+        pool.release(new byte[8]);
+        assertEquals(0, pool.getPooledCount());
+    }
+
+    private void assertRoundTrip(String encoding) throws Exception {
+        byte[] expectedWire = encode(mJson.getBytes("UTF-8"), encoding);
+        URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/" + encoding);
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        ResponseBody.acceptCompressed(connection);
+        ResponseBody body = ResponseBody.open(connection);
+        String decoded;
+        try {
+            decoded = QueryUtils.readFromStream(body);
+        } finally {
+            body.close();
+            connection.disconnect();
+        }
+
+        assertEquals(ResponseBody.ACCEPT_ENCODING, mRequestedEncoding);
+        assertEquals(mJson, decoded);
+        assertEquals(expectedWire.length, body.getBytesReceived());
+        assertEquals(mJson.getBytes("UTF-8").length, body.getBytesDecoded());
+        if (!encoding.equals("identity")) {
+            assertTrue(body.getBytesReceived() * 5 < body.getBytesDecoded());
+        }
+    }
+
+    private static byte[] encode(byte[] data, String encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream out;
+        if (encoding.equals("gzip")) {
+            out = new GZIPOutputStream(bytes);
+        } else if (encoding.equals("deflate")) {
+            out = new DeflaterOutputStream(bytes);
+        } else if (encoding.equals("raw-deflate")) {
+            out = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        } else {
+            out = bytes;
+        }
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.newsfeed;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks matching, ranking, updating and saving of the headline search index
+ */
+public class SearchIndexTest {
+
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long NOW = 1500000000000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static NewsItem item(String id, String headline, long time) throws Exception {
+        return new NewsItem(headline, "World news", "world", time,
+                UrlKey.parse("https://www.theguardian.com/world/" + id),
+                UrlKey.parse("https://media.guim.co.uk/" + id + "/500.jpg"));
+    }
+
+    private SearchIndex newIndex() throws Exception {
+        return new SearchIndex(new File(folder.getRoot(), SearchIndex.FILE_NAME));
+    }
+
+    private static List<String> headlines(List<NewsItem> newsItems) {
+        List<String> headlines = new ArrayList<>();
+        for (NewsItem newsItem : newsItems) {
+            headlines.add(newsItem.getHeadline());
+        }
+        return headlines;
+    }
+
+    @Test
+    public void matchesEveryWordAsAPrefixIgnoringCaseAndAccents() throws Exception {
+        SearchIndex index = newIndex();
+        index.addAll(Arrays.asList(
+                item("a", "Élection results in Brazil", NOW),
+                item("b", "Brazil beat Argentina", NOW),
+                item("c", "Election called in France", NOW)));
+
+        assertEquals(Arrays.asList("Élection results in Brazil"),
+                headlines(index.search("elect braz", 10, NOW)));
+        assertEquals(2, index.search("ELECTION", 10, NOW).size());
+        assertTrue(index.search("brazil france", 10, NOW).isEmpty());
+        assertTrue(index.search("  ", 10, NOW).isEmpty());
+    }
+
+    @Test
+    public void ranksExactWordsAndRecentItemsHigher() throws Exception {
+        SearchIndex index = newIndex();
+        index.addAll(Arrays.asList(
+                item("a", "Budgets cut again", NOW),
+                item("b", "Budget day", NOW),
+                item("c", "Budget day last year", NOW - 365 * 24 * HOUR)));
+
+        //An exact word beats a completion of it, and the newer of two equal matches wins
+        List<String> results = headlines(index.search("budget", 10, NOW));
+        assertEquals(3, results.size());
+        assertEquals("Budget day", results.get(0));
+        assertTrue(results.indexOf("Budget day last year") > 0);
+        assertEquals(1, index.search("budget", 1, NOW).size());
+    }
+
+    @Test
+    public void reindexesChangedHeadlinesAndDropsTheOldest() throws Exception {
+        SearchIndex index = newIndex();
+        assertEquals(1, index.addAll(Collections.singletonList(item("a", "Storm warning", NOW))));
+
+        //Unchanged items aren't indexed again
+        assertEquals(0, index.addAll(Collections.singletonList(item("a", "Storm warning", NOW))));
+
+        index.addAll(Collections.singletonList(item("a", "Storm passes", NOW)));
+        assertTrue(index.search("warning", 10, NOW).isEmpty());
+        assertEquals(1, index.search("passes", 10, NOW).size());
+        assertEquals(1, index.size());
+
+        List<NewsItem> many = new ArrayList<>();
+        for (int i = 0; i < SearchIndex.MAX_DOCUMENTS; i++) {
+            many.add(item("n" + i, "Filler story " + i, NOW + 1 + i));
+        }
+        index.addAll(many);
+        assertEquals(SearchIndex.MAX_DOCUMENTS, index.size());
+        assertTrue(index.search("storm", 10, NOW).isEmpty());
+    }
+
+    @Test
+    public void savedIndexAnswersTheSameAfterLoading() throws Exception {
+        SearchIndex index = newIndex();
+        index.addAll(Arrays.asList(
+                item("a", "Heatwave grips Europe", NOW),
+                item("b", "Europe's heat records", NOW - HOUR),
+                item("c", "Removed soon", NOW)));
+        index.addAll(Collections.singletonList(item("c", "Replaced headline", NOW)));
+        index.save();
+
+        //Nothing is found until the saved index has been read
+        SearchIndex reloaded = newIndex();
+        assertTrue(reloaded.search("heat europe", 10, NOW).isEmpty());
+        reloaded.load();
+        assertEquals(3, reloaded.size());
+        assertEquals(headlines(index.search("heat europe", 10, NOW)),
+                headlines(reloaded.search("heat europe", 10, NOW)));
+        assertTrue(reloaded.search("removed", 10, NOW).isEmpty());
+        assertEquals(1, reloaded.search("replaced", 10, NOW).size());
+    }
+
+    @Test
+    public void loadInBackgroundSaysWhenTheIndexCanBeSearched() throws Exception {
+        SearchIndex index = newIndex();
+        index.addAll(Collections.singletonList(item("a", "Heatwave grips Europe", NOW)));
+        index.save();
+
+        SearchIndex reloaded = newIndex();
+        final CountDownLatch loaded = new CountDownLatch(1);
+        reloaded.loadInBackground(new Runnable() {
+            @Override
+            public void run() {
+                loaded.countDown();
+            }
+        });
+
+        assertTrue(loaded.await(5, TimeUnit.SECONDS));
+        assertTrue(reloaded.isLoaded());
+        assertEquals(1, reloaded.search("heatwave", 10, NOW).size());
+    }
+
+    @Test
+    public void unreadableFileLeavesAnEmptyIndex() throws Exception {
+        File file = new File(folder.getRoot(), SearchIndex.FILE_NAME);
+        java.io.FileOutputStream out = new java.io.FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        SearchIndex index = new SearchIndex(file);
+        index.load();
+        assertEquals(0, index.size());
+        index.addAll(Collections.singletonList(item("a", "Fresh start", NOW)));
+        assertEquals(1, index.search("fresh", 10, NOW).size());
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.android.newsfeed;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fans out to fake sections that answer, fail or hang and checks the merged result
+ */
+public class SectionFetcherTest {
+
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void mergeInterleavesByDateNewestFirst() throws Exception {
+        List<NewsItem> world = Arrays.asList(item("w1", 90), item("w2", 50), item("w3", 10));
+        List<NewsItem> sport = Arrays.asList(item("s1", 80), item("s2", 70), item("s3", 5));
+        List<NewsItem> empty = Collections.emptyList();
+
+        List<NewsItem> merged = SectionFetcher.merge(Arrays.asList(world, empty, sport));
+
+        assertEquals(Arrays.asList("w1", "s1", "s2", "w2", "w3", "s3"), headlines(merged));
+    }
+
+    @Test
+    public void mergeKeepsAnArticleOnce() throws Exception {
+        List<NewsItem> a = Arrays.asList(item("shared", 50), item("a", 40));
+        List<NewsItem> b = Arrays.asList(item("shared", 50), item("b", 30));
+
+        assertEquals(Arrays.asList("shared", "a", "b"),
+                headlines(SectionFetcher.merge(Arrays.asList(a, b))));
+    }
+
+    @Test
+    public void mergePagesStopsAtTheOldestTimeEveryFullPageReaches() throws Exception {
+        //A busy section fills its page within minutes, a quiet one reaches back much further
+        List<NewsItem> busy = Arrays.asList(item("b1", 100), item("b2", 95), item("b3", 90));
+        List<NewsItem> quiet = Arrays.asList(item("q1", 98), item("q2", 60), item("q3", 20));
+        List<NewsItem> shortPage = Arrays.asList(item("s1", 92), item("s2", 10));
+
+        assertEquals(Arrays.asList("b1", "q1", "b2", "s1", "b3"),
+                headlines(SectionFetcher.mergePages(Arrays.asList(busy, quiet, shortPage), 3)));
+    }
+
+    @Test
+    public void pagingFromTheOldestItemKeepsSectionsPublishingAtDifferentRatesInOrder()
+            throws Exception {
+        //Every 10 for the busy section and every 70 for the quiet one, never at the same time
+        List<NewsItem> busy = new ArrayList<>();
+        for (long time = 1000; time > 0; time -= 10) {
+            busy.add(item("busy" + time, time));
+        }
+        List<NewsItem> quiet = new ArrayList<>();
+        for (long time = 995; time > 0; time -= 70) {
+            quiet.add(item("quiet" + time, time));
+        }
+        Map<String, List<NewsItem>> sections = new HashMap<>();
+        sections.put("busy", busy);
+        sections.put("quiet", quiet);
+        int pageSize = 5;
+        SectionFetcher fetcher = new SectionFetcher(mExecutor,
+                new TimelineSource(sections, pageSize), 5000);
+
+        List<NewsItem> feed = new ArrayList<>();
+        Set<UrlKey> shown = new HashSet<>();
+        long toDate = Long.MAX_VALUE;
+        for (int page = 0; page < 100; page++) {
+            List<NewsItem> newsItems = fetcher.fetch(
+                    Arrays.asList("busy@" + toDate, "quiet@" + toDate), pageSize).newsItems;
+            int added = 0;
+            for (NewsItem newsItem : newsItems) {
+                if (shown.add(newsItem.getUrl())) {
+                    feed.add(newsItem);
+                    added++;
+                }
+            }
+            if (added == 0) {
+                break;
+            }
+            toDate = feed.get(feed.size() - 1).getWebPublicationTime();
+        }
+
+        //Every item once, newest first, with nothing from the quiet section skipped
+        assertEquals(headlines(SectionFetcher.merge(Arrays.<List<NewsItem>>asList(busy, quiet))),
+                headlines(feed));
+    }
+
+    @Test
+    public void failedSectionIsLeftOut() throws Exception {
+        Map<String, List<NewsItem>> responses = new HashMap<>();
+        responses.put("world", Arrays.asList(item("w1", 20), item("w2", 10)));
+        responses.put("sport", Arrays.asList(item("s1", 15)));
+
+        SectionFetcher.Result result = new SectionFetcher(mExecutor, new FakeSource(responses, 0),
+                5000).fetch(Arrays.asList("world", "broken", "sport"));
+
+        assertEquals(Arrays.asList("w1", "s1", "w2"), headlines(result.newsItems));
+        assertEquals(3, result.sectionCount);
+        assertEquals(1, result.failedCount);
+        assertEquals(0, result.timedOutCount);
+        assertTrue(result.isPartial());
+    }
+
+    @Test
+    public void slowSectionTimesOutWithoutHoldingUpTheOthers() throws Exception {
+        Map<String, List<NewsItem>> responses = new HashMap<>();
+        responses.put("world", Arrays.asList(item("w1", 20)));
+        responses.put("sport", Arrays.asList(item("s1", 15)));
+        responses.put("slow", Arrays.asList(item("late", 30)));
+
+        long start = System.currentTimeMillis();
+        SectionFetcher.Result result = new SectionFetcher(mExecutor,
+                new FakeSource(responses, 10000), 200)
+                .fetch(Arrays.asList("world", "slow", "sport"));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(Arrays.asList("w1", "s1"), headlines(result.newsItems));
+        assertEquals(1, result.timedOutCount);
+        assertTrue("took " + elapsed + "ms", elapsed < 2000);
+    }
+
+    private static NewsItem item(String headline, long time) throws Exception {
+        return new NewsItem(headline, "Section", "section", time,
+                UrlKey.parse("https://example.com/" + headline),
+                UrlKey.parse("https://example.com/" + headline + ".jpg"));
+    }
+
+    private static List<String> headlines(List<NewsItem> newsItems) {
+        List<String> headlines = new ArrayList<>();
+        for (NewsItem newsItem : newsItems) {
+            headlines.add(newsItem.getHeadline());
+        }
+        return headlines;
+    }
+
+    /**
+     * Answers "section@time" with the newest page of the section published at or before time,
+     * like a query with a to-date
+     */
+    private static class TimelineSource implements SectionFetcher.Source {
+        private final Map<String, List<NewsItem>> mSections;
+        private final int mPageSize;
+
+        TimelineSource(Map<String, List<NewsItem>> sections, int pageSize) {
+            mSections = sections;
+            mPageSize = pageSize;
+        }
+
+        @Override
+        public List<NewsItem> fetch(String url) {
+            String[] query = url.split("@");
+            long toDate = Long.parseLong(query[1]);
+            List<NewsItem> page = new ArrayList<>();
+            for (NewsItem newsItem : mSections.get(query[0])) {
+                if (newsItem.getWebPublicationTime() <= toDate && page.size() < mPageSize) {
+                    page.add(newsItem);
+                }
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Answers from a map, throws for unknown sections and sleeps on the "slow" one
+     */
+    private static class FakeSource implements SectionFetcher.Source {
+        private final Map<String, List<NewsItem>> mResponses;
+        private final long mSlowDelayMs;
+
+        FakeSource(Map<String, List<NewsItem>> responses, long slowDelayMs) {
+            mResponses = responses;
+            mSlowDelayMs = slowDelayMs;
+        }
+
+        @Override
+        public List<NewsItem> fetch(String url) throws Exception {
+            if (url.equals("slow")) {
+                Thread.sleep(mSlowDelayMs);
+            }
+            List<NewsItem> newsItems = mResponses.get(url);
+            if (newsItems == null) {
+                throw new Exception("No such section " + url);
+            }
+            return newsItems;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.android.newsfeed;
+
+import org.junit.Test;
+
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks url normalization. How lookups keyed by UrlKey perform is measured by UrlKeyBenchmark
+ */
+public class UrlKeyTest {
+
+    @Test
+    public void normalizesCaseDefaultPortAndFragment() throws Exception {
+        UrlKey expected = UrlKey.parse("https://www.theguardian.com/world/2017/jul/20/story");
+
+        assertEquals(expected, UrlKey.parse("HTTPS://WWW.TheGuardian.com/world/2017/jul/20/story"));
+        assertEquals(expected, UrlKey.parse("https://www.theguardian.com:443/world/2017/jul/20/story"));
+        assertEquals(expected, UrlKey.parse("https://www.theguardian.com/world/2017/jul/20/story#top"));
+        assertEquals(expected.hashCode(),
+                UrlKey.parse("https://WWW.theguardian.com/world/2017/jul/20/story").hashCode());
+
+        assertEquals("http://example.com/", UrlKey.parse("http://example.com").toString());
+        assertEquals("http://example.com:8080/a?b=c",
+                UrlKey.parse("http://example.com:8080/a?b=c").toString());
+    }
+
+    @Test
+    public void pathAndQueryStayCaseSensitive() throws Exception {
+        assertNotEquals(UrlKey.parse("https://example.com/Story"),
+                UrlKey.parse("https://example.com/story"));
+        assertNotEquals(UrlKey.parse("https://example.com/a?x=1"),
+                UrlKey.parse("https://example.com/a?x=2"));
+    }
+
+    @Test
+    public void rejectsRelativeAndNonHttpUrls() {
+        String[] invalid = {"/world/story", "ftp://example.com/file", "mailto:a@example.com",
+                "https://exa mple.com/"};
+        for (String url : invalid) {
+            try {
+                UrlKey.parse(url);
+                fail("Parsed " + url);
+            } catch (URISyntaxException expected) {
+                //Expected
+            }
+        }
+    }
+}
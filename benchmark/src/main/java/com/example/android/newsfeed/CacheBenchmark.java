@@ -0,0 +1,114 @@
+package com.example.android.newsfeed;
+
+import android.graphics.Bitmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The thumbnail cache's insert, lookup and evict paths. Thumbnails are the 500 pixel wide
+ * images the API sends, decoded at RGB_565, and the cache holds as many as the list shows
+ * over a few screens. Every insert past that evicts into the bitmap pool
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final int THUMBNAIL_WIDTH = 500;
+    private static final int THUMBNAIL_HEIGHT = 300;
+
+    //Number of thumbnails the cache and pool have room for
+    @Param({"10", "50", "200"})
+    public int capacity;
+
+    private UrlKey[] mUrls;
+    private Bitmap[] mBitmaps;
+    private UrlKey[] mMissingUrls;
+    private Cache mCache;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUpKeys() throws Exception{
+        //Twice the capacity, so inserting them in turn always evicts
+        int count = capacity * 2;
+        mUrls = new UrlKey[count];
+        mBitmaps = new Bitmap[count];
+        mMissingUrls = new UrlKey[count];
+        for(int i = 0; i < count; i++){
+            mUrls[i] = UrlKey.parse("https://media.guim.co.uk/" + i + "/0_0_3500_2100/500.jpg");
+            mMissingUrls[i] = UrlKey.parse("https://media.guim.co.uk/missing/" + i + "/500.jpg");
+            mBitmaps[i] = Bitmap.createBitmap(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT,
+                    Bitmap.Config.RGB_565);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpCache(){
+        int maxBytes = capacity * Cache.getBitmapBytes(mBitmaps[0]);
+        mCache = new Cache(maxBytes, new BitmapPool(maxBytes));
+
+        //Start full with the first half so lookups of it hit
+        for(int i = 0; i < capacity; i++){
+            mCache.addImage(mUrls[i], mBitmaps[i]);
+        }
+        mNext = 0;
+    }
+
+    private int next(){
+        int index = mNext;
+        mNext = index + 1 == mUrls.length ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public Bitmap lookupHit(){
+        return mCache.getImage(mUrls[next() % capacity]);
+    }
+
+    @Benchmark
+    public Bitmap lookupMiss(){
+        return mCache.getImage(mMissingUrls[next()]);
+    }
+
+    /**
+     * Inserts images in turn, each one evicting the least recently used into the pool
+     */
+    @Benchmark
+    public int insertEvicting(){
+        int index = next();
+        mCache.addImage(mUrls[index], mBitmaps[index]);
+        return mCache.getSize();
+    }
+
+    /**
+     * A lookup and on a miss an insert, scanning over twice what the cache holds. That is the
+     * least recently used policy's worst case, a long fling, where every lookup misses
+     */
+    @Benchmark
+    public Bitmap lookupOrInsert(){
+        int index = next();
+        Bitmap bitmap = mCache.getImage(mUrls[index]);
+        if(bitmap == null){
+            bitmap = mBitmaps[index];
+            mCache.addImage(mUrls[index], bitmap);
+        }
+        return bitmap;
+    }
+}
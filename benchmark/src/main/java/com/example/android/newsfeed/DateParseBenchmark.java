@@ -0,0 +1,71 @@
+package com.example.android.newsfeed;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing publication dates with Iso8601 against the SimpleDateFormat it replaced, over the
+ * timestamps of the shape the API sends
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateParseBenchmark {
+
+    private static final String[] TIMESTAMPS = {
+            "2017-07-20T09:00:00Z",
+            "2017-07-19T10:07:13Z",
+            "2017-07-18T23:59:59Z",
+            "2016-02-29T00:00:01Z",
+            "2017-01-01T00:00:00Z",
+            "2016-12-31T12:30:45Z"
+    };
+
+    private SimpleDateFormat mSimpleDateFormat;
+    private int mNext;
+
+    @Setup
+    public void setUp(){
+        mSimpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX", Locale.US);
+        mSimpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    private String nextTimestamp(){
+        String timestamp = TIMESTAMPS[mNext];
+        mNext = (mNext + 1) % TIMESTAMPS.length;
+        return timestamp;
+    }
+
+    @Benchmark
+    public long iso8601() throws ParseException{
+        return Iso8601.parse(nextTimestamp());
+    }
+
+    @Benchmark
+    public long simpleDateFormat() throws ParseException{
+        return mSimpleDateFormat.parse(nextTimestamp()).getTime();
+    }
+
+    @Benchmark
+    public String formatUtc(){
+        return Iso8601.formatUtc(1500541530000L + mNext++);
+    }
+}
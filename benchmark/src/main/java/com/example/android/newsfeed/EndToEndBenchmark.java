@@ -0,0 +1,143 @@
+package com.example.android.newsfeed;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feed queries and thumbnail downloads end to end, through the shared HttpClient, against a
+ * local GuardianServer. Several threads run at once like the section fetcher and thumbnail
+ * scheduler do, so throughput and the sample time percentiles show how connection limits,
+ * keep-alive, compression and revalidation hold up under load.
+ *
+ * Every combination of latency, bandwidth and revalidation runs in its own JVM so the shared
+ * client and caches start cold. The server's counters and the app's phase timings are printed
+ * after each run. Error rate and gzip can be changed from the command line, for example
+ * -p errorRate=0.05 -p gzip=false
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    private static final int PAGE_SIZE = 25;
+
+    //Distinct thumbnails requested in turn, more than the client keeps connections for
+    private static final int THUMBNAIL_COUNT = 100;
+
+    //Round trip added to each response
+    @Param({"0", "100"})
+    public int latencyMs;
+
+    //Per response cap in bytes per second, 0 for none. 250000 is a middling mobile link
+    @Param({"0", "250000"})
+    public long bytesPerSecond;
+
+    //Whether responses carry ETags and the feed is revalidated through the response cache
+    @Param({"false", "true"})
+    public boolean revalidate;
+
+    @Param({"0"})
+    public double errorRate;
+
+    @Param({"true"})
+    public boolean gzip;
+
+    private GuardianServer mServer;
+    private String mSearchUrl;
+    private UrlKey[] mThumbnailUrls;
+    private ResponseCache mResponseCache;
+    private final AtomicInteger mNextThumbnail = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws Exception{
+        mServer = new GuardianServer();
+        mServer.setLatency(latencyMs, latencyMs / 10);
+        mServer.setBandwidth(bytesPerSecond);
+        mServer.setErrorRate(errorRate);
+        mServer.setGzip(gzip);
+        mServer.setEtags(revalidate);
+
+        mSearchUrl = mServer.searchUrl(PAGE_SIZE, 1);
+        mThumbnailUrls = new UrlKey[THUMBNAIL_COUNT];
+        for(int i = 0; i < THUMBNAIL_COUNT; i++){
+            mThumbnailUrls[i] = UrlKey.parse(mServer.thumbnailUrl(i));
+        }
+
+        final File cacheDir = Files.createTempDirectory("newsfeed-e2e").toFile();
+        mResponseCache = ResponseCache.getInstance(new Context() {
+            @Override
+            public File getCacheDir(){
+                return cacheDir;
+            }
+
+            @Override
+            public File getFilesDir(){
+                return cacheDir;
+            }
+
+            @Override
+            public Object getSystemService(String name){
+                return null;
+            }
+        });
+
+        //Make sure the server answers with a whole page before measuring it
+        if(QueryUtils.fetchNewsItems(mSearchUrl, null).size() != PAGE_SIZE){
+            throw new IllegalStateException("Server did not return a full page");
+        }
+        PerfMetrics.getInstance().reset();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException{
+        System.out.println();
+        System.out.println("Server: " + mServer);
+        System.out.println("Client: " + HttpClient.getInstance().getStats());
+        System.out.println(PerfMetrics.getInstance().dump());
+        mServer.stop();
+    }
+
+    /**
+     * Returns null for a fetch that failed after its retries, which still counts towards the
+     * time and throughput as a user would wait through it
+     */
+    @Benchmark
+    public List<NewsItem> fetchFeed(){
+        try{
+            return QueryUtils.fetchNewsItems(mSearchUrl, revalidate ? mResponseCache : null);
+        }catch(FetchException e){
+            return null;
+        }
+    }
+
+    @Benchmark
+    public byte[] downloadThumbnail(){
+        int index = (mNextThumbnail.getAndIncrement() & Integer.MAX_VALUE) % THUMBNAIL_COUNT;
+        return QueryUtils.downloadBytes(mThumbnailUrls[index]);
+    }
+}
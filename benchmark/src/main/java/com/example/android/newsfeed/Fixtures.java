@@ -0,0 +1,104 @@
+package com.example.android.newsfeed;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Builds search responses of any size from the recorded Guardian response the instrumented
+ * tests use, so every benchmark parses real field layouts, escapes and unicode
+ */
+
+final class Fixtures {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String RECORDED_RESPONSE = "/search_response.json";
+
+    private Fixtures(){}
+
+    /**
+     * Returns a response holding the given number of results. The recorded results are
+     * repeated in order, each copy with its own urls and an earlier publication time so the
+     * items stay distinct and sorted newest first
+     * @param resultCount
+     * @return
+     * @throws IOException
+     * @throws JSONException
+     */
+    static String searchResponse(int resultCount) throws IOException, JSONException{
+        return searchResponse(resultCount, 0, null);
+    }
+
+    /**
+     * Returns a response holding results firstResult onwards of the endless list the
+     * recorded results are repeated into
+     * @param resultCount
+     * @param firstResult
+     * @param thumbnailBase if set each thumbnail url is changed to this followed by
+     *                      "/thumbnails/" and the result's number
+     * @return
+     * @throws IOException
+     * @throws JSONException
+     */
+    static String searchResponse(int resultCount, int firstResult, String thumbnailBase)
+            throws IOException, JSONException{
+        JSONObject recorded = new JSONObject(readRecordedResponse());
+        JSONObject response = recorded.getJSONObject("response");
+        JSONArray recordedResults = response.getJSONArray("results");
+
+        JSONArray results = new JSONArray();
+        for(int i = firstResult; i < firstResult + resultCount; i++){
+            int copy = i / recordedResults.length();
+            JSONObject result = new JSONObject(
+                    recordedResults.getJSONObject(i % recordedResults.length()).toString());
+            if(copy > 0){
+                String suffix = "-" + copy;
+                result.put("id", result.getString("id") + suffix);
+                result.put("webUrl", result.getString("webUrl") + suffix);
+                result.put("apiUrl", result.getString("apiUrl") + suffix);
+                result.put("webPublicationDate", shiftDays(result.getString("webPublicationDate"), -copy));
+            }
+            if(thumbnailBase != null){
+                result.getJSONObject("fields").put("thumbnail",
+                        thumbnailBase + "/thumbnails/" + i + ".jpg");
+            }
+            results.put(result);
+        }
+
+        response.put("results", results);
+        response.put("pageSize", resultCount);
+        return recorded.toString();
+    }
+
+    private static String shiftDays(String timestamp, int days){
+        try{
+            return Iso8601.formatUtc(Iso8601.parse(timestamp) + days * 24 * 60 * 60 * 1000L);
+        }catch(java.text.ParseException e){
+            throw new IllegalStateException("Bad fixture date " + timestamp, e);
+        }
+    }
+
+    private static String readRecordedResponse() throws IOException{
+        InputStream in = Fixtures.class.getResourceAsStream(RECORDED_RESPONSE);
+        if(in == null){
+            throw new IOException("Missing fixture " + RECORDED_RESPONSE);
+        }
+        try{
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        }finally{
+            in.close();
+        }
+    }
+}
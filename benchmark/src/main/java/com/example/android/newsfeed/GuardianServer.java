@@ -0,0 +1,358 @@
+package com.example.android.newsfeed;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the Guardian content API, so the fetch pipeline can be driven offline
+ * and repeatably. /search answers with the recorded response scaled to the page-size asked
+ * for, with thumbnail urls pointing back at /thumbnails on this server.
+ *
+ * How the network behaves is set on the server and can change while it runs: a delay before
+ * each response, a cap on bytes sent per second for each response, a fraction of requests
+ * answered with 503, whether bodies are gzipped when the client accepts it and whether
+ * responses carry an ETag and answer a matching If-None-Match with 304
+ */
+
+final class GuardianServer {
+
+    //Size of each thumbnail served, about that of a 500 pixel wide JPEG from the API
+    static final int THUMBNAIL_BYTES = 24 * 1024;
+
+    //Bytes written between checks of the bandwidth cap
+    private static final int WRITE_CHUNK_BYTES = 4 * 1024;
+
+    private static final int MAX_PAGE_SIZE = 200;
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final String mBaseUrl;
+
+    //Bodies already built, by path and query
+    private final Map<String, Body> mBodies = new ConcurrentHashMap<>();
+    private final byte[] mThumbnail;
+
+    private volatile int mLatencyMs;
+    private volatile int mLatencyJitterMs;
+    private volatile long mBytesPerSecond;
+    private volatile double mErrorRate;
+    private volatile boolean mGzip = true;
+    private volatile boolean mEtags = true;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mNotModifiedCount = new AtomicLong();
+    private final AtomicLong mErrorCount = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    /**
+     * Starts a server on a free port of the loopback address
+     * @throws IOException
+     */
+    GuardianServer() throws IOException{
+        //Send each write at once, headers and body go out separately and would otherwise sit
+        //waiting on the client's delayed ACK
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+
+        mThumbnail = new byte[THUMBNAIL_BYTES];
+        new Random(0).nextBytes(mThumbnail);
+
+        mServer.createContext("/search", new Handler() {
+            @Override
+            Body getBody(HttpExchange exchange) throws IOException{
+                return getSearchBody(exchange.getRequestURI().getRawQuery());
+            }
+        });
+        mServer.createContext("/thumbnails/", new Handler() {
+            @Override
+            Body getBody(HttpExchange exchange){
+                return getThumbnailBody(exchange.getRequestURI().getPath());
+            }
+        });
+
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable){
+                Thread thread = new Thread(runnable, "GuardianServer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    void stop(){
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the url of a search for a page of results
+     * @param pageSize
+     * @param page
+     * @return
+     */
+    String searchUrl(int pageSize, int page){
+        return mBaseUrl + "/search?format=json&show-fields=headline,thumbnail&order-by=newest"
+                + "&page-size=" + pageSize + "&page=" + page + "&api-key=test";
+    }
+
+    String thumbnailUrl(int index){
+        return mBaseUrl + "/thumbnails/" + index + ".jpg";
+    }
+
+    /**
+     * Waits this long plus up to jitterMs more before answering each request
+     * @param latencyMs
+     * @param jitterMs
+     */
+    void setLatency(int latencyMs, int jitterMs){
+        mLatencyMs = latencyMs;
+        mLatencyJitterMs = jitterMs;
+    }
+
+    /**
+     * Caps how fast each response body is sent, 0 for no cap
+     * @param bytesPerSecond
+     */
+    void setBandwidth(long bytesPerSecond){
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Answers this fraction of requests with 503 Service Unavailable
+     * @param errorRate between 0 and 1
+     */
+    void setErrorRate(double errorRate){
+        mErrorRate = errorRate;
+    }
+
+    void setGzip(boolean gzip){
+        mGzip = gzip;
+    }
+
+    void setEtags(boolean etags){
+        mEtags = etags;
+    }
+
+    long getRequestCount(){
+        return mRequestCount.get();
+    }
+
+    long getNotModifiedCount(){
+        return mNotModifiedCount.get();
+    }
+
+    long getErrorCount(){
+        return mErrorCount.get();
+    }
+
+    long getBytesSent(){
+        return mBytesSent.get();
+    }
+
+    @Override
+    public String toString(){
+        return "requests=" + getRequestCount() + " notModified=" + getNotModifiedCount()
+                + " errors=" + getErrorCount() + " bytesSent=" + getBytesSent();
+    }
+
+    private Body getSearchBody(String query) throws IOException{
+        Map<String, String> params = parseQuery(query);
+        int pageSize = Math.max(1, Math.min(MAX_PAGE_SIZE, parseInt(params.get("page-size"), 10)));
+        int page = Math.max(1, parseInt(params.get("page"), 1));
+
+        String key = "/search?" + pageSize + "&" + page;
+        Body body = mBodies.get(key);
+        if(body == null){
+            try{
+                String json = Fixtures.searchResponse(pageSize, (page - 1) * pageSize, mBaseUrl);
+                body = new Body(json.getBytes(Fixtures.UTF_8), "application/json", true);
+            }catch(JSONException e){
+                throw new IOException("Bad fixture", e);
+            }
+            mBodies.put(key, body);
+        }
+        return body;
+    }
+
+    private Body getThumbnailBody(String path){
+        Body body = mBodies.get(path);
+        if(body == null){
+            //Every thumbnail has the same bytes but its own ETag
+            body = new Body(mThumbnail, "image/jpeg", false, path);
+            mBodies.put(path, body);
+        }
+        return body;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException{
+        Map<String, String> params = new HashMap<>();
+        if(query == null){
+            return params;
+        }
+        for(String pair : query.split("&")){
+            int equals = pair.indexOf('=');
+            if(equals > 0){
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private static int parseInt(String value, int defaultValue){
+        try{
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }catch(NumberFormatException e){
+            return defaultValue;
+        }
+    }
+
+    /**
+     * A response body, with a gzipped copy if it is worth compressing
+     */
+    private static class Body {
+        final byte[] identity;
+        final byte[] gzipped;
+        final String contentType;
+        final String etag;
+
+        Body(byte[] identity, String contentType, boolean compress){
+            this(identity, contentType, compress, "");
+        }
+
+        Body(byte[] identity, String contentType, boolean compress, String tagSeed){
+            this.identity = identity;
+            this.gzipped = compress ? gzip(identity) : null;
+            this.contentType = contentType;
+            this.etag = Integer.toHexString(Arrays.hashCode(identity))
+                    + Integer.toHexString(tagSeed.hashCode());
+        }
+
+        private static byte[] gzip(byte[] bytes){
+            try{
+                ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(bytes);
+                gzip.close();
+                return out.toByteArray();
+            }catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Answers a request with a body after applying the configured latency, errors, ETags,
+     * compression and bandwidth cap
+     */
+    private abstract class Handler implements HttpHandler {
+
+        abstract Body getBody(HttpExchange exchange) throws IOException;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException{
+            try{
+                mRequestCount.incrementAndGet();
+                exchange.getRequestBody().close();
+
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int jitter = mLatencyJitterMs;
+                sleep(mLatencyMs + (jitter > 0 ? random.nextInt(jitter + 1) : 0));
+
+                if(mErrorRate > 0 && random.nextDouble() < mErrorRate){
+                    mErrorCount.incrementAndGet();
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+
+                Body body = getBody(exchange);
+                Headers requestHeaders = exchange.getRequestHeaders();
+                Headers responseHeaders = exchange.getResponseHeaders();
+
+                String acceptEncoding = requestHeaders.getFirst("Accept-Encoding");
+                boolean gzip = mGzip && body.gzipped != null && acceptEncoding != null
+                        && acceptEncoding.contains("gzip");
+                byte[] bytes = gzip ? body.gzipped : body.identity;
+
+                if(mEtags){
+                    String etag = "\"" + body.etag + (gzip ? "-gzip" : "") + "\"";
+                    responseHeaders.set("ETag", etag);
+                    if(etag.equals(requestHeaders.getFirst("If-None-Match"))){
+                        mNotModifiedCount.incrementAndGet();
+                        exchange.sendResponseHeaders(304, -1);
+                        return;
+                    }
+                }
+
+                responseHeaders.set("Content-Type", body.contentType);
+                if(gzip){
+                    responseHeaders.set("Content-Encoding", "gzip");
+                }
+                exchange.sendResponseHeaders(200, bytes.length);
+                write(exchange.getResponseBody(), bytes);
+            }finally{
+                exchange.close();
+            }
+        }
+
+        /**
+         * Writes a body in chunks, waiting between them to keep under the bandwidth cap
+         */
+        private void write(OutputStream out, byte[] bytes) throws IOException{
+            long bytesPerSecond = mBytesPerSecond;
+            long start = System.nanoTime();
+            for(int offset = 0; offset < bytes.length; offset += WRITE_CHUNK_BYTES){
+                int count = Math.min(WRITE_CHUNK_BYTES, bytes.length - offset);
+                out.write(bytes, offset, count);
+                out.flush();
+                mBytesSent.addAndGet(count);
+
+                if(bytesPerSecond > 0){
+                    long due = (offset + count) * 1000L / bytesPerSecond;
+                    long elapsed = (System.nanoTime() - start) / 1000000;
+                    sleep(due - elapsed);
+                }
+            }
+            out.close();
+        }
+
+        private void sleep(long millis) throws IOException{
+            if(millis <= 0){
+                return;
+            }
+            try{
+                Thread.sleep(millis);
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+}
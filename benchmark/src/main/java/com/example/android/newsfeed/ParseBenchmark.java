@@ -0,0 +1,79 @@
+package com.example.android.newsfeed;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and parsing a search response, from the bytes a connection hands back to the list
+ * of news items, at page sizes from the default up to the API's maximum
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"10", "50", "100", "200"})
+    public int resultCount;
+
+    private String mResponse;
+    private byte[] mResponseBytes;
+
+    @Setup
+    public void setUp() throws Exception{
+        mResponse = Fixtures.searchResponse(resultCount);
+        mResponseBytes = mResponse.getBytes(Fixtures.UTF_8);
+
+        //Make sure every result survives parsing, or the benchmark measures the error path
+        if(QueryUtils.extractFeaturesFromJson(mResponse).size() != resultCount
+                || parseStream().size() != resultCount){
+            throw new IllegalStateException("Fixture did not parse to " + resultCount + " items");
+        }
+    }
+
+    @Benchmark
+    public String readFromStream() throws IOException{
+        return QueryUtils.readFromStream(new ByteArrayInputStream(mResponseBytes));
+    }
+
+    @Benchmark
+    public List<NewsItem> extractFeaturesFromJson(){
+        return QueryUtils.extractFeaturesFromJson(mResponse);
+    }
+
+    /**
+     * What the app did before streaming, reading the whole response to a String and then
+     * building a JSONObject tree from it
+     */
+    @Benchmark
+    public List<NewsItem> readThenExtractFeatures() throws IOException{
+        return QueryUtils.extractFeaturesFromJson(
+                QueryUtils.readFromStream(new ByteArrayInputStream(mResponseBytes)));
+    }
+
+    @Benchmark
+    public List<NewsItem> extractNewsItemsFromStream(){
+        return parseStream();
+    }
+
+    private List<NewsItem> parseStream(){
+        return QueryUtils.extractNewsItemsFromStream(new ByteArrayInputStream(mResponseBytes));
+    }
+}
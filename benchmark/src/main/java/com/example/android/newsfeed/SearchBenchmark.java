@@ -0,0 +1,87 @@
+package com.example.android.newsfeed;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answering a search query from a full index as the user types, which has to fit in a frame.
+ * Headlines are made up from a fixed vocabulary so common and rare words and short prefixes
+ * match about as many items as they would in real headlines
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final String[] WORDS = {
+            "election", "brexit", "budget", "storm", "market", "minister", "football", "league",
+            "climate", "report", "police", "court", "health", "school", "trade", "talks",
+            "president", "europe", "china", "music", "film", "review", "crisis", "vote",
+            "housing", "energy", "prices", "strike", "final", "season", "record", "warning"
+    };
+
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    //Query as typed so far: a short prefix matching many words, a word, and two words
+    @Param({"b", "budget", "climate rep"})
+    public String query;
+
+    private SearchIndex mIndex;
+    private File mFile;
+    private long mNow;
+
+    @Setup(Level.Trial)
+    public void setUpIndex() throws Exception{
+        mFile = File.createTempFile("search", ".index");
+        mFile.delete();
+        mIndex = new SearchIndex(mFile);
+        mNow = System.currentTimeMillis();
+
+        Random random = new Random(42);
+        List<NewsItem> newsItems = new ArrayList<>();
+        for(int i = 0; i < SearchIndex.MAX_DOCUMENTS; i++){
+            StringBuilder headline = new StringBuilder();
+            int length = 6 + random.nextInt(8);
+            for(int w = 0; w < length; w++){
+                headline.append(WORDS[(int) Math.abs(random.nextGaussian() * WORDS.length / 3)
+                        % WORDS.length]).append(' ');
+            }
+            headline.append("story").append(i);
+            newsItems.add(new NewsItem(headline.toString(), "News", "news", mNow - i * HOUR / 4,
+                    UrlKey.parse("https://www.theguardian.com/news/" + i),
+                    UrlKey.parse("https://media.guim.co.uk/" + i + "/500.jpg")));
+        }
+        mIndex.addAll(newsItems);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteIndex(){
+        mFile.delete();
+    }
+
+    @Benchmark
+    public List<NewsItem> search(){
+        return mIndex.search(query, 50, mNow);
+    }
+}
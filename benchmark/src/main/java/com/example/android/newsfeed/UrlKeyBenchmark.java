@@ -0,0 +1,85 @@
+package com.example.android.newsfeed;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looking up a thumbnail url in a map the size of the image cache, as binding a row does,
+ * keyed by UrlKey, by java.net.URI and by java.net.URL as the app used before UrlKey. The keys
+ * are built up front like the ones a NewsItem holds, so only the lookup is timed. Each lookup
+ * key is a separate instance equal to the one in the map so equals() does the full comparison.
+ *
+ * The hosts are IP literals so URL's equals() and hashCode() resolve them without a DNS lookup.
+ * With a real host name each lookup can wait on the resolver, which is worse than measured here
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlKeyBenchmark {
+
+    //Thumbnails in a full feed, the size of the image cache and prefetch maps
+    private static final int KEY_COUNT = 200;
+
+    private final Map<UrlKey, Integer> mByKey = new HashMap<>();
+    private final Map<URI, Integer> mByUri = new HashMap<>();
+    private final Map<URL, Integer> mByUrl = new HashMap<>();
+    private UrlKey[] mUrlKeys;
+    private URI[] mUris;
+    private URL[] mUrls;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void setUpMaps() throws Exception{
+        mUrlKeys = new UrlKey[KEY_COUNT];
+        mUris = new URI[KEY_COUNT];
+        mUrls = new URL[KEY_COUNT];
+        for(int i = 0; i < KEY_COUNT; i++){
+            String url = "https://192.0.2." + (i % 250 + 1) + "/img/media/" + i + "/500.jpg";
+            mByKey.put(UrlKey.parse(url), i);
+            mByUri.put(new URI(url), i);
+            mByUrl.put(new URL(url), i);
+            mUrlKeys[i] = UrlKey.parse(url);
+            mUris[i] = new URI(url);
+            mUrls[i] = new URL(url);
+        }
+    }
+
+    private int next(){
+        mNext = (mNext + 1) % KEY_COUNT;
+        return mNext;
+    }
+
+    @Benchmark
+    public Integer lookupUrlKey(){
+        return mByKey.get(mUrlKeys[next()]);
+    }
+
+    @Benchmark
+    public Integer lookupUri(){
+        return mByUri.get(mUris[next()]);
+    }
+
+    @Benchmark
+    public Integer lookupUrl(){
+        return mByUrl.get(mUrls[next()]);
+    }
+}
@@ -0,0 +1,18 @@
+package android.app;
+
+/**
+ * Benchmark stand-in for android.app.ActivityManager
+ */
+
+public class ActivityManager {
+
+    private final int mMemoryClass;
+
+    public ActivityManager(int memoryClass){
+        mMemoryClass = memoryClass;
+    }
+
+    public int getMemoryClass(){
+        return mMemoryClass;
+    }
+}
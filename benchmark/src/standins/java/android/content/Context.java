@@ -0,0 +1,19 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Benchmark stand-in for android.content.Context, covering only what the cache and
+ * search classes ask of it
+ */
+
+public abstract class Context {
+
+    public static final String ACTIVITY_SERVICE = "activity";
+
+    public abstract File getCacheDir();
+
+    public abstract File getFilesDir();
+
+    public abstract Object getSystemService(String name);
+}
@@ -0,0 +1,72 @@
+package android.graphics;
+
+/**
+ * Benchmark stand-in for android.graphics.Bitmap. The pixels are a plain byte array of the
+ * size a real bitmap would allocate, so the allocation profiler sees what a device would
+ */
+
+public final class Bitmap {
+
+    public enum Config {
+        ALPHA_8(1),
+        RGB_565(2),
+        ARGB_4444(2),
+        ARGB_8888(4);
+
+        final int mBytesPerPixel;
+
+        Config(int bytesPerPixel){
+            mBytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Config mConfig;
+    private final boolean mMutable;
+    private byte[] mPixels;
+
+    private Bitmap(int width, int height, Config config, boolean mutable){
+        mWidth = width;
+        mHeight = height;
+        mConfig = config;
+        mMutable = mutable;
+        mPixels = new byte[width * height * config.mBytesPerPixel];
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config){
+        return new Bitmap(width, height, config, true);
+    }
+
+    public int getWidth(){
+        return mWidth;
+    }
+
+    public int getHeight(){
+        return mHeight;
+    }
+
+    public Config getConfig(){
+        return mConfig;
+    }
+
+    public boolean isMutable(){
+        return mMutable;
+    }
+
+    public boolean isRecycled(){
+        return mPixels == null;
+    }
+
+    public void recycle(){
+        mPixels = null;
+    }
+
+    public int getByteCount(){
+        return mWidth * mHeight * mConfig.mBytesPerPixel;
+    }
+
+    public int getAllocationByteCount(){
+        return mPixels == null ? 0 : mPixels.length;
+    }
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * Benchmark stand-in for android.os.Build, reporting the SDK the app compiles against
+ */
+
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 24;
+    }
+
+    public static class VERSION_CODES {
+        public static final int HONEYCOMB = 11;
+        public static final int KITKAT = 19;
+        public static final int LOLLIPOP = 21;
+        public static final int N = 24;
+    }
+}
@@ -0,0 +1,88 @@
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Benchmark stand-in for android.util.JsonReader. Android's reader is the one Gson's was
+ * taken from, so this hands every call to Gson's and the two read a stream the same way
+ */
+
+public final class JsonReader implements Closeable {
+
+    private final com.google.gson.stream.JsonReader mReader;
+
+    public JsonReader(Reader in){
+        mReader = new com.google.gson.stream.JsonReader(in);
+    }
+
+    public void setLenient(boolean lenient){
+        mReader.setLenient(lenient);
+    }
+
+    public boolean isLenient(){
+        return mReader.isLenient();
+    }
+
+    public void beginArray() throws IOException{
+        mReader.beginArray();
+    }
+
+    public void endArray() throws IOException{
+        mReader.endArray();
+    }
+
+    public void beginObject() throws IOException{
+        mReader.beginObject();
+    }
+
+    public void endObject() throws IOException{
+        mReader.endObject();
+    }
+
+    public boolean hasNext() throws IOException{
+        return mReader.hasNext();
+    }
+
+    public JsonToken peek() throws IOException{
+        return JsonToken.valueOf(mReader.peek().name());
+    }
+
+    public String nextName() throws IOException{
+        return mReader.nextName();
+    }
+
+    public String nextString() throws IOException{
+        return mReader.nextString();
+    }
+
+    public boolean nextBoolean() throws IOException{
+        return mReader.nextBoolean();
+    }
+
+    public void nextNull() throws IOException{
+        mReader.nextNull();
+    }
+
+    public double nextDouble() throws IOException{
+        return mReader.nextDouble();
+    }
+
+    public long nextLong() throws IOException{
+        return mReader.nextLong();
+    }
+
+    public int nextInt() throws IOException{
+        return mReader.nextInt();
+    }
+
+    public void skipValue() throws IOException{
+        mReader.skipValue();
+    }
+
+    @Override
+    public void close() throws IOException{
+        mReader.close();
+    }
+}
@@ -0,0 +1,18 @@
+package android.util;
+
+/**
+ * Benchmark stand-in for android.util.JsonToken
+ */
+
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
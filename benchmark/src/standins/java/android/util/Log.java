@@ -0,0 +1,34 @@
+package android.util;
+
+/**
+ * Benchmark stand-in for android.util.Log. Logging is dropped so it doesn't skew the results
+ */
+
+public final class Log {
+
+    private Log(){}
+
+    public static int d(String tag, String msg){
+        return 0;
+    }
+
+    public static int i(String tag, String msg){
+        return 0;
+    }
+
+    public static int w(String tag, String msg){
+        return 0;
+    }
+
+    public static int w(String tag, String msg, Throwable tr){
+        return 0;
+    }
+
+    public static int e(String tag, String msg){
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr){
+        return 0;
+    }
+}
@@ -0,0 +1,171 @@
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Benchmark stand-in for android.util.LruCache, built the same way on an access ordered
+ * LinkedHashMap so lookups and evictions cost about what they do on a device
+ */
+
+public class LruCache<K, V> {
+
+    private final LinkedHashMap<K, V> mMap;
+    private int mSize;
+    private int mMaxSize;
+
+    private int mPutCount;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    public LruCache(int maxSize){
+        if(maxSize <= 0){
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        mMap = new LinkedHashMap<>(0, 0.75f, true);
+    }
+
+    public final V get(K key){
+        if(key == null){
+            throw new NullPointerException("key == null");
+        }
+        synchronized(this){
+            V value = mMap.get(key);
+            if(value != null){
+                mHitCount++;
+                return value;
+            }
+            mMissCount++;
+        }
+
+        V created = create(key);
+        if(created == null){
+            return null;
+        }
+
+        V previous;
+        synchronized(this){
+            previous = mMap.put(key, created);
+            if(previous != null){
+                mMap.put(key, previous);
+            }else{
+                mSize += safeSizeOf(key, created);
+            }
+        }
+
+        if(previous != null){
+            entryRemoved(false, key, created, previous);
+            return previous;
+        }
+        trimToSize(mMaxSize);
+        return created;
+    }
+
+    public final V put(K key, V value){
+        if(key == null || value == null){
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        V previous;
+        synchronized(this){
+            mPutCount++;
+            mSize += safeSizeOf(key, value);
+            previous = mMap.put(key, value);
+            if(previous != null){
+                mSize -= safeSizeOf(key, previous);
+            }
+        }
+
+        if(previous != null){
+            entryRemoved(false, key, previous, value);
+        }
+        trimToSize(mMaxSize);
+        return previous;
+    }
+
+    public void trimToSize(int maxSize){
+        while(true){
+            K key;
+            V value;
+            synchronized(this){
+                if(mSize <= maxSize || mMap.isEmpty()){
+                    break;
+                }
+                Map.Entry<K, V> toEvict = mMap.entrySet().iterator().next();
+                key = toEvict.getKey();
+                value = toEvict.getValue();
+                mMap.remove(key);
+                mSize -= safeSizeOf(key, value);
+                mEvictionCount++;
+            }
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    public final V remove(K key){
+        if(key == null){
+            throw new NullPointerException("key == null");
+        }
+
+        V previous;
+        synchronized(this){
+            previous = mMap.remove(key);
+            if(previous != null){
+                mSize -= safeSizeOf(key, previous);
+            }
+        }
+
+        if(previous != null){
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue){}
+
+    protected V create(K key){
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value){
+        int result = sizeOf(key, value);
+        if(result < 0){
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    protected int sizeOf(K key, V value){
+        return 1;
+    }
+
+    public final void evictAll(){
+        trimToSize(-1);
+    }
+
+    public synchronized final int size(){
+        return mSize;
+    }
+
+    public synchronized final int maxSize(){
+        return mMaxSize;
+    }
+
+    public synchronized final int hitCount(){
+        return mHitCount;
+    }
+
+    public synchronized final int missCount(){
+        return mMissCount;
+    }
+
+    public synchronized final int putCount(){
+        return mPutCount;
+    }
+
+    public synchronized final int evictionCount(){
+        return mEvictionCount;
+    }
+}